@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.smoketurner.dropwizard.graphql.CachingPreparsedDocumentProvider;
+import graphql.ExecutionInput;
+import graphql.ParseAndValidate;
+import graphql.ParseAndValidateResult;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.schema.GraphQLSchema;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CachingPreparsedDocumentProvider} lookups from many threads. The {@code hit} path
+ * serves every query from the cache, while the {@code miss} path parses and validates every query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class DocumentCacheBenchmark {
+
+  private static final int QUERIES = 256;
+
+  @Param({"hit", "miss"})
+  private String path;
+
+  private GraphQLSchema schema;
+  private CachingPreparsedDocumentProvider provider;
+  private ExecutionInput[] inputs;
+
+  /** Per-thread position in the list of queries. */
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int next;
+  }
+
+  @Setup
+  public void setUp() {
+    final SyntheticSchema synthetic = new SyntheticSchema(20, 3, 2);
+    schema = synthetic.schema();
+
+    final String spec = "hit".equals(path) ? "maximumSize=" + QUERIES : "maximumSize=0";
+    provider = new CachingPreparsedDocumentProvider(CaffeineSpec.parse(spec), new MetricRegistry());
+
+    inputs = new ExecutionInput[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      inputs[i] = ExecutionInput.newExecutionInput(synthetic.query("Q" + i)).build();
+      provider.getDocumentAsync(inputs[i], this::parse).join();
+    }
+  }
+
+  @Benchmark
+  public PreparsedDocumentEntry getDocument(Cursor cursor) {
+    final ExecutionInput input = inputs[cursor.next++ % QUERIES];
+    return provider.getDocumentAsync(input, this::parse).join();
+  }
+
+  private PreparsedDocumentEntry parse(ExecutionInput input) {
+    final ParseAndValidateResult result = ParseAndValidate.parseAndValidate(schema, input);
+    if (result.isFailure()) {
+      return new PreparsedDocumentEntry(result.getErrors());
+    }
+    return new PreparsedDocumentEntry(result.getDocument());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.smoketurner.dropwizard.graphql.CachingPreparsedDocumentProvider;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.scalars.ExtendedScalars;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures end-to-end execution of a cached query against the HelloWorld example schema, a wide
+ * schema (50 fields, 50 children) and a deep schema (10 levels of 2 children).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionBenchmark {
+
+  private static final String HELLO_QUERY = "query Hello { saying(name: \"JMH\") { id content } }";
+
+  @Param({"hello", "wide", "deep"})
+  private String schemaName;
+
+  private GraphQL graphQL;
+  private String query;
+
+  @Setup
+  public void setUp() throws IOException {
+    final GraphQLSchema schema;
+    switch (schemaName) {
+      case "wide":
+        final SyntheticSchema wide = new SyntheticSchema(50, 1, 50);
+        schema = wide.schema();
+        query = wide.query("Wide");
+        break;
+      case "deep":
+        final SyntheticSchema deep = new SyntheticSchema(5, 10, 2);
+        schema = deep.schema();
+        query = deep.query("Deep");
+        break;
+      default:
+        schema = helloWorld();
+        query = HELLO_QUERY;
+        break;
+    }
+
+    graphQL =
+        GraphQL.newGraphQL(schema)
+            .preparsedDocumentProvider(
+                new CachingPreparsedDocumentProvider(
+                    CaffeineSpec.parse("maximumSize=100"), new MetricRegistry()))
+            .build();
+  }
+
+  @Benchmark
+  public ExecutionResult execute() {
+    return graphQL.execute(ExecutionInput.newExecutionInput(query).build());
+  }
+
+  private static GraphQLSchema helloWorld() throws IOException {
+    final AtomicLong counter = new AtomicLong();
+    final DataFetcher<Map<String, Object>> saying =
+        environment -> {
+          final Map<String, Object> result = new HashMap<>();
+          result.put("id", counter.incrementAndGet());
+          result.put("content", "Hello, " + environment.getArgument("name") + "!");
+          return result;
+        };
+
+    final RuntimeWiring wiring =
+        RuntimeWiring.newRuntimeWiring()
+            .type("Query", typeWiring -> typeWiring.dataFetcher("saying", saying))
+            .scalar(ExtendedScalars.GraphQLLong)
+            .build();
+
+    final InputStream in =
+        ExecutionBenchmark.class.getClassLoader().getResourceAsStream("HelloWorld.graphql");
+    try (Reader reader =
+        new InputStreamReader(Objects.requireNonNull(in), StandardCharsets.UTF_8)) {
+      return new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(reader), wiring);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql.benchmarks;
+
+import com.smoketurner.dropwizard.graphql.GraphQLFactory;
+import com.smoketurner.dropwizard.graphql.SchemaCompiler;
+import graphql.schema.GraphQLSchema;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link GraphQLFactory#build()} for schemas with many types, parsing the SDL or loading
+ * it from an artifact compiled by {@link SchemaCompiler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaBuildBenchmark {
+
+  private static final String SCHEMA_FILE = "large.graphql";
+  private static final String COMPILED_FILE = "large.graphql.bin";
+
+  @Param({"100", "1000"})
+  private int types;
+
+  @Param({"false", "true"})
+  private boolean compiled;
+
+  private Path directory;
+  private URLClassLoader loader;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("graphql-benchmarks");
+    Files.write(
+        directory.resolve(SCHEMA_FILE),
+        SyntheticSchema.largeSdl(types, 20).getBytes(StandardCharsets.UTF_8));
+    loader =
+        new URLClassLoader(
+            new URL[] {directory.toUri().toURL()}, SchemaBuildBenchmark.class.getClassLoader());
+
+    if (compiled) {
+      final Thread thread = Thread.currentThread();
+      final ClassLoader previous = thread.getContextClassLoader();
+      thread.setContextClassLoader(loader);
+      try {
+        SchemaCompiler.compile(
+            Collections.singletonList(SCHEMA_FILE), directory.resolve(COMPILED_FILE));
+      } finally {
+        thread.setContextClassLoader(previous);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    loader.close();
+    Files.deleteIfExists(directory.resolve(SCHEMA_FILE));
+    Files.deleteIfExists(directory.resolve(COMPILED_FILE));
+    Files.deleteIfExists(directory);
+  }
+
+  @Benchmark
+  public GraphQLSchema build() {
+    // schema files are loaded from the context class loader
+    final Thread thread = Thread.currentThread();
+    final ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    try {
+      final GraphQLFactory factory = new GraphQLFactory();
+      factory.setSchemaFiles(Collections.singletonList(SCHEMA_FILE));
+      if (compiled) {
+        factory.setCompiledSchema(directory.resolve(COMPILED_FILE).toString());
+      }
+      return factory.build();
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+  }
+}
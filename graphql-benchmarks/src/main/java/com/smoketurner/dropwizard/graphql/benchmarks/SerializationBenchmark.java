@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.smoketurner.dropwizard.graphql.JsonResultWriter;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import io.dropwizard.jackson.Jackson;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures JSON serialization of large results, comparing the streaming {@link JsonResultWriter}
+ * with rendering the result specification into a string as the buffered servlet does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"100", "1000"})
+  private int children;
+
+  private ObjectMapper mapper;
+  private JsonResultWriter writer;
+  private ExecutionResult result;
+
+  @Setup
+  public void setUp() {
+    mapper = Jackson.newObjectMapper();
+    writer = new JsonResultWriter(mapper);
+
+    final SyntheticSchema synthetic = new SyntheticSchema(20, 2, children);
+    final GraphQL graphQL = GraphQL.newGraphQL(synthetic.schema()).build();
+    result = graphQL.execute(ExecutionInput.newExecutionInput(synthetic.query("Large")).build());
+    if (!result.getErrors().isEmpty()) {
+      throw new IllegalStateException("Query failed: " + result.getErrors());
+    }
+  }
+
+  @Benchmark
+  public void streaming() throws IOException {
+    writer.write(OutputStream.nullOutputStream(), result);
+  }
+
+  @Benchmark
+  public String buffered() throws JsonProcessingException {
+    return mapper.writeValueAsString(result.toSpecification());
+  }
+}
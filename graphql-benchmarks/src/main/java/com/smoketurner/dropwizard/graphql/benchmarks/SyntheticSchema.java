@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql.benchmarks;
+
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates schemas, queries and data of a configurable shape. Every {@code Node} has {@code width}
+ * scalar fields and, up to {@code depth} levels below the root, {@code breadth} children.
+ */
+public final class SyntheticSchema {
+
+  private static final String LEVEL = "_level";
+
+  private final int width;
+  private final int depth;
+  private final int breadth;
+  private final List<Map<String, Object>> nodes;
+
+  /**
+   * Constructor
+   *
+   * @param width Number of scalar fields per node
+   * @param depth Number of levels below the root node
+   * @param breadth Number of children per node
+   */
+  public SyntheticSchema(int width, int depth, int breadth) {
+    this.width = width;
+    this.depth = depth;
+    this.breadth = breadth;
+
+    final Map<String, Object>[] levels = newLevels(depth + 1);
+    for (int level = 0; level <= depth; level++) {
+      final Map<String, Object> node = new HashMap<>();
+      node.put(LEVEL, level);
+      node.put("id", "node-" + level);
+      for (int i = 0; i < width; i++) {
+        node.put("f" + i, "value-" + level + "-" + i);
+      }
+      levels[level] = node;
+    }
+    this.nodes = List.of(levels);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object>[] newLevels(int size) {
+    return new Map[size];
+  }
+
+  public String sdl() {
+    final StringBuilder sdl = new StringBuilder();
+    sdl.append("schema {\n  query: Query\n}\n\n");
+    sdl.append("type Query {\n  root: Node\n}\n\n");
+    sdl.append("type Node {\n  id: ID!\n");
+    for (int i = 0; i < width; i++) {
+      sdl.append("  f").append(i).append(": String\n");
+    }
+    sdl.append("  children(first: Int): [Node!]\n}\n");
+    return sdl.toString();
+  }
+
+  /**
+   * Return a query selecting every field of every node.
+   *
+   * @param operationName Name of the operation, which makes each query text unique
+   * @return the query text
+   */
+  public String query(String operationName) {
+    final StringBuilder query = new StringBuilder();
+    query.append("query ").append(operationName).append(" {\n  root ");
+    appendSelection(query, 0);
+    query.append("\n}\n");
+    return query.toString();
+  }
+
+  private void appendSelection(StringBuilder query, int level) {
+    query.append("{ id");
+    for (int i = 0; i < width; i++) {
+      query.append(" f").append(i);
+    }
+    if (level < depth) {
+      query.append(" children ");
+      appendSelection(query, level + 1);
+    }
+    query.append(" }");
+  }
+
+  public RuntimeWiring wiring() {
+    final DataFetcher<Map<String, Object>> root = environment -> nodes.get(0);
+    final DataFetcher<List<Map<String, Object>>> children =
+        environment -> {
+          final Map<String, Object> source = environment.getSource();
+          final int level = (Integer) source.get(LEVEL);
+          if (level >= depth) {
+            return Collections.emptyList();
+          }
+          final Integer first = environment.getArgument("first");
+          return Collections.nCopies(first == null ? breadth : first, nodes.get(level + 1));
+        };
+
+    return RuntimeWiring.newRuntimeWiring()
+        .type("Query", wiring -> wiring.dataFetcher("root", root))
+        .type("Node", wiring -> wiring.dataFetcher("children", children))
+        .build();
+  }
+
+  public GraphQLSchema schema() {
+    return new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(sdl()), wiring());
+  }
+
+  /**
+   * Return the SDL of a schema with many distinct object types, as found in large federated or
+   * generated schemas.
+   *
+   * @param types Number of object types
+   * @param fields Number of scalar fields per type
+   * @return the schema definition
+   */
+  public static String largeSdl(int types, int fields) {
+    final StringBuilder sdl = new StringBuilder();
+    sdl.append("schema {\n  query: Query\n}\n\n");
+    sdl.append("type Query {\n");
+    for (int t = 0; t < types; t++) {
+      sdl.append("  t").append(t).append("(id: ID!): T").append(t).append('\n');
+    }
+    sdl.append("}\n");
+    for (int t = 0; t < types; t++) {
+      sdl.append("\n\"\"\"Generated type ").append(t).append("\"\"\"\n");
+      sdl.append("type T").append(t).append(" {\n  id: ID!\n");
+      for (int f = 0; f < fields; f++) {
+        sdl.append("  f").append(f).append("(arg: String = \"default\"): String\n");
+      }
+      sdl.append("  next: T").append((t + 1) % types).append('\n');
+      sdl.append("}\n");
+    }
+    return sdl.toString();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the operations of a batched request. Queries are executed in parallel on a bounded
+ * executor, with the first operation running on the request thread. Batches which may contain a
+ * mutation are executed in order, since later operations may depend on its side effects.
+ *
+ * <p>Operations in a batch share the request's GraphQL context, so a single {@code
+ * DataLoaderRegistry} collapses loads of the same key across the whole batch.
+ */
+public class BatchExecutor {
+
+  private static final String MUTATION = "mutation";
+
+  private final Executor executor;
+  private final int maxBatchSize;
+  private final Histogram batchSize;
+  private final Timer batchLatency;
+  private final Timer slowestOperation;
+
+  /**
+   * Constructor
+   *
+   * @param executor Executor used to run operations in parallel
+   * @param maxBatchSize Maximum number of operations per batch
+   * @param registry Metric registry
+   */
+  public BatchExecutor(Executor executor, int maxBatchSize, MetricRegistry registry) {
+    this.executor = Objects.requireNonNull(executor);
+    this.maxBatchSize = maxBatchSize;
+    this.batchSize = registry.histogram(MetricRegistry.name(BatchExecutor.class, "batch-size"));
+    this.batchLatency = registry.timer(MetricRegistry.name(BatchExecutor.class, "batch-latency"));
+    this.slowestOperation =
+        registry.timer(MetricRegistry.name(BatchExecutor.class, "slowest-operation"));
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Execute a batch of operations.
+   *
+   * @param graphQL GraphQL instance
+   * @param inputs Operations to execute
+   * @return the results, in the same order as the operations
+   */
+  public List<ExecutionResult> execute(GraphQL graphQL, List<ExecutionInput> inputs) {
+    batchSize.update(inputs.size());
+    final AtomicLong slowest = new AtomicLong();
+    final long start = System.nanoTime();
+
+    final List<ExecutionResult> results = new ArrayList<>(inputs.size());
+    if (inputs.size() == 1 || mayContainMutation(inputs)) {
+      for (ExecutionInput input : inputs) {
+        results.add(execute(graphQL, input, slowest).join());
+      }
+    } else {
+      final List<CompletableFuture<ExecutionResult>> futures = new ArrayList<>(inputs.size());
+      for (ExecutionInput input : inputs.subList(1, inputs.size())) {
+        futures.add(
+            CompletableFuture.supplyAsync(() -> execute(graphQL, input, slowest), executor)
+                .thenCompose(f -> f));
+      }
+      results.add(execute(graphQL, inputs.get(0), slowest).join());
+      for (CompletableFuture<ExecutionResult> future : futures) {
+        results.add(future.join());
+      }
+    }
+
+    batchLatency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    slowestOperation.update(slowest.get(), TimeUnit.NANOSECONDS);
+    return results;
+  }
+
+  private static CompletableFuture<ExecutionResult> execute(
+      GraphQL graphQL, ExecutionInput input, AtomicLong slowest) {
+    final long start = System.nanoTime();
+    return graphQL
+        .executeAsync(input)
+        .whenComplete(
+            (result, error) -> slowest.accumulateAndGet(System.nanoTime() - start, Math::max));
+  }
+
+  /**
+   * Return whether any operation in a batch may be a mutation. Operations sent as a persisted query
+   * hash without query text cannot be inspected, so they are assumed to be mutations.
+   *
+   * @param inputs Operations in the batch
+   * @return false if every operation is known to be a query
+   */
+  static boolean mayContainMutation(List<ExecutionInput> inputs) {
+    for (ExecutionInput input : inputs) {
+      final String query = input.getQuery();
+      if (PersistedQueries.isMissingQuery(query) || query.contains(MUTATION)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
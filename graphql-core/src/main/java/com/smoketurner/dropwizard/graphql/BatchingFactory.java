@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import jakarta.validation.constraints.Min;
+import java.util.concurrent.ExecutorService;
+
+/** Configuration for requests containing an array of GraphQL operations. */
+public class BatchingFactory {
+
+  /** Maximum number of operations in a batch, which also applies when batching is disabled. */
+  static final int DEFAULT_MAX_BATCH_SIZE = 10;
+
+  private boolean enabled = false;
+
+  @Min(1)
+  private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+  @Min(1)
+  private int maxThreads = 8;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Maximum number of operations in a single request. Larger batches are rejected.
+   *
+   * @return the maximum batch size
+   */
+  @JsonProperty
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  @JsonProperty
+  public void setMaxBatchSize(int size) {
+    maxBatchSize = size;
+  }
+
+  /**
+   * Maximum number of threads shared by all requests to execute the operations of a batch in
+   * parallel.
+   *
+   * @return the maximum number of threads
+   */
+  @JsonProperty
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  @JsonProperty
+  public void setMaxThreads(int threads) {
+    maxThreads = threads;
+  }
+
+  /**
+   * Build the executor for batched operations.
+   *
+   * @param environment Dropwizard environment
+   * @return the batch executor
+   */
+  public BatchExecutor build(Environment environment) {
+    final ExecutorService executor =
+        environment
+            .lifecycle()
+            .executorService("graphql-batch-%d")
+            .minThreads(maxThreads)
+            .maxThreads(maxThreads)
+            .allowCoreThreadTimeOut(true)
+            .build();
+    return new BatchExecutor(executor, maxBatchSize, environment.metrics());
+  }
+}
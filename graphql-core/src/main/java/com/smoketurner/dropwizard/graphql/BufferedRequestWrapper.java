@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.base.Strings;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Request wrapper which replays a request body that has already been read. A body which turned out
+ * to be larger than the buffering limit is replayed from the bytes read so far, followed by the
+ * rest of the original body.
+ */
+final class BufferedRequestWrapper extends HttpServletRequestWrapper {
+
+  private final byte[] body;
+  private final boolean complete;
+
+  private BufferedRequestWrapper(HttpServletRequest request, byte[] body, boolean complete) {
+    super(request);
+    this.body = body;
+    this.complete = complete;
+  }
+
+  /**
+   * Buffer the body of a JSON or GraphQL request which is no larger than a limit. The bodies of
+   * other requests, such as multipart file uploads, are never read.
+   *
+   * @param request HTTP request
+   * @param maxSize Maximum size of a buffered body in bytes
+   * @return the request to pass on, which is buffered if {@link #getBody(HttpServletRequest)}
+   *     returns its body
+   * @throws IOException if unable to read the body
+   */
+  static HttpServletRequest buffer(HttpServletRequest request, int maxSize) throws IOException {
+    if (request instanceof BufferedRequestWrapper || !isBufferable(request.getContentType())) {
+      return request;
+    }
+    final long length = request.getContentLengthLong();
+    if (length > maxSize) {
+      return request;
+    }
+
+    // the length of a chunked body is unknown, so read one byte past the limit to detect it
+    final byte[] read = request.getInputStream().readNBytes(maxSize + 1);
+    if (read.length > maxSize) {
+      return new BufferedRequestWrapper(request, read, false);
+    }
+    return new BufferedRequestWrapper(request, read, true);
+  }
+
+  /**
+   * Return the body of a request buffered by {@link #buffer(HttpServletRequest, int)}.
+   *
+   * @param request HTTP request
+   * @return the body, or empty if it was not buffered
+   */
+  static Optional<byte[]> getBody(HttpServletRequest request) {
+    if (request instanceof BufferedRequestWrapper && ((BufferedRequestWrapper) request).complete) {
+      return Optional.of(((BufferedRequestWrapper) request).body);
+    }
+    return Optional.empty();
+  }
+
+  private static boolean isBufferable(@Nullable String contentType) {
+    final String type = Strings.nullToEmpty(contentType).toLowerCase(Locale.ROOT);
+    return type.startsWith("application/json")
+        || type.startsWith(StreamingGraphQLServlet.APPLICATION_GRAPHQL);
+  }
+
+  byte[] getBody() {
+    return body;
+  }
+
+  @Override
+  public int getContentLength() {
+    return complete ? body.length : super.getContentLength();
+  }
+
+  @Override
+  public long getContentLengthLong() {
+    return complete ? body.length : super.getContentLengthLong();
+  }
+
+  @Override
+  public ServletInputStream getInputStream() throws IOException {
+    final ByteArrayInputStream buffered = new ByteArrayInputStream(body);
+    final InputStream in =
+        complete ? buffered : new SequenceInputStream(buffered, super.getInputStream());
+    return new ServletInputStream() {
+      private boolean finished = false;
+
+      @Override
+      public boolean isFinished() {
+        return finished || (complete && buffered.available() == 0);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener listener) {
+        try {
+          listener.onDataAvailable();
+          listener.onAllDataRead();
+        } catch (IOException e) {
+          listener.onError(e);
+        }
+      }
+
+      @Override
+      public int read() throws IOException {
+        final int b = in.read();
+        finished = b < 0;
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        final int n = in.read(b, off, len);
+        finished = n < 0;
+        return n;
+      }
+    };
+  }
+
+  @Override
+  public BufferedReader getReader() throws IOException {
+    final Charset charset =
+        Optional.ofNullable(getCharacterEncoding())
+            .map(Charset::forName)
+            .orElse(StandardCharsets.UTF_8);
+    return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+  }
+}
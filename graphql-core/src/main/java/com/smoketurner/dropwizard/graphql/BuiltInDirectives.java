@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.language.DirectiveDefinition;
+import graphql.language.TypeDefinition;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+
+/**
+ * Schema directives understood by the bundle. Their definitions are added to the type registry
+ * unless the schema files already declare them, so they can be used in SDL without boilerplate.
+ */
+final class BuiltInDirectives {
+
+  static final String COST = "cost";
+  static final String CACHE_CONTROL = "cacheControl";
+  static final String CACHED = "cached";
+
+  private static final String SDL =
+      "\"Cost of resolving a field, used to limit query complexity\"\n"
+          + "directive @cost(weight: Int! = 1, multipliers: [String!]) on FIELD_DEFINITION\n"
+          + "\"Whether a cached response may be shared between users\"\n"
+          + "enum CacheControlScope { PUBLIC PRIVATE }\n"
+          + "\"Number of seconds a response containing this field or type may be cached\"\n"
+          + "directive @cacheControl(maxAge: Int, scope: CacheControlScope)\n"
+          + "  on FIELD_DEFINITION | OBJECT | INTERFACE | UNION\n"
+          + "\"Who a memoized field value is shared with\"\n"
+          + "enum CacheScope { GLOBAL REQUEST USER }\n"
+          + "\"Number of seconds the value of a field is memoized for, keyed on its arguments\"\n"
+          + "directive @cached(ttl: Int!, scope: CacheScope = GLOBAL) on FIELD_DEFINITION\n";
+
+  private BuiltInDirectives() {}
+
+  /**
+   * Add any built-in directive and type definitions which are not already declared to the registry.
+   *
+   * @param registry Type definition registry
+   */
+  static void register(TypeDefinitionRegistry registry) {
+    final TypeDefinitionRegistry builtIns = new SchemaParser().parse(SDL);
+    for (TypeDefinition<?> definition : builtIns.types().values()) {
+      if (!registry.getType(definition.getName()).isPresent()) {
+        registry.add(definition);
+      }
+    }
+    for (DirectiveDefinition definition : builtIns.getDirectiveDefinitions().values()) {
+      if (!registry.getDirectiveDefinition(definition.getName()).isPresent()) {
+        registry.add(definition);
+      }
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import graphql.language.Argument;
+import graphql.language.Directive;
+import graphql.language.DirectivesContainer;
+import graphql.language.Document;
+import graphql.language.EnumValue;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.IntValue;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.schema.GraphQLCompositeType;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLInterfaceType;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.schema.GraphQLUnionType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Computes how long the response to an operation may be cached from the {@code @cacheControl}
+ * directives in the schema. The max age of an operation is the lowest max age of any of its fields.
+ * Root fields and fields returning composite types without a hint use the default max age, while
+ * scalar fields without a hint inherit the max age of their parent. The response is private if any
+ * selected field, or the type it returns, has a {@code PRIVATE} scope hint.
+ *
+ * <p>Results are memoized per parsed document, so documents served from the query cache are only
+ * analyzed once.
+ */
+public class CacheControlCalculator {
+
+  private static final int MAX_WALK_DEPTH = 1000;
+  private static final String PRIVATE = "PRIVATE";
+
+  /** How the response to an operation may be cached. */
+  public static final class Policy {
+    private final int maxAge;
+    private final boolean privateScope;
+
+    private Policy(int maxAge, boolean privateScope) {
+      this.maxAge = maxAge;
+      this.privateScope = privateScope;
+    }
+
+    /**
+     * Max age of the response.
+     *
+     * @return the max age in seconds, or 0 if the response must not be cached
+     */
+    public int getMaxAge() {
+      return maxAge;
+    }
+
+    /**
+     * Whether the response depends on the user, so it must not be shared between users.
+     *
+     * @return true if the response is private
+     */
+    public boolean isPrivate() {
+      return privateScope;
+    }
+  }
+
+  private static final Policy NO_CACHE = new Policy(0, false);
+
+  private final GraphQLSchema schema;
+  private final int defaultMaxAge;
+  private final Cache<Document, ConcurrentMap<String, Policy>> documents =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  /**
+   * Constructor
+   *
+   * @param schema GraphQL schema
+   * @param defaultMaxAge Max age in seconds of fields without a hint
+   */
+  public CacheControlCalculator(GraphQLSchema schema, int defaultMaxAge) {
+    this.schema = Objects.requireNonNull(schema);
+    this.defaultMaxAge = defaultMaxAge;
+  }
+
+  GraphQLSchema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Return a calculator for another schema with the same default max age.
+   *
+   * @param other GraphQL schema
+   * @return this calculator if it is for the same schema, otherwise a new calculator
+   */
+  CacheControlCalculator forSchema(GraphQLSchema other) {
+    return schema == other ? this : new CacheControlCalculator(other, defaultMaxAge);
+  }
+
+  /**
+   * Return the max age of an operation.
+   *
+   * @param document Parsed document
+   * @param operation Operation to execute
+   * @return the max age in seconds, or 0 if the response must not be cached
+   */
+  public int getMaxAge(Document document, OperationDefinition operation) {
+    return getPolicy(document, operation).getMaxAge();
+  }
+
+  /**
+   * Return how the response to an operation may be cached.
+   *
+   * @param document Parsed document
+   * @param operation Operation to execute
+   * @return the cache policy
+   */
+  public Policy getPolicy(Document document, OperationDefinition operation) {
+    if (operation.getOperation() != OperationDefinition.Operation.QUERY) {
+      return NO_CACHE;
+    }
+
+    final ConcurrentMap<String, Policy> operations;
+    try {
+      operations = documents.get(document, ConcurrentHashMap::new);
+    } catch (ExecutionException e) {
+      return NO_CACHE;
+    }
+
+    final String name = Optional.ofNullable(operation.getName()).orElse("");
+    return operations.computeIfAbsent(name, n -> compute(document, operation));
+  }
+
+  private Policy compute(Document document, OperationDefinition operation) {
+    final Map<String, FragmentDefinition> fragments = new HashMap<>();
+    for (FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class)) {
+      fragments.put(fragment.getName(), fragment);
+    }
+    final Walker walker = new Walker(fragments);
+    final int maxAge = walker.walk(operation.getSelectionSet(), schema.getQueryType(), true, 0);
+    return new Policy(
+        maxAge == Integer.MAX_VALUE ? defaultMaxAge : Math.max(0, maxAge), walker.privateScope);
+  }
+
+  private final class Walker {
+    private final Map<String, FragmentDefinition> fragments;
+    // the max age of each fragment, keyed on whether it was spread on the root type
+    private final Map<String, Integer> fragmentMaxAges = new HashMap<>();
+    private boolean privateScope = false;
+
+    private Walker(Map<String, FragmentDefinition> fragments) {
+      this.fragments = fragments;
+    }
+
+    private int walk(
+        @Nullable SelectionSet selectionSet, GraphQLCompositeType parent, boolean root, int depth) {
+      int maxAge = Integer.MAX_VALUE;
+      if (selectionSet == null || depth > MAX_WALK_DEPTH) {
+        return maxAge;
+      }
+
+      for (Selection<?> selection : selectionSet.getSelections()) {
+        if (selection instanceof Field) {
+          maxAge = Math.min(maxAge, walkField((Field) selection, parent, root, depth));
+        } else if (selection instanceof InlineFragment) {
+          final InlineFragment fragment = (InlineFragment) selection;
+          final GraphQLCompositeType type =
+              fragment.getTypeCondition() == null
+                  ? parent
+                  : getCompositeType(fragment.getTypeCondition().getName(), parent);
+          maxAge = Math.min(maxAge, walk(fragment.getSelectionSet(), type, root, depth));
+        } else if (selection instanceof FragmentSpread) {
+          maxAge =
+              Math.min(
+                  maxAge,
+                  walkFragment(((FragmentSpread) selection).getName(), parent, root, depth));
+        }
+      }
+      return maxAge;
+    }
+
+    /**
+     * Walk a fragment the first time it is spread, and reuse its max age for every other spread, so
+     * fragments which spread other fragments several times can't multiply the work of the walk.
+     */
+    private int walkFragment(String name, GraphQLCompositeType parent, boolean root, int depth) {
+      final String key = name + (root ? "\0root" : "");
+      final Integer cached = fragmentMaxAges.get(key);
+      if (cached != null) {
+        return cached;
+      }
+      final FragmentDefinition fragment = fragments.get(name);
+      if (fragment == null) {
+        return Integer.MAX_VALUE;
+      }
+      // a fragment cycle, which validation rejects, resolves to no hint rather than recursing
+      fragmentMaxAges.put(key, Integer.MAX_VALUE);
+      final GraphQLCompositeType type =
+          getCompositeType(fragment.getTypeCondition().getName(), parent);
+      final int maxAge = walk(fragment.getSelectionSet(), type, root, depth + 1);
+      fragmentMaxAges.put(key, maxAge);
+      return maxAge;
+    }
+
+    private int walkField(Field field, GraphQLCompositeType parent, boolean root, int depth) {
+      if (field.getName().startsWith("__") || !(parent instanceof GraphQLFieldsContainer)) {
+        return Integer.MAX_VALUE;
+      }
+
+      final GraphQLFieldDefinition definition =
+          ((GraphQLFieldsContainer) parent).getFieldDefinition(field.getName());
+      if (definition == null) {
+        return Integer.MAX_VALUE;
+      }
+
+      final GraphQLType type = GraphQLTypeUtil.unwrapAll(definition.getType());
+
+      final Optional<Directive> fieldHint = getHint(definition.getDefinition());
+      final Optional<Directive> typeHint = getTypeHint(type);
+      privateScope |= isPrivate(fieldHint) || isPrivate(typeHint);
+
+      Optional<Integer> hint = fieldHint.flatMap(CacheControlCalculator::getMaxAge);
+      if (!hint.isPresent()) {
+        hint = typeHint.flatMap(CacheControlCalculator::getMaxAge);
+      }
+
+      int maxAge;
+      if (hint.isPresent()) {
+        maxAge = hint.get();
+      } else if (root || type instanceof GraphQLCompositeType) {
+        maxAge = defaultMaxAge;
+      } else {
+        maxAge = Integer.MAX_VALUE;
+      }
+
+      if (type instanceof GraphQLCompositeType) {
+        maxAge =
+            Math.min(
+                maxAge,
+                walk(field.getSelectionSet(), (GraphQLCompositeType) type, false, depth + 1));
+      }
+      return maxAge;
+    }
+  }
+
+  private static Optional<Directive> getTypeHint(GraphQLType type) {
+    if (type instanceof GraphQLObjectType) {
+      return getHint(((GraphQLObjectType) type).getDefinition());
+    }
+    if (type instanceof GraphQLInterfaceType) {
+      return getHint(((GraphQLInterfaceType) type).getDefinition());
+    }
+    if (type instanceof GraphQLUnionType) {
+      return getHint(((GraphQLUnionType) type).getDefinition());
+    }
+    return Optional.empty();
+  }
+
+  private static Optional<Directive> getHint(@Nullable DirectivesContainer<?> definition) {
+    if (definition == null) {
+      return Optional.empty();
+    }
+    final List<Directive> directives = definition.getDirectives(BuiltInDirectives.CACHE_CONTROL);
+    return directives.isEmpty() ? Optional.empty() : Optional.of(directives.get(0));
+  }
+
+  private static Optional<Integer> getMaxAge(Directive hint) {
+    final Argument maxAge = hint.getArgument("maxAge");
+    if (maxAge == null || !(maxAge.getValue() instanceof IntValue)) {
+      return Optional.empty();
+    }
+    return Optional.of(((IntValue) maxAge.getValue()).getValue().intValue());
+  }
+
+  private static boolean isPrivate(Optional<Directive> hint) {
+    if (!hint.isPresent()) {
+      return false;
+    }
+    final Argument scope = hint.get().getArgument("scope");
+    return scope != null
+        && scope.getValue() instanceof EnumValue
+        && PRIVATE.equals(((EnumValue) scope.getValue()).getName());
+  }
+
+  private GraphQLCompositeType getCompositeType(String name, GraphQLCompositeType fallback) {
+    final GraphQLType type = schema.getType(name);
+    if (type instanceof GraphQLCompositeType) {
+      return (GraphQLCompositeType) type;
+    }
+    return fallback;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.ExecutionResult;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Instrumentation which stores the max age of a successful query, as computed by {@link
+ * CacheControlCalculator}, in the {@link #MAX_AGE_ATTRIBUTE} request attribute so that it can be
+ * used by {@link ResponseCacheFilter}. Responses which must not be shared between users also have
+ * the {@link #PRIVATE_ATTRIBUTE} request attribute set.
+ */
+public class CacheControlInstrumentation extends SimplePerformantInstrumentation {
+
+  public static final String MAX_AGE_ATTRIBUTE =
+      CacheControlInstrumentation.class.getName() + ".maxAge";
+  public static final String PRIVATE_ATTRIBUTE =
+      CacheControlInstrumentation.class.getName() + ".private";
+
+  private static final class State implements InstrumentationState {
+    private final HttpServletRequest request;
+    private volatile int maxAge = 0;
+    private volatile boolean privateScope = false;
+
+    private State(HttpServletRequest request) {
+      this.request = request;
+    }
+  }
+
+  // replaced when the schema is reloaded
+  private volatile CacheControlCalculator calculator;
+
+  /**
+   * Constructor
+   *
+   * @param calculator Cache control calculator
+   */
+  public CacheControlInstrumentation(CacheControlCalculator calculator) {
+    this.calculator = Objects.requireNonNull(calculator);
+  }
+
+  @Nullable
+  @Override
+  public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+    final HttpServletRequest request =
+        parameters.getExecutionInput().getGraphQLContext().get(HttpServletRequest.class);
+    if (request == null) {
+      return null;
+    }
+    return new State(request);
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters, InstrumentationState state) {
+    if (state instanceof State) {
+      final ExecutionContext context = parameters.getExecutionContext();
+      final CacheControlCalculator current = calculator.forSchema(context.getGraphQLSchema());
+      calculator = current;
+      final CacheControlCalculator.Policy policy =
+          current.getPolicy(context.getDocument(), context.getOperationDefinition());
+      ((State) state).maxAge = policy.getMaxAge();
+      ((State) state).privateScope = policy.isPrivate();
+    }
+    return SimpleInstrumentationContext.noOp();
+  }
+
+  @Override
+  public CompletableFuture<ExecutionResult> instrumentExecutionResult(
+      ExecutionResult executionResult,
+      InstrumentationExecutionParameters parameters,
+      InstrumentationState state) {
+    if (state instanceof State) {
+      final State cacheState = (State) state;
+      if (cacheState.maxAge > 0 && executionResult.getErrors().isEmpty()) {
+        cacheState.request.setAttribute(MAX_AGE_ATTRIBUTE, cacheState.maxAge);
+        if (cacheState.privateScope) {
+          cacheState.request.setAttribute(PRIVATE_ATTRIBUTE, Boolean.TRUE);
+        }
+      }
+    }
+    return CompletableFuture.completedFuture(executionResult);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.base.Strings;
+import graphql.GraphQLContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import jakarta.servlet.http.HttpServletRequest;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * {@link DataFetcher} which memoizes the values of a field declared with the {@code @cached}
+ * directive, keyed on its argument values. Fields below the root of the operation are also keyed on
+ * their source object, which must then implement {@code equals} and {@code hashCode}.
+ *
+ * <p>Concurrent fetches of the same key share a single call to the wrapped data fetcher. Errors and
+ * null values are never memoized.
+ */
+public class CachedDataFetcher implements DataFetcher<CompletableFuture<Object>> {
+
+  /** Who a memoized value is shared with. */
+  public enum Scope {
+    /** Every request */
+    GLOBAL,
+    /** A single request */
+    REQUEST,
+    /** Requests of the same user */
+    USER
+  }
+
+  private static final String REQUEST_VALUES = CachedDataFetcher.class.getName() + ".values";
+
+  /**
+   * Instrumentation which creates the values memoized by {@link Scope#REQUEST} fields once per
+   * execution, before any field is fetched.
+   */
+  public static class RequestScopeInstrumentation extends SimplePerformantInstrumentation {
+    @Nullable
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+      parameters
+          .getExecutionInput()
+          .getGraphQLContext()
+          .put(REQUEST_VALUES, new ConcurrentHashMap<Object, CompletableFuture<Object>>());
+      return null;
+    }
+  }
+
+  private final DataFetcher<?> delegate;
+  private final String coordinates;
+  private final Scope scope;
+  private final String userHeader;
+  @Nullable private final ConcurrentMap<Object, CompletableFuture<Object>> values;
+  private final Meter hits;
+  private final Meter misses;
+
+  /**
+   * Constructor
+   *
+   * @param delegate Data fetcher whose values are memoized
+   * @param coordinates Coordinates of the field, such as {@code Query.user}
+   * @param ttl Seconds a value is memoized for, ignored by the {@link Scope#REQUEST} scope
+   * @param scope Who a memoized value is shared with
+   * @param maximumSize Maximum number of values memoized for the field
+   * @param userHeader Request header identifying the user when there is no authenticated principal
+   * @param registry Metric registry
+   */
+  public CachedDataFetcher(
+      DataFetcher<?> delegate,
+      String coordinates,
+      int ttl,
+      Scope scope,
+      long maximumSize,
+      String userHeader,
+      MetricRegistry registry) {
+    this.delegate = Objects.requireNonNull(delegate);
+    this.coordinates = Objects.requireNonNull(coordinates);
+    this.scope = Objects.requireNonNull(scope);
+    this.userHeader = Objects.requireNonNull(userHeader);
+
+    if (scope == Scope.REQUEST) {
+      values = null;
+    } else {
+      final AsyncCache<Object, Object> cache =
+          Caffeine.newBuilder()
+              .maximumSize(maximumSize)
+              .expireAfterWrite(ttl, TimeUnit.SECONDS)
+              .buildAsync();
+      values = cache.asMap();
+    }
+
+    hits = registry.meter(MetricRegistry.name(CachedDataFetcher.class, coordinates, "hits"));
+    misses = registry.meter(MetricRegistry.name(CachedDataFetcher.class, coordinates, "misses"));
+  }
+
+  @Override
+  public CompletableFuture<Object> get(DataFetchingEnvironment environment) throws Exception {
+    final ConcurrentMap<Object, CompletableFuture<Object>> map = getValues(environment);
+    final Object key = getKey(environment);
+    if (map == null || key == null) {
+      return fetch(environment);
+    }
+
+    // the wrapped data fetcher is called outside of the map, so it runs on the calling thread
+    // and never blocks other keys while it executes
+    final CompletableFuture<Object> pending = new CompletableFuture<>();
+    final CompletableFuture<Object> existing = map.putIfAbsent(key, pending);
+    if (existing != null) {
+      hits.mark();
+      // a copy, so cancelling a timed out execution doesn't cancel the value of other executions
+      return existing.copy();
+    }
+
+    misses.mark();
+    pending.whenComplete(
+        (value, error) -> {
+          if (error != null || value == null) {
+            map.remove(key, pending);
+          }
+        });
+    try {
+      fetch(environment)
+          .whenComplete(
+              (value, error) -> {
+                if (error != null) {
+                  pending.completeExceptionally(error);
+                } else {
+                  pending.complete(value);
+                }
+              });
+    } catch (Exception e) {
+      pending.completeExceptionally(e);
+    }
+    return pending.copy();
+  }
+
+  private CompletableFuture<Object> fetch(DataFetchingEnvironment environment) throws Exception {
+    final Object value = delegate.get(environment);
+    if (value instanceof CompletionStage) {
+      @SuppressWarnings("unchecked")
+      final CompletionStage<Object> stage = (CompletionStage<Object>) value;
+      return stage.toCompletableFuture();
+    }
+    return CompletableFuture.completedFuture(value);
+  }
+
+  @Nullable
+  private ConcurrentMap<Object, CompletableFuture<Object>> getValues(
+      DataFetchingEnvironment environment) {
+    if (scope != Scope.REQUEST) {
+      return values;
+    }
+    // shared by every field of the request, as the keys include the field coordinates, and null
+    // when RequestScopeInstrumentation isn't installed
+    final GraphQLContext context = environment.getGraphQlContext();
+    return context.get(REQUEST_VALUES);
+  }
+
+  /**
+   * Build the key of a value from the field coordinates and arguments, along with the source object
+   * and user where they apply.
+   *
+   * @param environment Data fetching environment
+   * @return the key, or null if the value can't be memoized
+   */
+  @Nullable
+  private Object getKey(DataFetchingEnvironment environment) {
+    // root fields resolve against the same root object in every request
+    final Object source =
+        environment.getExecutionStepInfo().getPath().getLevel() > 1
+            ? environment.getSource()
+            : null;
+
+    String user = null;
+    if (scope == Scope.USER) {
+      user = getUser(environment.getGraphQlContext().get(HttpServletRequest.class));
+      if (user == null) {
+        return null;
+      }
+    }
+    return Arrays.asList(coordinates, user, source, environment.getArguments());
+  }
+
+  @Nullable
+  private String getUser(@Nullable HttpServletRequest request) {
+    if (request == null) {
+      return null;
+    }
+    final Principal principal = request.getUserPrincipal();
+    if (principal != null) {
+      return "principal:" + principal.getName();
+    }
+    final String header = request.getHeader(userHeader);
+    // credentials are hashed, so they aren't kept in memory for as long as the value
+    return Strings.isNullOrEmpty(header) ? null : "header:" + PersistedQueries.sha256(header);
+  }
+
+  @Override
+  public String toString() {
+    return coordinates;
+  }
+}
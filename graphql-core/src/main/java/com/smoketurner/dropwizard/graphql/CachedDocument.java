@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import java.util.Objects;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/** A {@link PreparsedDocumentEntry} along with the analysis computed when it was cached. */
+public final class CachedDocument {
+
+  private final PreparsedDocumentEntry entry;
+  private final QueryComplexityAnalyzer.@Nullable DocumentCost cost;
+  private final String query;
+
+  CachedDocument(
+      PreparsedDocumentEntry entry,
+      QueryComplexityAnalyzer.@Nullable DocumentCost cost,
+      String query) {
+    this.entry = Objects.requireNonNull(entry);
+    this.cost = cost;
+    this.query = Objects.requireNonNull(query);
+  }
+
+  public PreparsedDocumentEntry getEntry() {
+    return entry;
+  }
+
+  public Optional<QueryComplexityAnalyzer.DocumentCost> getCost() {
+    return Optional.ofNullable(cost);
+  }
+
+  /**
+   * The query text the document was parsed from.
+   *
+   * @return the query text
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * Approximate size of the document, measured as the length of its query text.
+   *
+   * @return the weight of the document
+   */
+  public int getWeight() {
+    return query.length();
+  }
+}
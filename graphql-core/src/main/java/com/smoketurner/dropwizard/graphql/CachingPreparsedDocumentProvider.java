@@ -17,14 +17,18 @@ package com.smoketurner.dropwizard.graphql;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
 import com.google.common.cache.CacheBuilderSpec;
 import graphql.ExecutionInput;
+import graphql.GraphQLError;
 import graphql.execution.preparsed.PreparsedDocumentEntry;
 import graphql.execution.preparsed.PreparsedDocumentProvider;
-import java.util.concurrent.ExecutionException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,8 +36,13 @@ public class CachingPreparsedDocumentProvider implements PreparsedDocumentProvid
 
   private static final Logger LOGGER =
       LoggerFactory.getLogger(CachingPreparsedDocumentProvider.class);
-  private final Cache<String, PreparsedDocumentEntry> cache;
+  private final DocumentCache cache;
+  private final boolean persistedQueries;
+  private final boolean normalizeQueries;
+  @Nullable private final QueryComplexityAnalyzer analyzer;
+  @Nullable private final SharedDocumentCache shared;
   private final Meter cacheMisses;
+  private final Meter persistedQueryMisses;
 
   /**
    * Constructor
@@ -41,35 +50,259 @@ public class CachingPreparsedDocumentProvider implements PreparsedDocumentProvid
    * @param spec Specification for the cache
    * @param registry Metric registry
    */
+  public CachingPreparsedDocumentProvider(CaffeineSpec spec, MetricRegistry registry) {
+    this(new CaffeineDocumentCache(spec, registry), false, false, null, registry);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param spec Specification for the cache, in the Guava format
+   * @param registry Metric registry
+   * @throws IllegalArgumentException if the specification uses a key which isn't supported by
+   *     {@link CaffeineDocumentCache}
+   * @deprecated use {@link #CachingPreparsedDocumentProvider(CaffeineSpec, MetricRegistry)}
+   */
+  @Deprecated
   public CachingPreparsedDocumentProvider(CacheBuilderSpec spec, MetricRegistry registry) {
-    LOGGER.info("Query Cache: {}", spec);
-    cache = CacheBuilder.from(spec).build();
+    this(CaffeineDocumentCache.parseSpec(spec.toParsableString()), registry);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param cache Document cache
+   * @param persistedQueries Whether to support automatic persisted queries. When enabled, the cache
+   *     is keyed on the SHA-256 hash of the query so clients may send only the hash.
+   * @param normalizeQueries Whether to key the cache on the normalized query text, so queries which
+   *     only differ in whitespace, commas or comments share a document
+   * @param analyzer Analyzer used to reject queries which are too deep or complex, or null to
+   *     disable query limits
+   * @param registry Metric registry
+   */
+  public CachingPreparsedDocumentProvider(
+      DocumentCache cache,
+      boolean persistedQueries,
+      boolean normalizeQueries,
+      @Nullable QueryComplexityAnalyzer analyzer,
+      MetricRegistry registry) {
+    this(cache, persistedQueries, normalizeQueries, analyzer, null, registry);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param cache Document cache
+   * @param persistedQueries Whether to support automatic persisted queries. When enabled, the cache
+   *     is keyed on the SHA-256 hash of the query so clients may send only the hash.
+   * @param normalizeQueries Whether to key the cache on the normalized query text, so queries which
+   *     only differ in whitespace, commas or comments share a document
+   * @param analyzer Analyzer used to reject queries which are too deep or complex, or null to
+   *     disable query limits
+   * @param shared Second-level cache consulted before parsing a document which isn't cached in
+   *     process, or null
+   * @param registry Metric registry
+   */
+  public CachingPreparsedDocumentProvider(
+      DocumentCache cache,
+      boolean persistedQueries,
+      boolean normalizeQueries,
+      @Nullable QueryComplexityAnalyzer analyzer,
+      @Nullable SharedDocumentCache shared,
+      MetricRegistry registry) {
+    LOGGER.info(
+        "Query Cache: {} (persisted queries: {}, normalized: {}, shared: {})",
+        cache,
+        persistedQueries,
+        normalizeQueries,
+        shared != null);
+    this.cache = Objects.requireNonNull(cache);
+    this.persistedQueries = persistedQueries;
+    this.normalizeQueries = normalizeQueries;
+    this.analyzer = analyzer;
+    this.shared = shared;
 
     cacheMisses =
         registry.meter(MetricRegistry.name(CachingPreparsedDocumentProvider.class, "cache-misses"));
+    persistedQueryMisses =
+        registry.meter(
+            MetricRegistry.name(CachingPreparsedDocumentProvider.class, "persisted-query-misses"));
   }
 
   @Override
   public PreparsedDocumentEntry getDocument(
       ExecutionInput executionInput,
       Function<ExecutionInput, PreparsedDocumentEntry> computeFunction) {
+    return getDocumentAsync(executionInput, computeFunction).join();
+  }
+
+  @Override
+  public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> computeFunction) {
 
     final String query = executionInput.getQuery();
+    final String key;
 
-    try {
-      return cache.get(
-          query,
-          () -> {
-            LOGGER.debug("Query cache miss: {}", query);
-            cacheMisses.mark();
-            return computeFunction.apply(executionInput);
-          });
-
-    } catch (ExecutionException e) {
-      LOGGER.error("Unable to get document from cache", e);
+    if (persistedQueries) {
+      final Optional<String> hash = PersistedQueries.getHash(executionInput);
+      if (hash.isPresent()) {
+        if (PersistedQueries.isMissingQuery(query)) {
+          // the client only sent the hash, so we can't compute the document on a miss
+          final CompletableFuture<CachedDocument> cached = cache.getIfPresent(hash.get());
+          if (cached != null) {
+            return cached.thenApply(document -> checkLimits(analyzer, document, executionInput));
+          }
+          if (shared == null) {
+            return CompletableFuture.completedFuture(notFound(hash.get()));
+          }
+          // another node may have registered the query
+          return shared
+              .getAsync(hash.get())
+              .thenCompose(
+                  stored -> {
+                    if (!stored.isPresent()) {
+                      return CompletableFuture.completedFuture(notFound(hash.get()));
+                    }
+                    return cache
+                        .get(hash.get(), k -> analyze(stored.get()))
+                        .thenApply(document -> checkLimits(analyzer, document, executionInput));
+                  });
+        }
+
+        // the client is registering the query, so verify the hash matches before caching
+        if (!hash.get().equals(PersistedQueries.sha256(query))) {
+          return CompletableFuture.completedFuture(
+              new PreparsedDocumentEntry(new GraphQLValidationError("PersistedQueryIdInvalid")));
+        }
+        key = hash.get();
+      } else {
+        key = PersistedQueries.sha256(normalize(query));
+      }
+    } else {
+      key = normalize(query);
     }
 
-    // NO-OP
-    return computeFunction.apply(executionInput);
+    final CompletableFuture<CachedDocument> cached;
+    if (shared == null) {
+      cached =
+          cache.get(
+              key,
+              k -> {
+                LOGGER.debug("Query cache miss: {}", query);
+                cacheMisses.mark();
+                return compute(executionInput, computeFunction);
+              });
+    } else {
+      cached =
+          cache.getAsync(
+              key,
+              k -> {
+                LOGGER.debug("Query cache miss: {}", query);
+                cacheMisses.mark();
+                return load(k, executionInput, computeFunction);
+              });
+    }
+    return cached.handle(
+        (document, error) -> {
+          if (error == null) {
+            return checkLimits(analyzer, document, executionInput);
+          }
+          LOGGER.error("Unable to get document from cache", error);
+          return checkLimits(analyzer, compute(executionInput, computeFunction), executionInput);
+        });
+  }
+
+  private PreparsedDocumentEntry notFound(String hash) {
+    LOGGER.debug("Persisted query not found: {}", hash);
+    persistedQueryMisses.mark();
+    return PersistedQueries.notFound(hash);
+  }
+
+  private String normalize(String query) {
+    return normalizeQueries ? QueryNormalizer.normalize(query).getQuery() : query;
+  }
+
+  /**
+   * Load a document from the second-level cache, or parse and validate it and add it to the
+   * second-level cache. The store is read and written on its own executor.
+   *
+   * @param key Cache key
+   * @param executionInput Execution input
+   * @param computeFunction Function which parses and validates the query
+   * @return the document to cache
+   */
+  private CompletableFuture<CachedDocument> load(
+      String key,
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> computeFunction) {
+    final SharedDocumentCache store = Objects.requireNonNull(shared);
+    // parsed off the store executor, so its threads are only ever busy with I/O
+    return store
+        .getAsync(key)
+        .thenApplyAsync(
+            stored -> {
+              if (stored.isPresent()) {
+                return analyze(stored.get());
+              }
+              final CachedDocument document = compute(executionInput, computeFunction);
+              store.putAsync(key, document);
+              return document;
+            },
+            ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Analyze the cost of a document from the second-level cache, which is stored without it.
+   *
+   * @param document Stored document
+   * @return the document to cache
+   */
+  private CachedDocument analyze(CachedDocument document) {
+    if (analyzer == null) {
+      return document;
+    }
+    final PreparsedDocumentEntry entry = document.getEntry();
+    return new CachedDocument(entry, analyzer.analyze(entry.getDocument()), document.getQuery());
+  }
+
+  /**
+   * Parse and validate a document, and analyze its cost if query limits are enabled.
+   *
+   * @param executionInput Execution input
+   * @param computeFunction Function which parses and validates the query
+   * @return the document to cache
+   */
+  private CachedDocument compute(
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> computeFunction) {
+    final PreparsedDocumentEntry entry = computeFunction.apply(executionInput);
+    final String query = executionInput.getQuery();
+    if (analyzer == null || entry.hasErrors()) {
+      return new CachedDocument(entry, null, query);
+    }
+    return new CachedDocument(entry, analyzer.analyze(entry.getDocument()), query);
+  }
+
+  /**
+   * Check a cached document against the query limits, which may depend on the request variables.
+   *
+   * @param analyzer Analyzer used to check the limits, or null if limits are disabled
+   * @param cached Cached document
+   * @param executionInput Execution input
+   * @return the cached entry, or an entry with the error if a limit is exceeded
+   */
+  static PreparsedDocumentEntry checkLimits(
+      @Nullable QueryComplexityAnalyzer analyzer,
+      CachedDocument cached,
+      ExecutionInput executionInput) {
+    if (analyzer == null || !cached.getCost().isPresent()) {
+      return cached.getEntry();
+    }
+    final Optional<GraphQLError> error = analyzer.check(cached.getCost().get(), executionInput);
+    if (error.isPresent()) {
+      return new PreparsedDocumentEntry(error.get());
+    }
+    return cached.getEntry();
   }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DocumentCache} backed by a Caffeine {@link AsyncCache}, which uses a W-TinyLFU eviction
+ * policy without segment locks. When the specification sets {@code maximumWeight}, documents are
+ * weighed by the length of their query text.
+ */
+public class CaffeineDocumentCache implements DocumentCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CaffeineDocumentCache.class);
+
+  /** Keys of the Guava {@code CacheBuilderSpec} format which Caffeine has no use for. */
+  private static final ImmutableSet<String> IGNORED_KEYS = ImmutableSet.of("concurrencyLevel");
+
+  /** Keys which Caffeine only supports for caches this asynchronous cache can't be built as. */
+  private static final ImmutableSet<String> UNSUPPORTED_KEYS =
+      ImmutableSet.of("weakValues", "softValues", "refreshAfterWrite", "refreshInterval");
+
+  private final CaffeineSpec spec;
+  private final AsyncCache<String, CachedDocument> cache;
+
+  /**
+   * Constructor
+   *
+   * @param spec Specification for the cache
+   * @param registry Metric registry
+   */
+  public CaffeineDocumentCache(CaffeineSpec spec, MetricRegistry registry) {
+    this.spec = spec;
+
+    final String parsable = spec.toParsableString();
+    final Caffeine<Object, Object> builder = Caffeine.from(spec);
+    if (!parsable.contains("recordStats")) {
+      builder.recordStats();
+    }
+    if (parsable.contains("maximumWeight")) {
+      cache =
+          builder
+              .weigher((String key, CachedDocument document) -> document.getWeight())
+              .buildAsync();
+    } else {
+      cache = builder.buildAsync();
+    }
+
+    final Cache<String, CachedDocument> synchronous = cache.synchronous();
+    register(registry, "hit-rate", () -> synchronous.stats().hitRate());
+    register(registry, "eviction-count", () -> synchronous.stats().evictionCount());
+    register(registry, "size", synchronous::estimatedSize);
+    register(
+        registry,
+        "weighted-size",
+        () -> {
+          final Optional<Policy.Eviction<String, CachedDocument>> eviction =
+              synchronous.policy().eviction();
+          final OptionalLong weightedSize =
+              eviction.isPresent() ? eviction.get().weightedSize() : OptionalLong.empty();
+          return weightedSize.orElse(synchronous.estimatedSize());
+        });
+  }
+
+  /**
+   * Parse a cache specification, accepting the Guava {@code CacheBuilderSpec} format the query
+   * cache used to be configured with. Keys Caffeine has no use for, such as {@code
+   * concurrencyLevel}, are ignored with a warning.
+   *
+   * @param spec Cache specification
+   * @return the Caffeine specification
+   * @throws IllegalArgumentException if the specification is invalid or uses a key which isn't
+   *     supported by the document cache
+   */
+  public static CaffeineSpec parseSpec(String spec) {
+    final List<String> kept = new ArrayList<>();
+    for (String option : Splitter.on(',').trimResults().omitEmptyStrings().split(spec)) {
+      final String key = Splitter.on('=').trimResults().split(option).iterator().next();
+      if (IGNORED_KEYS.contains(key)) {
+        LOGGER.warn("Ignoring '{}' in query cache specification: {}", option, spec);
+      } else if (UNSUPPORTED_KEYS.contains(key)) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Query cache specification '%s' uses '%s', which is not supported by the"
+                    + " asynchronous document cache",
+                spec, key));
+      } else {
+        kept.add(option);
+      }
+    }
+    try {
+      return CaffeineSpec.parse(Joiner.on(',').join(kept));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          String.format("Invalid query cache specification '%s': %s", spec, e.getMessage()), e);
+    }
+  }
+
+  private static void register(MetricRegistry registry, String name, Gauge<?> gauge) {
+    final String metricName = MetricRegistry.name(CaffeineDocumentCache.class, name);
+    registry.remove(metricName);
+    registry.register(metricName, gauge);
+  }
+
+  @Override
+  @Nullable
+  public CompletableFuture<CachedDocument> getIfPresent(String key) {
+    return cache.getIfPresent(key);
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return cache.asMap().containsKey(key);
+  }
+
+  @Override
+  public CompletableFuture<CachedDocument> get(
+      String key, Function<String, CachedDocument> loader) {
+    return cache.get(key, loader);
+  }
+
+  @Override
+  public CompletableFuture<CachedDocument> getAsync(
+      String key, Function<String, CompletableFuture<CachedDocument>> loader) {
+    return cache.get(key, (k, executor) -> loader.apply(k));
+  }
+
+  @Override
+  public void invalidateAll() {
+    cache.synchronous().invalidateAll();
+  }
+
+  @Override
+  public void invalidateIf(Predicate<String> predicate) {
+    cache.synchronous().asMap().keySet().removeIf(predicate);
+  }
+
+  @Override
+  public List<CachedDocument> snapshot(int limit) {
+    final Cache<String, CachedDocument> synchronous = cache.synchronous();
+    final Optional<Policy.Eviction<String, CachedDocument>> eviction =
+        synchronous.policy().eviction();
+    if (eviction.isPresent()) {
+      return new ArrayList<>(eviction.get().hottest(limit).values());
+    }
+    return synchronous.asMap().values().stream().limit(limit).collect(Collectors.toList());
+  }
+
+  @Override
+  public List<CachedDocument> snapshot(int limit, Predicate<String> predicate) {
+    final Cache<String, CachedDocument> synchronous = cache.synchronous();
+    final Optional<Policy.Eviction<String, CachedDocument>> eviction =
+        synchronous.policy().eviction();
+    if (eviction.isPresent()) {
+      return eviction
+          .get()
+          .hottest(
+              entries ->
+                  entries
+                      .filter(entry -> predicate.test(entry.getKey()))
+                      .limit(limit)
+                      .map(Policy.CacheEntry::getValue)
+                      .collect(Collectors.toList()));
+    }
+    return synchronous.asMap().entrySet().stream()
+        .filter(entry -> predicate.test(entry.getKey()))
+        .limit(limit)
+        .map(Map.Entry::getValue)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public String toString() {
+    return spec.toParsableString();
+  }
+}
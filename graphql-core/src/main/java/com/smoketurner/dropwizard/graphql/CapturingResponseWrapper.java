@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Response wrapper which captures the response body instead of writing it, so the body can be
+ * cached or transformed before it is sent. Headers and status are passed through to the wrapped
+ * response, except for the content length which is set when the body is written.
+ */
+final class CapturingResponseWrapper extends HttpServletResponseWrapper {
+
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  @Nullable private ServletOutputStream outputStream;
+  @Nullable private PrintWriter writer;
+
+  CapturingResponseWrapper(HttpServletResponse response) {
+    super(response);
+  }
+
+  /**
+   * Return the captured response body.
+   *
+   * @return the response body
+   */
+  byte[] getBody() {
+    if (writer != null) {
+      writer.flush();
+    }
+    return buffer.toByteArray();
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() {
+    if (outputStream == null) {
+      outputStream =
+          new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+              return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+              try {
+                listener.onWritePossible();
+              } catch (IOException e) {
+                listener.onError(e);
+              }
+            }
+
+            @Override
+            public void write(int b) {
+              buffer.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+              buffer.write(b, off, len);
+            }
+          };
+    }
+    return outputStream;
+  }
+
+  @Override
+  public PrintWriter getWriter() {
+    if (writer == null) {
+      final Charset charset =
+          Optional.ofNullable(getCharacterEncoding())
+              .map(Charset::forName)
+              .orElse(StandardCharsets.UTF_8);
+      writer = new PrintWriter(new OutputStreamWriter(buffer, charset));
+    }
+    return writer;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    // set when the captured body is written
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    // set when the captured body is written
+  }
+
+  @Override
+  public void flushBuffer() {
+    // don't commit the wrapped response until the captured body is written
+  }
+
+  @Override
+  public void resetBuffer() {
+    buffer.reset();
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    buffer.reset();
+  }
+}
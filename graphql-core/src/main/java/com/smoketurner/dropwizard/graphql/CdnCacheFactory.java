@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import jakarta.servlet.DispatcherType;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+/** Configuration for caching {@code GET} query responses in CDNs and other shared caches. */
+public class CdnCacheFactory {
+
+  private boolean enabled = false;
+
+  private boolean requireHash = false;
+
+  @Min(0)
+  private int staleWhileRevalidate = 0;
+
+  @NotNull private List<String> varyHeaders = new ArrayList<>(List.of("Authorization", "Cookie"));
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Whether {@code GET} requests must reference a persisted query hash or trusted document id
+   * instead of sending the query text, which keeps the number of distinct cacheable URLs bounded.
+   *
+   * @return true if query text is rejected in {@code GET} requests
+   */
+  @JsonProperty
+  public boolean isRequireHash() {
+    return requireHash;
+  }
+
+  @JsonProperty
+  public void setRequireHash(boolean requireHash) {
+    this.requireHash = requireHash;
+  }
+
+  /**
+   * Seconds a shared cache may keep serving a stale response while it fetches a new one.
+   *
+   * @return the stale-while-revalidate period
+   */
+  @JsonProperty
+  public int getStaleWhileRevalidate() {
+    return staleWhileRevalidate;
+  }
+
+  @JsonProperty
+  public void setStaleWhileRevalidate(int seconds) {
+    staleWhileRevalidate = seconds;
+  }
+
+  /**
+   * Request headers which change the response, such as credentials. They are listed in the {@code
+   * Vary} header, and responses to requests including any of them are marked as private. Responses
+   * to requests with an {@code Authorization} or {@code Cookie} header which is not listed are
+   * never cacheable.
+   *
+   * @return the request headers
+   */
+  @JsonProperty
+  public List<String> getVaryHeaders() {
+    return Collections.unmodifiableList(varyHeaders);
+  }
+
+  @JsonProperty
+  public void setVaryHeaders(List<String> headers) {
+    varyHeaders = Optional.ofNullable(headers).orElseGet(ArrayList::new);
+  }
+
+  /**
+   * Build the CDN cache filter and register it in front of a servlet.
+   *
+   * @param environment Dropwizard environment
+   * @param servletName Name of the GraphQL servlet
+   * @return the filter
+   */
+  public CdnCacheFilter build(Environment environment, String servletName) {
+    final CdnCacheFilter filter =
+        new CdnCacheFilter(requireHash, staleWhileRevalidate, varyHeaders, environment.metrics());
+    environment
+        .servlets()
+        .addFilter("graphql-cdn-cache", filter)
+        .addMappingForServletNames(EnumSet.of(DispatcherType.REQUEST), true, servletName);
+    return filter;
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Filter which makes {@code GET} query responses cacheable by CDNs and other shared caches. Queries
+ * which {@link CacheControlInstrumentation} reports a positive max age for are answered with {@code
+ * Cache-Control} and {@code ETag} headers, and requests with a matching {@code If-None-Match}
+ * header with a {@code 304 Not Modified}. Every other {@code GET} response is marked {@code
+ * no-store}, so errors such as an unknown persisted query hash are never cached.
+ *
+ * <p>Responses to requests with credentials are marked {@code private}, as are queries selecting a
+ * field or type hinted with {@code @cacheControl(scope: PRIVATE)}. Requests with an {@code
+ * Authorization} or {@code Cookie} header missing from the vary headers, or with a principal
+ * authenticated some other way, are answered with {@code no-store}, as nothing tells caches which
+ * user their response belongs to.
+ *
+ * <p>Results are serialized deterministically by {@link JsonResultWriter}, so the same result
+ * always has the same {@code ETag} on every node.
+ */
+public class CdnCacheFilter implements Filter {
+
+  private final boolean requireHash;
+  private final int staleWhileRevalidate;
+  private final List<String> varyHeaders;
+  private final Meter cacheable;
+  private final Meter notModified;
+  private final Meter rejected;
+
+  /**
+   * Constructor
+   *
+   * @param requireHash Whether {@code GET} requests must reference a persisted query or trusted
+   *     document, rather than sending the query text
+   * @param staleWhileRevalidate Seconds a shared cache may serve a stale response while it fetches
+   *     a new one, or zero
+   * @param varyHeaders Request headers which change the response
+   * @param registry Metric registry
+   */
+  public CdnCacheFilter(
+      boolean requireHash,
+      int staleWhileRevalidate,
+      List<String> varyHeaders,
+      MetricRegistry registry) {
+    this.requireHash = requireHash;
+    this.staleWhileRevalidate = staleWhileRevalidate;
+    this.varyHeaders = ImmutableList.copyOf(varyHeaders);
+
+    cacheable = registry.meter(MetricRegistry.name(CdnCacheFilter.class, "cacheable"));
+    notModified = registry.meter(MetricRegistry.name(CdnCacheFilter.class, "not-modified"));
+    rejected = registry.meter(MetricRegistry.name(CdnCacheFilter.class, "rejected"));
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(req instanceof HttpServletRequest) || !(resp instanceof HttpServletResponse)) {
+      chain.doFilter(req, resp);
+      return;
+    }
+
+    final HttpServletRequest request = (HttpServletRequest) req;
+    final HttpServletResponse response = (HttpServletResponse) resp;
+    if (!"GET".equals(request.getMethod())
+        || StreamingGraphQLServlet.SCHEMA_PATH.equals(request.getServletPath())) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    // arbitrary query text in the URL would let clients fill shared caches with unique entries
+    if (requireHash && !Strings.isNullOrEmpty(request.getParameter("query"))) {
+      rejected.mark();
+      response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "GET requests must use a persisted query hash or document id");
+      return;
+    }
+
+    final CapturingResponseWrapper capture = new CapturingResponseWrapper(response);
+    chain.doFilter(request, capture);
+    final byte[] body = capture.getBody();
+    if (response.isCommitted()) {
+      return;
+    }
+
+    // responses served from the response cache already have their caching headers
+    if (!response.containsHeader(HttpHeaders.CACHE_CONTROL)) {
+      final Object maxAge = request.getAttribute(CacheControlInstrumentation.MAX_AGE_ATTRIBUTE);
+      if (capture.getStatus() == HttpServletResponse.SC_OK
+          && maxAge instanceof Integer
+          && (Integer) maxAge > 0
+          && !ResponseCacheFilter.hasUnkeyedCredentials(request, varyHeaders)) {
+        cacheable.mark();
+        final String etag = '"' + PersistedQueries.sha256(body) + '"';
+        response.setHeader(HttpHeaders.CACHE_CONTROL, getCacheControl(request, (Integer) maxAge));
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (!varyHeaders.isEmpty()) {
+          response.setHeader(HttpHeaders.VARY, Joiner.on(", ").join(varyHeaders));
+        }
+
+        if (ResponseCacheFilter.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+          notModified.mark();
+          response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          return;
+        }
+      } else {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+      }
+    }
+
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private String getCacheControl(HttpServletRequest request, int maxAge) {
+    final StringBuilder value = new StringBuilder(isPrivate(request) ? "private" : "public");
+    value.append(", max-age=").append(maxAge);
+    if (staleWhileRevalidate > 0) {
+      value.append(", stale-while-revalidate=").append(staleWhileRevalidate);
+    }
+    return value.toString();
+  }
+
+  private boolean isPrivate(HttpServletRequest request) {
+    if (Boolean.TRUE.equals(request.getAttribute(CacheControlInstrumentation.PRIVATE_ATTRIBUTE))) {
+      return true;
+    }
+    for (String header : varyHeaders) {
+      if (request.getHeader(header) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
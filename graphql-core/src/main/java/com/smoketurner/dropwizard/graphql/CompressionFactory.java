@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import jakarta.servlet.DispatcherType;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration for compressing GraphQL responses. */
+public class CompressionFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CompressionFactory.class);
+
+  private boolean enabled = false;
+
+  @NotEmpty
+  private List<String> encodings =
+      new ArrayList<>(List.of(ResponseCodecs.ZSTD, ResponseCodecs.BROTLI, ResponseCodecs.GZIP));
+
+  @Min(0)
+  private int minSize = 1024;
+
+  @Min(1)
+  @Max(9)
+  private int gzipLevel = 6;
+
+  @Min(0)
+  @Max(11)
+  private int brotliQuality = 5;
+
+  @Min(1)
+  @Max(22)
+  private int zstdLevel = 3;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Content codings to offer in order of preference, out of {@code zstd}, {@code br} and {@code
+   * gzip}. Codings whose native library isn't available are skipped.
+   *
+   * @return the codings
+   */
+  @JsonProperty
+  public List<String> getEncodings() {
+    return Collections.unmodifiableList(encodings);
+  }
+
+  @JsonProperty
+  public void setEncodings(List<String> encodings) {
+    this.encodings = Optional.ofNullable(encodings).orElseGet(ArrayList::new);
+  }
+
+  /**
+   * Minimum size in bytes of the responses to compress, as small responses may grow.
+   *
+   * @return the minimum size
+   */
+  @JsonProperty
+  public int getMinSize() {
+    return minSize;
+  }
+
+  @JsonProperty
+  public void setMinSize(int size) {
+    minSize = size;
+  }
+
+  @JsonProperty
+  public int getGzipLevel() {
+    return gzipLevel;
+  }
+
+  @JsonProperty
+  public void setGzipLevel(int level) {
+    gzipLevel = level;
+  }
+
+  @JsonProperty
+  public int getBrotliQuality() {
+    return brotliQuality;
+  }
+
+  @JsonProperty
+  public void setBrotliQuality(int quality) {
+    brotliQuality = quality;
+  }
+
+  @JsonProperty
+  public int getZstdLevel() {
+    return zstdLevel;
+  }
+
+  @JsonProperty
+  public void setZstdLevel(int level) {
+    zstdLevel = level;
+  }
+
+  /**
+   * Build the response compressor and register its filter in front of a servlet.
+   *
+   * @param environment Dropwizard environment
+   * @param servletName Name of the GraphQL servlet
+   * @return the compressor
+   */
+  public ResponseCompressor build(Environment environment, String servletName) {
+    final List<ResponseCodec> codecs = new ArrayList<>();
+    for (String encoding : encodings) {
+      switch (encoding) {
+        case ResponseCodecs.ZSTD:
+          ResponseCodecs.zstd(zstdLevel).ifPresent(codecs::add);
+          break;
+        case ResponseCodecs.BROTLI:
+          ResponseCodecs.brotli(brotliQuality).ifPresent(codecs::add);
+          break;
+        case ResponseCodecs.GZIP:
+          codecs.add(ResponseCodecs.gzip(gzipLevel));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown content coding: " + encoding);
+      }
+    }
+
+    final ResponseCompressor compressor =
+        new ResponseCompressor(codecs, minSize, environment.metrics());
+    LOGGER.info(
+        "Response compression: {}",
+        codecs.stream().map(ResponseCodec::getName).collect(Collectors.toList()));
+    environment
+        .servlets()
+        .addFilter("graphql-compression", new CompressionFilter(compressor))
+        .addMappingForServletNames(EnumSet.of(DispatcherType.REQUEST), true, servletName);
+    return compressor;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.net.HttpHeaders;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Objects;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Filter which compresses GraphQL responses with the coding negotiated by a {@link
+ * ResponseCompressor}. The negotiated coding is stored in the {@link
+ * ResponseCompressor#ENCODING_ATTRIBUTE} request attribute, so the response cache can write the
+ * compressed bytes it keeps for a response. Responses which already have a {@code Content-Encoding}
+ * when they are written are passed through without being captured.
+ *
+ * <p>Compressed responses have the coding appended to their {@code ETag}, and the suffix is removed
+ * from the {@code If-None-Match} header seen by the filters and servlet behind this one.
+ */
+public class CompressionFilter implements Filter {
+
+  private final ResponseCompressor compressor;
+
+  /**
+   * Constructor
+   *
+   * @param compressor Response compressor
+   */
+  public CompressionFilter(ResponseCompressor compressor) {
+    this.compressor = Objects.requireNonNull(compressor);
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(req instanceof HttpServletRequest) || !(resp instanceof HttpServletResponse)) {
+      chain.doFilter(req, resp);
+      return;
+    }
+
+    final HttpServletRequest request = (HttpServletRequest) req;
+    final HttpServletResponse response = (HttpServletResponse) resp;
+    final Optional<ResponseCompressor.Encoding> negotiated =
+        compressor.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+    // incremental responses are flushed as they are produced, so they are never captured
+    if (!negotiated.isPresent() || StreamingGraphQLServlet.acceptsMultipart(request)) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    final ResponseCompressor.Encoding encoding = negotiated.get();
+    request.setAttribute(ResponseCompressor.ENCODING_ATTRIBUTE, encoding);
+    final EncodingRequest encodingRequest = new EncodingRequest(request, encoding);
+    final EncodingResponse encodingResponse = new EncodingResponse(response);
+    chain.doFilter(encodingRequest, encodingResponse);
+    if (encodingResponse.passThrough) {
+      return;
+    }
+
+    byte[] body = encodingResponse.capture.getBody();
+    if (response.isCommitted()) {
+      return;
+    }
+
+    final int status = encodingResponse.getStatus();
+    if (status == HttpServletResponse.SC_OK
+        && encoding.accepts(body.length)
+        && !response.containsHeader(HttpHeaders.CONTENT_ENCODING)) {
+      body = encoding.encode(body);
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getName());
+      response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+      setEtag(response, encoding);
+    } else if (status == HttpServletResponse.SC_NOT_MODIFIED && encodingRequest.stripped) {
+      // the client holds the compressed representation
+      setEtag(response, encoding);
+    }
+
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private static void setEtag(HttpServletResponse response, ResponseCompressor.Encoding encoding) {
+    final String etag = response.getHeader(HttpHeaders.ETAG);
+    if (etag != null) {
+      response.setHeader(HttpHeaders.ETAG, encoding.etag(etag));
+    }
+  }
+
+  /** Request which hides the coding suffix of the entity tags in {@code If-None-Match}. */
+  private static final class EncodingRequest extends HttpServletRequestWrapper {
+    private final String suffix;
+    private boolean stripped = false;
+
+    private EncodingRequest(HttpServletRequest request, ResponseCompressor.Encoding encoding) {
+      super(request);
+      this.suffix = "-" + encoding.getName() + '"';
+    }
+
+    @Nullable
+    @Override
+    public String getHeader(String name) {
+      final String value = super.getHeader(name);
+      if (value == null || !HttpHeaders.IF_NONE_MATCH.equalsIgnoreCase(name)) {
+        return value;
+      }
+      final String unsuffixed = value.replace(suffix, "\"");
+      stripped |= !unsuffixed.equals(value);
+      return unsuffixed;
+    }
+  }
+
+  /**
+   * Response which captures the body to compress it, unless a {@code Content-Encoding} was set
+   * before the body is written.
+   */
+  private static final class EncodingResponse extends HttpServletResponseWrapper {
+    private final CapturingResponseWrapper capture;
+    private boolean decided = false;
+    private boolean passThrough = false;
+
+    private EncodingResponse(HttpServletResponse response) {
+      super(response);
+      this.capture = new CapturingResponseWrapper(response);
+    }
+
+    private boolean isPassThrough() {
+      if (!decided) {
+        decided = true;
+        passThrough = containsHeader(HttpHeaders.CONTENT_ENCODING);
+      }
+      return passThrough;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      return isPassThrough() ? super.getOutputStream() : capture.getOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      return isPassThrough() ? super.getWriter() : capture.getWriter();
+    }
+
+    @Override
+    public void setContentLength(int len) {
+      if (containsHeader(HttpHeaders.CONTENT_ENCODING)) {
+        super.setContentLength(len);
+      }
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+      if (containsHeader(HttpHeaders.CONTENT_ENCODING)) {
+        super.setContentLengthLong(len);
+      }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (passThrough) {
+        super.flushBuffer();
+      }
+    }
+
+    @Override
+    public void resetBuffer() {
+      if (passThrough) {
+        super.resetBuffer();
+      } else {
+        capture.resetBuffer();
+      }
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      capture.resetBuffer();
+      decided = false;
+      passThrough = false;
+    }
+  }
+}
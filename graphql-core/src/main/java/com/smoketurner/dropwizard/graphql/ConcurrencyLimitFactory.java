@@ -0,0 +1,302 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MinDuration;
+import io.dropwizard.validation.OneOf;
+import jakarta.servlet.DispatcherType;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration for adaptive concurrency limiting and load shedding of GraphQL requests. */
+public class ConcurrencyLimitFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitFactory.class);
+
+  private boolean enabled = false;
+
+  @NotEmpty
+  @OneOf({"gradient", "aimd"})
+  private String algorithm = "gradient";
+
+  @Min(1)
+  private int initialLimit = 20;
+
+  @Min(1)
+  private int minLimit = 4;
+
+  @Min(1)
+  private int maxLimit = 500;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration latencyThreshold = Duration.seconds(1);
+
+  @DecimalMin("0.5")
+  @DecimalMax("1.0")
+  private double backoffRatio = 0.9;
+
+  @NotNull private Map<String, Double> priorityClasses = defaultClasses();
+
+  @NotNull private Map<String, String> operations = new LinkedHashMap<>();
+
+  @NotEmpty private String defaultPriority = "normal";
+
+  @NotEmpty
+  @OneOf({"status", "error"})
+  private String rejection = "status";
+
+  @Min(0)
+  private int retryAfterSeconds = 1;
+
+  @Min(0)
+  private int maxBodySize = 1_048_576;
+
+  private static Map<String, Double> defaultClasses() {
+    final Map<String, Double> classes = new LinkedHashMap<>();
+    classes.put("critical", 1.0);
+    classes.put("normal", 0.9);
+    classes.put("low", 0.5);
+    return classes;
+  }
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Algorithm used to adapt the limit, either {@code gradient}, which compares short-term to
+   * long-term latency, or {@code aimd}, which backs off when latency exceeds the {@code
+   * latencyThreshold}.
+   *
+   * @return the algorithm
+   */
+  @JsonProperty
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  @JsonProperty
+  public void setAlgorithm(String algorithm) {
+    this.algorithm = algorithm;
+  }
+
+  @JsonProperty
+  public int getInitialLimit() {
+    return initialLimit;
+  }
+
+  @JsonProperty
+  public void setInitialLimit(int limit) {
+    initialLimit = limit;
+  }
+
+  @JsonProperty
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  @JsonProperty
+  public void setMinLimit(int limit) {
+    minLimit = limit;
+  }
+
+  @JsonProperty
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+  @JsonProperty
+  public void setMaxLimit(int limit) {
+    maxLimit = limit;
+  }
+
+  @JsonProperty
+  public Duration getLatencyThreshold() {
+    return latencyThreshold;
+  }
+
+  @JsonProperty
+  public void setLatencyThreshold(Duration threshold) {
+    latencyThreshold = threshold;
+  }
+
+  @JsonProperty
+  public double getBackoffRatio() {
+    return backoffRatio;
+  }
+
+  @JsonProperty
+  public void setBackoffRatio(double ratio) {
+    backoffRatio = ratio;
+  }
+
+  /**
+   * Share of the limit each priority class may use, between 0 and 1. Requests in a class are
+   * rejected once the number of concurrent requests reaches its share of the limit, so lower
+   * priority requests are shed first.
+   *
+   * @return the priority classes
+   */
+  @JsonProperty
+  public Map<String, Double> getPriorityClasses() {
+    return priorityClasses;
+  }
+
+  @JsonProperty
+  public void setPriorityClasses(Map<String, Double> classes) {
+    priorityClasses = classes;
+  }
+
+  /**
+   * Priority class of each operation, keyed by operation name.
+   *
+   * @return the operations
+   */
+  @JsonProperty
+  public Map<String, String> getOperations() {
+    return operations;
+  }
+
+  @JsonProperty
+  public void setOperations(Map<String, String> operations) {
+    this.operations = operations;
+  }
+
+  @JsonProperty
+  public String getDefaultPriority() {
+    return defaultPriority;
+  }
+
+  @JsonProperty
+  public void setDefaultPriority(String priority) {
+    defaultPriority = priority;
+  }
+
+  /**
+   * How rejected requests are answered, either {@code status} for a {@code 503 Service
+   * Unavailable}, or {@code error} for a GraphQL error in a {@code 200 OK} response.
+   *
+   * @return the rejection mode
+   */
+  @JsonProperty
+  public String getRejection() {
+    return rejection;
+  }
+
+  @JsonProperty
+  public void setRejection(String rejection) {
+    this.rejection = rejection;
+  }
+
+  @JsonProperty
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  @JsonProperty
+  public void setRetryAfterSeconds(int seconds) {
+    retryAfterSeconds = seconds;
+  }
+
+  /**
+   * Maximum size in bytes of a {@code POST} body read to find its operation name. Larger bodies,
+   * and bodies which aren't {@code application/json} or {@code application/graphql}, are assigned
+   * the default priority unless the operation name is sent as a parameter or header.
+   *
+   * @return the maximum body size
+   */
+  @JsonProperty
+  public int getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  @JsonProperty
+  public void setMaxBodySize(int size) {
+    maxBodySize = size;
+  }
+
+  /**
+   * Build the concurrency limiter, register its filter in front of a servlet, and register its
+   * gauges and admin task.
+   *
+   * @param environment Dropwizard environment
+   * @param servletName Name of the GraphQL servlet
+   * @return the limiter
+   */
+  public ConcurrencyLimiter build(Environment environment, String servletName) {
+    final ConcurrencyLimiter limiter =
+        new ConcurrencyLimiter(
+            ConcurrencyLimiter.Algorithm.valueOf(algorithm.toUpperCase(Locale.ROOT)),
+            initialLimit,
+            minLimit,
+            maxLimit,
+            latencyThreshold.toNanoseconds(),
+            backoffRatio);
+    LOGGER.info("Concurrency Limit: {}", limiter);
+
+    final ConcurrencyLimitFilter filter =
+        new ConcurrencyLimitFilter(
+            limiter,
+            priorityClasses,
+            operations,
+            defaultPriority,
+            "error".equals(rejection),
+            retryAfterSeconds,
+            maxBodySize,
+            environment.metrics());
+    environment
+        .servlets()
+        .addFilter("graphql-concurrency-limit", filter)
+        .addMappingForServletNames(EnumSet.of(DispatcherType.REQUEST), true, servletName);
+
+    final MetricRegistry registry = environment.metrics();
+    register(registry, "limit", limiter::getLimit);
+    register(registry, "in-flight", limiter::getInFlight);
+    register(registry, "short-rtt", limiter::getShortRtt);
+    register(registry, "long-rtt", limiter::getLongRtt);
+
+    environment.admin().addTask(new ConcurrencyLimitTask(limiter));
+    return limiter;
+  }
+
+  private static void register(MetricRegistry registry, String name, Gauge<?> gauge) {
+    final String metricName = MetricRegistry.name(ConcurrencyLimiter.class, name);
+    registry.remove(metricName);
+    registry.register(metricName, gauge);
+  }
+}
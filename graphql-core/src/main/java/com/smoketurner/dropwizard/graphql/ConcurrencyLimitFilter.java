@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filter which sheds load when the number of concurrent GraphQL requests exceeds the limit of a
+ * {@link ConcurrencyLimiter}. Each request is assigned a priority class from its operation name,
+ * and may only use that class's share of the limit. Rejected requests are answered immediately,
+ * before the operation is parsed, validated or executed.
+ */
+public class ConcurrencyLimitFilter implements Filter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+  private static final String OPERATION_NAME = "operationName";
+  private static final String OPERATION_NAME_HEADER = "X-Apollo-Operation-Name";
+  private static final byte[] OVERLOADED =
+      ("{\"errors\":[{\"message\":\"Server is overloaded, please retry later\","
+              + "\"extensions\":{\"code\":\"SERVICE_UNAVAILABLE\"}}]}")
+          .getBytes(StandardCharsets.UTF_8);
+
+  private final ConcurrencyLimiter limiter;
+  private final Map<String, Double> classes;
+  private final Map<String, String> operations;
+  private final String defaultClass;
+  private final boolean errorResponse;
+  private final int retryAfterSeconds;
+  private final int maxBodySize;
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private final Map<String, Meter> rejected;
+
+  /**
+   * Constructor
+   *
+   * @param limiter Concurrency limiter
+   * @param classes Share of the limit each priority class may use, keyed by class name
+   * @param operations Priority class of each operation, keyed by operation name
+   * @param defaultClass Priority class of operations which are not listed
+   * @param errorResponse Whether to reject requests with a GraphQL error in a {@code 200 OK}
+   *     response, rather than a {@code 503 Service Unavailable}
+   * @param retryAfterSeconds Value of the {@code Retry-After} header on rejected requests
+   * @param maxBodySize Maximum size in bytes of a request body read for its operation name
+   * @param registry Metric registry
+   */
+  public ConcurrencyLimitFilter(
+      ConcurrencyLimiter limiter,
+      Map<String, Double> classes,
+      Map<String, String> operations,
+      String defaultClass,
+      boolean errorResponse,
+      int retryAfterSeconds,
+      int maxBodySize,
+      MetricRegistry registry) {
+    this.limiter = Objects.requireNonNull(limiter);
+    this.classes = ImmutableMap.copyOf(classes);
+    this.operations = ImmutableMap.copyOf(operations);
+    this.defaultClass = Objects.requireNonNull(defaultClass);
+    this.errorResponse = errorResponse;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.maxBodySize = maxBodySize;
+
+    if (!classes.containsKey(defaultClass)) {
+      throw new IllegalArgumentException("Unknown priority class: " + defaultClass);
+    }
+    for (String priority : operations.values()) {
+      if (!classes.containsKey(priority)) {
+        throw new IllegalArgumentException("Unknown priority class: " + priority);
+      }
+    }
+
+    final ImmutableMap.Builder<String, Meter> meters = ImmutableMap.builder();
+    for (String priority : classes.keySet()) {
+      meters.put(
+          priority,
+          registry.meter(MetricRegistry.name(ConcurrencyLimitFilter.class, "rejected", priority)));
+    }
+    rejected = meters.build();
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(req instanceof HttpServletRequest) || !(resp instanceof HttpServletResponse)) {
+      chain.doFilter(req, resp);
+      return;
+    }
+
+    HttpServletRequest request = (HttpServletRequest) req;
+    final HttpServletResponse response = (HttpServletResponse) resp;
+
+    // only read the operation name from the body when it can change the priority, and only from
+    // JSON bodies small enough to buffer, so file uploads stream through untouched
+    String operationName = request.getParameter(OPERATION_NAME);
+    if (Strings.isNullOrEmpty(operationName)) {
+      operationName = request.getHeader(OPERATION_NAME_HEADER);
+    }
+    if (Strings.isNullOrEmpty(operationName)
+        && !operations.isEmpty()
+        && "POST".equals(request.getMethod())) {
+      request = BufferedRequestWrapper.buffer(request, maxBodySize);
+      operationName =
+          BufferedRequestWrapper.getBody(request).map(this::readOperationName).orElse(null);
+    }
+
+    final String priority =
+        operationName == null ? defaultClass : operations.getOrDefault(operationName, defaultClass);
+    final Optional<ConcurrencyLimiter.Permit> permit = limiter.tryAcquire(classes.get(priority));
+    if (!permit.isPresent()) {
+      rejected.get(priority).mark();
+      LOGGER.debug("Rejected {} operation {}: {}", priority, operationName, limiter);
+      reject(response);
+      return;
+    }
+
+    boolean async = false;
+    try {
+      chain.doFilter(request, response);
+      if (request.isAsyncStarted()) {
+        request.getAsyncContext().addListener(new ReleasingListener(permit.get(), response));
+        async = true;
+      }
+    } finally {
+      if (!async) {
+        permit.get().release(response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+    }
+  }
+
+  private void reject(HttpServletResponse response) throws IOException {
+    response.setHeader("Retry-After", Integer.toString(retryAfterSeconds));
+    response.setStatus(
+        errorResponse ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    response.setContentType("application/json;charset=UTF-8");
+    response.setContentLength(OVERLOADED.length);
+    response.getOutputStream().write(OVERLOADED);
+  }
+
+  /**
+   * Find the top-level operation name in a JSON request body without parsing the rest of it.
+   *
+   * @param body Request body
+   * @return the operation name, or null if there isn't one
+   */
+  @Nullable
+  private String readOperationName(byte[] body) {
+    try (JsonParser parser = jsonFactory.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String field = parser.getCurrentName();
+        final JsonToken value = parser.nextToken();
+        if (OPERATION_NAME.equals(field)) {
+          return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+        }
+        parser.skipChildren();
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read operation name", e);
+    }
+    return null;
+  }
+
+  /** Releases a permit when an asynchronous request completes. */
+  private static final class ReleasingListener implements AsyncListener {
+    private final ConcurrencyLimiter.Permit permit;
+    private final HttpServletResponse response;
+
+    private ReleasingListener(ConcurrencyLimiter.Permit permit, HttpServletResponse response) {
+      this.permit = permit;
+      this.response = response;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      permit.release(response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      permit.release(true);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      permit.release(true);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin task which prints the state of the GraphQL concurrency limiter.
+ *
+ * <pre>
+ * curl -X POST http://localhost:8081/tasks/graphql-concurrency-limit
+ * curl -X POST http://localhost:8081/tasks/graphql-concurrency-limit?limit=50
+ * </pre>
+ *
+ * <p>The optional {@code limit} parameter overrides the current limit, which then continues to
+ * adapt from the new value.
+ */
+public class ConcurrencyLimitTask extends Task {
+
+  private final ConcurrencyLimiter limiter;
+
+  /**
+   * Constructor
+   *
+   * @param limiter Concurrency limiter
+   */
+  public ConcurrencyLimitTask(ConcurrencyLimiter limiter) {
+    super("graphql-concurrency-limit");
+    this.limiter = Objects.requireNonNull(limiter);
+  }
+
+  @Override
+  public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+    final List<String> limit = parameters.get("limit");
+    if (limit != null && !limit.isEmpty()) {
+      limiter.setLimit(Integer.parseInt(limit.get(0)));
+    }
+
+    output.printf("algorithm: %s%n", limiter.getAlgorithm());
+    output.printf("limit: %d%n", limiter.getLimit());
+    output.printf("in-flight: %d%n", limiter.getInFlight());
+    output.printf("short-rtt-ms: %d%n", TimeUnit.NANOSECONDS.toMillis(limiter.getShortRtt()));
+    output.printf("long-rtt-ms: %d%n", TimeUnit.NANOSECONDS.toMillis(limiter.getLongRtt()));
+    output.flush();
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.base.MoreObjects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive limit on the number of concurrent executions. The limit is adjusted from the latency of
+ * completed requests, so it shrinks when backends slow down and grows again as they recover.
+ *
+ * <p>Callers acquire a {@link Permit} before executing, and may only use a fraction of the limit,
+ * so lower priority requests are shed before higher priority ones.
+ */
+public class ConcurrencyLimiter {
+
+  public enum Algorithm {
+    /**
+     * Additive increase, multiplicative decrease. The limit grows by one after each request which
+     * completes within the latency threshold, and is multiplied by the backoff ratio after each
+     * request which fails or exceeds it.
+     */
+    AIMD,
+
+    /**
+     * The limit is scaled by the ratio of the long-term average latency to the short-term average
+     * latency, so it shrinks as soon as latency starts rising above its baseline.
+     */
+    GRADIENT
+  }
+
+  /** A slot in the limit, which must be released once the request completes. */
+  public final class Permit {
+    private final long startNanos = System.nanoTime();
+    private boolean released = false;
+
+    private Permit() {}
+
+    /**
+     * Release the permit and record the latency of the request.
+     *
+     * @param dropped Whether the request failed because the server is overloaded
+     */
+    public void release(boolean dropped) {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      final int current = inFlight.getAndDecrement();
+      onSample(System.nanoTime() - startNanos, current, dropped);
+    }
+  }
+
+  // short and long-term averages are taken over roughly this many samples
+  private static final double SHORT_WINDOW = 10;
+  private static final double LONG_WINDOW = 600;
+  private static final double TOLERANCE = 1.5;
+  private static final double SMOOTHING = 0.2;
+
+  private final Algorithm algorithm;
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyThresholdNanos;
+  private final double backoffRatio;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private volatile double limit;
+  private double shortRtt = 0;
+  private double longRtt = 0;
+
+  /**
+   * Constructor
+   *
+   * @param algorithm Algorithm used to adjust the limit
+   * @param initialLimit Limit before any requests have completed
+   * @param minLimit Lower bound of the limit
+   * @param maxLimit Upper bound of the limit
+   * @param latencyThresholdNanos Latency above which a request counts as dropped, used by {@link
+   *     Algorithm#AIMD}
+   * @param backoffRatio Ratio the limit is multiplied by after a dropped request, used by {@link
+   *     Algorithm#AIMD}
+   */
+  public ConcurrencyLimiter(
+      Algorithm algorithm,
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      long latencyThresholdNanos,
+      double backoffRatio) {
+    if (minLimit < 1 || minLimit > maxLimit) {
+      throw new IllegalArgumentException("minLimit must be between 1 and maxLimit");
+    }
+    this.algorithm = algorithm;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyThresholdNanos = latencyThresholdNanos;
+    this.backoffRatio = backoffRatio;
+    this.limit = clamp(initialLimit);
+  }
+
+  /**
+   * Try to acquire a permit without waiting.
+   *
+   * @param share Fraction of the limit the caller may use, between 0 and 1
+   * @return the permit, or empty if the caller is over its share of the limit
+   */
+  public Optional<Permit> tryAcquire(double share) {
+    final int allowed = Math.max(1, (int) (getLimit() * share));
+    while (true) {
+      final int current = inFlight.get();
+      if (current >= allowed) {
+        return Optional.empty();
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return Optional.of(new Permit());
+      }
+    }
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Override the current limit, which continues to adapt from the new value.
+   *
+   * @param newLimit New limit, which is clamped to the configured bounds
+   */
+  public synchronized void setLimit(int newLimit) {
+    limit = clamp(newLimit);
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public Algorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Short-term average latency of completed requests.
+   *
+   * @return the latency in nanoseconds
+   */
+  public synchronized long getShortRtt() {
+    return (long) shortRtt;
+  }
+
+  /**
+   * Long-term average latency of completed requests.
+   *
+   * @return the latency in nanoseconds
+   */
+  public synchronized long getLongRtt() {
+    return (long) longRtt;
+  }
+
+  private synchronized void onSample(long rttNanos, int inFlightAtRelease, boolean dropped) {
+    shortRtt = average(shortRtt, rttNanos, SHORT_WINDOW);
+    longRtt = average(longRtt, rttNanos, LONG_WINDOW);
+
+    // don't grow the limit when it isn't what is holding back throughput
+    final boolean limited = inFlightAtRelease * 2 >= limit;
+
+    switch (algorithm) {
+      case AIMD:
+        if (dropped || rttNanos > latencyThresholdNanos) {
+          limit = clamp(limit * backoffRatio);
+        } else if (limited) {
+          limit = clamp(limit + 1);
+        }
+        break;
+      case GRADIENT:
+      default:
+        // recover faster when a long stretch of high latency has raised the baseline
+        if (longRtt / shortRtt > 2) {
+          longRtt *= 0.95;
+        }
+        if (!limited && !dropped) {
+          break;
+        }
+        final double gradient =
+            dropped ? 0.5 : Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        final double target = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit * (1 - SMOOTHING) + target * SMOOTHING);
+        break;
+    }
+  }
+
+  private static double average(double current, long sample, double window) {
+    if (current == 0) {
+      return sample;
+    }
+    return current + (sample - current) / window;
+  }
+
+  private double clamp(double value) {
+    return Math.max(minLimit, Math.min(maxLimit, value));
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("algorithm", algorithm)
+        .add("limit", getLimit())
+        .add("inFlight", getInFlight())
+        .add("minLimit", minLimit)
+        .add("maxLimit", maxLimit)
+        .toString();
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.kickstart.execution.context.GraphQLKickstartContext;
+import graphql.kickstart.servlet.context.DefaultGraphQLServletContextBuilder;
+import io.dropwizard.util.Duration;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletRequestEvent;
+import jakarta.servlet.ServletRequestListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.HandshakeRequest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.registries.DispatchPredicate;
+import org.dataloader.registries.ScheduledDataLoaderRegistry;
+
+/**
+ * Context builder which creates a new {@link DataLoaderRegistry} containing every registered data
+ * loader for each GraphQL request or WebSocket operation, and reports data loader cache hits once
+ * the request completes.
+ */
+public class DataLoaderContextBuilder extends DefaultGraphQLServletContextBuilder
+    implements ServletRequestListener {
+
+  static final String REGISTRY_ATTRIBUTE = DataLoaderRegistry.class.getName();
+
+  static final class NamedLoader {
+    private final String name;
+    private final DataLoaderRegistryFactory.BatchLoaderDefinition definition;
+    private final InstrumentedBatchLoaders.Metrics metrics;
+
+    NamedLoader(
+        String name,
+        DataLoaderRegistryFactory.BatchLoaderDefinition definition,
+        InstrumentedBatchLoaders.Metrics metrics) {
+      this.name = name;
+      this.definition = definition;
+      this.metrics = metrics;
+    }
+  }
+
+  private final List<NamedLoader> loaders;
+  private final Supplier<DataLoaderOptions> options;
+  @Nullable private final ScheduledExecutorService scheduler;
+  private final java.time.Duration scheduleInterval;
+  private final DispatchPredicate dispatchPredicate;
+
+  /**
+   * Constructor
+   *
+   * @param loaders Registered data loaders
+   * @param options Supplier of data loader options
+   * @param maxBatchSize Maximum number of keys per batch, or 0 for no limit
+   * @param scheduler Executor used to dispatch loads, or null to dispatch once per level
+   * @param scheduleInterval Maximum time a load is held before it is dispatched
+   */
+  DataLoaderContextBuilder(
+      List<NamedLoader> loaders,
+      Supplier<DataLoaderOptions> options,
+      int maxBatchSize,
+      @Nullable ScheduledExecutorService scheduler,
+      Duration scheduleInterval) {
+    this.loaders = Objects.requireNonNull(loaders);
+    this.options = Objects.requireNonNull(options);
+    this.scheduler = scheduler;
+    this.scheduleInterval = java.time.Duration.ofNanos(scheduleInterval.toNanoseconds());
+
+    final DispatchPredicate elapsed = DispatchPredicate.dispatchIfLongerThan(this.scheduleInterval);
+    if (maxBatchSize > 0) {
+      dispatchPredicate =
+          elapsed.or(DispatchPredicate.dispatchIfDepthGreaterThan(maxBatchSize - 1));
+    } else {
+      dispatchPredicate = elapsed;
+    }
+  }
+
+  @Override
+  public GraphQLKickstartContext build(HttpServletRequest request, HttpServletResponse response) {
+    final DataLoaderRegistry registry = newRegistry();
+    request.setAttribute(REGISTRY_ATTRIBUTE, registry);
+
+    final Map<Object, Object> context =
+        new HashMap<>(super.build(request, response).getMapOfContext());
+    return GraphQLKickstartContext.of(registry, context);
+  }
+
+  @Override
+  public GraphQLKickstartContext build(Session session, HandshakeRequest handshakeRequest) {
+    final Map<Object, Object> context =
+        new HashMap<>(super.build(session, handshakeRequest).getMapOfContext());
+    return GraphQLKickstartContext.of(newRegistry(), context);
+  }
+
+  @Override
+  public GraphQLKickstartContext build() {
+    return GraphQLKickstartContext.of(newRegistry());
+  }
+
+  /**
+   * Create a registry containing a new instance of every registered data loader.
+   *
+   * @return the registry
+   */
+  public DataLoaderRegistry newRegistry() {
+    if (scheduler == null) {
+      final DataLoaderRegistry registry = new DataLoaderRegistry();
+      for (NamedLoader loader : loaders) {
+        registry.register(loader.name, loader.definition.newDataLoader(options.get()));
+      }
+      return registry;
+    }
+
+    final ScheduledDataLoaderRegistry.Builder builder =
+        ScheduledDataLoaderRegistry.newScheduledRegistry()
+            .scheduledExecutorService(scheduler)
+            .schedule(scheduleInterval)
+            .dispatchPredicate(dispatchPredicate);
+    for (NamedLoader loader : loaders) {
+      builder.register(loader.name, loader.definition.newDataLoader(options.get()));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public void requestDestroyed(ServletRequestEvent event) {
+    final ServletRequest request = event.getServletRequest();
+    final Object attribute = request.getAttribute(REGISTRY_ATTRIBUTE);
+    if (attribute instanceof DataLoaderRegistry) {
+      report((DataLoaderRegistry) attribute);
+    }
+  }
+
+  /**
+   * Record the cache statistics of a registry once it is no longer in use.
+   *
+   * @param registry Registry created by {@link #newRegistry()}
+   */
+  void report(DataLoaderRegistry registry) {
+    for (NamedLoader loader : loaders) {
+      final DataLoader<?, ?> dataLoader = registry.getDataLoader(loader.name);
+      if (dataLoader != null) {
+        loader.metrics.markCacheHits(dataLoader.getStatistics().getCacheHitCount());
+      }
+    }
+    if (registry instanceof ScheduledDataLoaderRegistry) {
+      ((ScheduledDataLoaderRegistry) registry).close();
+    }
+  }
+}
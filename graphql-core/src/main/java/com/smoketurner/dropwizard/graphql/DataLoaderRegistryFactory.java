@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MinDuration;
+import io.dropwizard.validation.OneOf;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.dataloader.BatchLoader;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderFactory;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.MappedBatchLoader;
+import org.dataloader.stats.SimpleStatisticsCollector;
+
+/**
+ * Configuration for the named {@link DataLoader}s which are instantiated for every GraphQL request.
+ */
+public class DataLoaderRegistryFactory {
+
+  @Min(0)
+  private int maxBatchSize = 0;
+
+  private boolean cachingEnabled = true;
+
+  @NotEmpty
+  @OneOf({"level", "scheduled"})
+  private String dispatchStrategy = "level";
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration scheduleInterval = Duration.milliseconds(10);
+
+  private final Map<String, Function<InstrumentedBatchLoaders.Metrics, BatchLoaderDefinition>>
+      loaders = new LinkedHashMap<>();
+
+  /** Creates a new {@link DataLoader} for a single request. */
+  @FunctionalInterface
+  interface BatchLoaderDefinition {
+    DataLoader<?, ?> newDataLoader(DataLoaderOptions options);
+  }
+
+  /**
+   * Maximum number of keys dispatched to a batch loader in a single call, or 0 for no limit.
+   *
+   * @return the maximum batch size
+   */
+  @JsonProperty
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  @JsonProperty
+  public void setMaxBatchSize(int size) {
+    maxBatchSize = size;
+  }
+
+  @JsonProperty
+  public boolean isCachingEnabled() {
+    return cachingEnabled;
+  }
+
+  @JsonProperty
+  public void setCachingEnabled(boolean enabled) {
+    cachingEnabled = enabled;
+  }
+
+  /**
+   * When to dispatch pending loads. {@code level} dispatches once each level of the query has been
+   * fetched, while {@code scheduled} holds loads for up to {@link #getScheduleInterval()} (or until
+   * {@link #getMaxBatchSize()} keys are pending) so that loads from several levels share a batch.
+   *
+   * @return the dispatch strategy
+   */
+  @JsonProperty
+  public String getDispatchStrategy() {
+    return dispatchStrategy;
+  }
+
+  @JsonProperty
+  public void setDispatchStrategy(String strategy) {
+    dispatchStrategy = strategy;
+  }
+
+  @JsonProperty
+  public Duration getScheduleInterval() {
+    return scheduleInterval;
+  }
+
+  @JsonProperty
+  public void setScheduleInterval(Duration interval) {
+    scheduleInterval = interval;
+  }
+
+  /**
+   * Register a named {@link BatchLoader}. The supplier is called once per request so loaders may
+   * hold per-request state.
+   *
+   * @param name Data loader name, as passed to {@code DataFetchingEnvironment.getDataLoader()}
+   * @param supplier Supplier of batch loaders
+   */
+  @JsonIgnore
+  public <K, V> void registerBatchLoader(
+      String name, Supplier<? extends BatchLoader<K, V>> supplier) {
+    Objects.requireNonNull(supplier);
+    loaders.put(
+        Objects.requireNonNull(name),
+        metrics ->
+            options ->
+                DataLoaderFactory.newDataLoader(
+                    InstrumentedBatchLoaders.instrument(supplier.get(), metrics), options));
+  }
+
+  /**
+   * Register a named {@link MappedBatchLoader}. The supplier is called once per request so loaders
+   * may hold per-request state.
+   *
+   * @param name Data loader name, as passed to {@code DataFetchingEnvironment.getDataLoader()}
+   * @param supplier Supplier of mapped batch loaders
+   */
+  @JsonIgnore
+  public <K, V> void registerMappedBatchLoader(
+      String name, Supplier<? extends MappedBatchLoader<K, V>> supplier) {
+    Objects.requireNonNull(supplier);
+    loaders.put(
+        Objects.requireNonNull(name),
+        metrics ->
+            options ->
+                DataLoaderFactory.newMappedDataLoader(
+                    InstrumentedBatchLoaders.instrument(supplier.get(), metrics), options));
+  }
+
+  @JsonIgnore
+  public boolean isEmpty() {
+    return loaders.isEmpty();
+  }
+
+  /**
+   * Build a context builder which creates a new DataLoaderRegistry for each request.
+   *
+   * @param environment Dropwizard environment
+   * @return the context builder
+   */
+  public DataLoaderContextBuilder build(Environment environment) {
+    final List<DataLoaderContextBuilder.NamedLoader> definitions = new ArrayList<>();
+    loaders.forEach(
+        (name, definition) -> {
+          final InstrumentedBatchLoaders.Metrics metrics =
+              new InstrumentedBatchLoaders.Metrics(environment.metrics(), name);
+          definitions.add(
+              new DataLoaderContextBuilder.NamedLoader(name, definition.apply(metrics), metrics));
+        });
+
+    @Nullable final ScheduledExecutorService scheduler;
+    if ("scheduled".equals(dispatchStrategy)) {
+      scheduler =
+          environment.lifecycle().scheduledExecutorService("graphql-dataloader-%d", true).build();
+    } else {
+      scheduler = null;
+    }
+
+    final DataLoaderContextBuilder builder =
+        new DataLoaderContextBuilder(
+            definitions, this::buildOptions, maxBatchSize, scheduler, scheduleInterval);
+    environment.servlets().addServletListeners(builder);
+    return builder;
+  }
+
+  private DataLoaderOptions buildOptions() {
+    final DataLoaderOptions options =
+        DataLoaderOptions.newOptions()
+            .setCachingEnabled(cachingEnabled)
+            .setStatisticsCollector(SimpleStatisticsCollector::new);
+    if (maxBatchSize > 0) {
+      options.setMaxBatchSize(maxBatchSize);
+    }
+    return options;
+  }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.language.Argument;
+import graphql.language.AstPrinter;
+import graphql.language.BooleanValue;
+import graphql.language.Definition;
+import graphql.language.Directive;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.IntValue;
+import graphql.language.Node;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.StringValue;
+import graphql.language.Value;
+import graphql.language.VariableDefinition;
+import graphql.language.VariableReference;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Splits a query using the {@code @defer} and {@code @stream} directives into an initial operation
+ * and one operation per deferred root selection, which can be executed concurrently and delivered
+ * incrementally.
+ *
+ * <p>Only selections on the root operation type are deferred: {@code @defer} on root inline
+ * fragments and fragment spreads, and {@code @stream} on root list fields with an {@code
+ * initialCount} of 0. Each part is executed as a separate operation, independently of the initial
+ * operation and of the other parts.
+ *
+ * <p>{@code @stream} is treated as {@code @defer}: the whole list is resolved by its part and
+ * delivered as the items of a single patch, rather than item by item. Every other use of either
+ * directive, such as on nested selections or {@code @stream} with a non-zero {@code initialCount},
+ * is flattened: the directive is removed when the parts are printed and its selections are returned
+ * in the enclosing payload, which the incremental delivery specification allows.
+ */
+final class DeferredOperations {
+
+  static final String DEFER = "defer";
+  static final String STREAM = "stream";
+  private static final String TYPENAME = "__typename";
+
+  /**
+   * A deferred root selection executed as its own operation. A {@code @stream} part resolves the
+   * whole list, which is delivered as a single patch.
+   */
+  static final class Part {
+    private final String query;
+    @Nullable private final String label;
+    @Nullable private final String streamKey;
+
+    Part(String query, @Nullable String label, @Nullable String streamKey) {
+      this.query = query;
+      this.label = label;
+      this.streamKey = streamKey;
+    }
+
+    String getQuery() {
+      return query;
+    }
+
+    Optional<String> getLabel() {
+      return Optional.ofNullable(label);
+    }
+
+    /**
+     * Response key of the streamed field, if this part is a {@code @stream} rather than a {@code
+     * defer}.
+     *
+     * @return the response key of the streamed field
+     */
+    Optional<String> getStreamKey() {
+      return Optional.ofNullable(streamKey);
+    }
+  }
+
+  /** The result of splitting a query. */
+  static final class Plan {
+    private final String query;
+    private final String initialQuery;
+    private final boolean typenameAdded;
+    private final List<String> streamKeys;
+    private final List<Part> parts;
+
+    Plan(
+        String query,
+        String initialQuery,
+        boolean typenameAdded,
+        List<String> streamKeys,
+        List<Part> parts) {
+      this.query = query;
+      this.initialQuery = initialQuery;
+      this.typenameAdded = typenameAdded;
+      this.streamKeys = streamKeys;
+      this.parts = parts;
+    }
+
+    /**
+     * The complete query with every {@code @defer} and {@code @stream} directive removed, for
+     * clients which do not accept incremental responses.
+     *
+     * @return the complete query
+     */
+    String getQuery() {
+      return query;
+    }
+
+    String getInitialQuery() {
+      return initialQuery;
+    }
+
+    /**
+     * Whether {@code __typename} was selected by the initial query only because every root
+     * selection was deferred.
+     *
+     * @return true if {@code __typename} should be removed from the initial payload
+     */
+    boolean isTypenameAdded() {
+      return typenameAdded;
+    }
+
+    List<String> getStreamKeys() {
+      return streamKeys;
+    }
+
+    List<Part> getParts() {
+      return parts;
+    }
+  }
+
+  private DeferredOperations() {}
+
+  /**
+   * Return whether a query may use the {@code @defer} or {@code @stream} directives, without
+   * parsing it.
+   *
+   * @param query Query text
+   * @return false if the query does not use either directive
+   */
+  static boolean mayContainDirectives(String query) {
+    return query.contains("@" + DEFER) || query.contains("@" + STREAM);
+  }
+
+  /**
+   * Split an operation into an initial operation and its deferred parts.
+   *
+   * @param request Operation request
+   * @return the plan, or empty if the query cannot be parsed or the operation is not found
+   */
+  @SuppressWarnings("rawtypes")
+  static Optional<Plan> plan(OperationRequest request) {
+    final Document document;
+    try {
+      document = Parser.parse(request.getQuery());
+    } catch (InvalidSyntaxException e) {
+      return Optional.empty();
+    }
+
+    final Optional<OperationDefinition> found = findOperation(document, request.getOperationName());
+    if (!found.isPresent()) {
+      return Optional.empty();
+    }
+    final OperationDefinition operation = found.get();
+    final Map<String, Object> variables = request.getVariables();
+    final List<Selection> roots = operation.getSelectionSet().getSelections();
+
+    final String query = print(document, operation, roots);
+    if (operation.getOperation() != OperationDefinition.Operation.QUERY) {
+      return Optional.of(
+          new Plan(query, query, false, Collections.emptyList(), Collections.emptyList()));
+    }
+
+    final List<Selection> initial = new ArrayList<>();
+    final List<String> streamKeys = new ArrayList<>();
+    final List<Part> parts = new ArrayList<>();
+    for (Selection selection : roots) {
+      final List<Directive> directives = getDirectives(selection);
+      final Optional<Directive> defer = findActive(directives, DEFER, variables);
+      if (defer.isPresent() && !(selection instanceof Field)) {
+        parts.add(
+            new Part(
+                print(document, operation, Collections.singletonList(selection)),
+                getLabel(defer.get()),
+                null));
+        continue;
+      }
+
+      final Optional<Directive> stream = findActive(directives, STREAM, variables);
+      if (stream.isPresent()
+          && selection instanceof Field
+          && getInitialCount(stream.get(), variables) == 0) {
+        final Field field = (Field) selection;
+        final String key = field.getAlias() != null ? field.getAlias() : field.getName();
+        streamKeys.add(key);
+        parts.add(
+            new Part(
+                print(document, operation, Collections.singletonList(selection)),
+                getLabel(stream.get()),
+                key));
+        continue;
+      }
+      // nested directives are flattened by print(), along with those on this selection
+      initial.add(selection);
+    }
+
+    if (parts.isEmpty()) {
+      return Optional.of(new Plan(query, query, false, streamKeys, parts));
+    }
+
+    final boolean typenameAdded = initial.isEmpty();
+    if (typenameAdded) {
+      initial.add(new Field(TYPENAME));
+    }
+    return Optional.of(
+        new Plan(query, print(document, operation, initial), typenameAdded, streamKeys, parts));
+  }
+
+  /**
+   * Find the operation to execute in a document.
+   *
+   * @param document Parsed document
+   * @param operationName Name of the operation, or null if the document has a single operation
+   * @return the operation, or empty if it is not found
+   */
+  static Optional<OperationDefinition> findOperation(
+      Document document, @Nullable String operationName) {
+    final List<OperationDefinition> operations =
+        document.getDefinitionsOfType(OperationDefinition.class);
+    if (operationName == null || operationName.isEmpty()) {
+      return operations.size() == 1 ? Optional.of(operations.get(0)) : Optional.empty();
+    }
+    return operations.stream().filter(o -> operationName.equals(o.getName())).findFirst();
+  }
+
+  /**
+   * Print a document containing the operation with the given root selections, the fragments they
+   * use and the variables they reference, with every {@code @defer} and {@code @stream} directive
+   * removed.
+   */
+  @SuppressWarnings("rawtypes")
+  private static String print(
+      Document document, OperationDefinition operation, List<Selection> selections) {
+    final Map<String, FragmentDefinition> fragments = new HashMap<>();
+    for (FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class)) {
+      fragments.put(fragment.getName(), fragment);
+    }
+
+    final SelectionSet selectionSet = strip(SelectionSet.newSelectionSet(selections).build());
+    final Set<String> usedFragments = new HashSet<>();
+    final Set<String> usedVariables = new HashSet<>();
+    collect(selectionSet, fragments, usedFragments, usedVariables);
+    for (Directive directive : operation.getDirectives()) {
+      collect(directive, fragments, usedFragments, usedVariables);
+    }
+
+    final List<VariableDefinition> variableDefinitions =
+        operation.getVariableDefinitions().stream()
+            .filter(v -> usedVariables.contains(v.getName()))
+            .collect(Collectors.toList());
+
+    final List<Definition> definitions = new ArrayList<>();
+    definitions.add(
+        operation.transform(
+            builder ->
+                builder.selectionSet(selectionSet).variableDefinitions(variableDefinitions)));
+    for (FragmentDefinition fragment : fragments.values()) {
+      if (usedFragments.contains(fragment.getName())) {
+        definitions.add(
+            fragment.transform(builder -> builder.selectionSet(strip(fragment.getSelectionSet()))));
+      }
+    }
+    return AstPrinter.printAst(Document.newDocument().definitions(definitions).build());
+  }
+
+  /**
+   * Collect the names of the fragments and variables referenced by a node, including those
+   * referenced by the fragments it spreads.
+   *
+   * @param node AST node
+   * @param fragments Fragment definitions in the document, by name
+   * @param usedFragments Names of the referenced fragments
+   * @param usedVariables Names of the referenced variables
+   */
+  @SuppressWarnings("rawtypes")
+  static void collect(
+      Node<?> node,
+      Map<String, FragmentDefinition> fragments,
+      Set<String> usedFragments,
+      Set<String> usedVariables) {
+    if (node instanceof VariableReference) {
+      usedVariables.add(((VariableReference) node).getName());
+    } else if (node instanceof FragmentSpread) {
+      final String name = ((FragmentSpread) node).getName();
+      final FragmentDefinition fragment = fragments.get(name);
+      if (fragment != null && usedFragments.add(name)) {
+        collect(fragment, fragments, usedFragments, usedVariables);
+      }
+    }
+    for (Node child : node.getChildren()) {
+      collect(child, fragments, usedFragments, usedVariables);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Nullable
+  private static SelectionSet strip(@Nullable SelectionSet selectionSet) {
+    if (selectionSet == null) {
+      return null;
+    }
+    final List<Selection> selections = new ArrayList<>();
+    for (Selection selection : selectionSet.getSelections()) {
+      selections.add(strip(selection));
+    }
+    return SelectionSet.newSelectionSet(selections).build();
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static Selection strip(Selection selection) {
+    if (selection instanceof Field) {
+      final Field field = (Field) selection;
+      return field.transform(
+          builder ->
+              builder
+                  .directives(strip(field.getDirectives()))
+                  .selectionSet(strip(field.getSelectionSet())));
+    }
+    if (selection instanceof InlineFragment) {
+      final InlineFragment fragment = (InlineFragment) selection;
+      return fragment.transform(
+          builder ->
+              builder
+                  .directives(strip(fragment.getDirectives()))
+                  .selectionSet(strip(fragment.getSelectionSet())));
+    }
+    if (selection instanceof FragmentSpread) {
+      final FragmentSpread spread = (FragmentSpread) selection;
+      return spread.transform(builder -> builder.directives(strip(spread.getDirectives())));
+    }
+    return selection;
+  }
+
+  private static List<Directive> strip(List<Directive> directives) {
+    return directives.stream()
+        .filter(d -> !DEFER.equals(d.getName()) && !STREAM.equals(d.getName()))
+        .collect(Collectors.toList());
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static List<Directive> getDirectives(Selection selection) {
+    if (selection instanceof Field) {
+      return ((Field) selection).getDirectives();
+    }
+    if (selection instanceof InlineFragment) {
+      return ((InlineFragment) selection).getDirectives();
+    }
+    if (selection instanceof FragmentSpread) {
+      return ((FragmentSpread) selection).getDirectives();
+    }
+    return Collections.emptyList();
+  }
+
+  /** Find a directive by name, unless its {@code if} argument is false. */
+  private static Optional<Directive> findActive(
+      List<Directive> directives, String name, Map<String, Object> variables) {
+    for (Directive directive : directives) {
+      if (!name.equals(directive.getName())) {
+        continue;
+      }
+      final Object condition = resolve(directive, "if", variables);
+      if (Boolean.FALSE.equals(condition)) {
+        return Optional.empty();
+      }
+      return Optional.of(directive);
+    }
+    return Optional.empty();
+  }
+
+  @Nullable
+  private static String getLabel(Directive directive) {
+    final Object label = resolve(directive, "label", Collections.emptyMap());
+    return label instanceof String ? (String) label : null;
+  }
+
+  private static int getInitialCount(Directive directive, Map<String, Object> variables) {
+    final Object count = resolve(directive, "initialCount", variables);
+    return count instanceof Number ? ((Number) count).intValue() : 0;
+  }
+
+  /** Resolve a scalar directive argument from a literal or a variable. */
+  @SuppressWarnings("rawtypes")
+  @Nullable
+  private static Object resolve(
+      Directive directive, String argumentName, Map<String, Object> variables) {
+    for (Argument argument : directive.getArguments()) {
+      if (!argumentName.equals(argument.getName())) {
+        continue;
+      }
+      final Value value = argument.getValue();
+      if (value instanceof VariableReference) {
+        return variables.get(((VariableReference) value).getName());
+      }
+      if (value instanceof BooleanValue) {
+        return ((BooleanValue) value).isValue();
+      }
+      if (value instanceof IntValue) {
+        return ((IntValue) value).getValue();
+      }
+      if (value instanceof StringValue) {
+        return ((StringValue) value).getValue();
+      }
+      return null;
+    }
+    return null;
+  }
+}
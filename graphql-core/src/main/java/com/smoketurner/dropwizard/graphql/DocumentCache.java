@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Cache of parsed and validated documents used by {@link CachingPreparsedDocumentProvider}, keyed
+ * on the query text or its SHA-256 hash. {@link CaffeineDocumentCache} is used unless another
+ * implementation is set with {@link GraphQLFactory#setDocumentCache(DocumentCache)}.
+ */
+public interface DocumentCache {
+
+  /**
+   * Return the document for a key if it is cached or being computed.
+   *
+   * @param key Cache key
+   * @return the document, or null if it is not cached
+   */
+  @Nullable CompletableFuture<CachedDocument> getIfPresent(String key);
+
+  /**
+   * Return whether the document for a key is cached or being computed, without counting as a cache
+   * hit or miss.
+   *
+   * @param key Cache key
+   * @return true if the document is cached
+   */
+  default boolean contains(String key) {
+    return getIfPresent(key) != null;
+  }
+
+  /**
+   * Return the document for a key, computing it if it is not cached. Concurrent callers for the
+   * same key must share a single computation, without blocking callers for other keys.
+   *
+   * @param key Cache key
+   * @param loader Function which parses and validates the document
+   * @return the document
+   */
+  CompletableFuture<CachedDocument> get(String key, Function<String, CachedDocument> loader);
+
+  /**
+   * Return the document for a key, loading it asynchronously if it is not cached, for loaders which
+   * wait on I/O. Implementations which can't hold a pending load wait for it in the loader.
+   *
+   * @param key Cache key
+   * @param loader Function which starts loading the document
+   * @return the document
+   */
+  default CompletableFuture<CachedDocument> getAsync(
+      String key, Function<String, CompletableFuture<CachedDocument>> loader) {
+    return get(key, k -> loader.apply(k).join());
+  }
+
+  /** Discard every cached document. */
+  void invalidateAll();
+
+  /**
+   * Discard the cached documents whose keys match a predicate. Implementations which can't iterate
+   * their keys may discard every document instead.
+   *
+   * @param predicate Predicate matching the keys to discard
+   */
+  default void invalidateIf(Predicate<String> predicate) {
+    invalidateAll();
+  }
+
+  /**
+   * Return up to {@code limit} cached documents, most frequently used first if the implementation
+   * tracks usage. Used to write the warm-up snapshot on shutdown.
+   *
+   * @param limit Maximum number of documents
+   * @return the cached documents
+   */
+  default List<CachedDocument> snapshot(int limit) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Return up to {@code limit} cached documents whose keys match a predicate, most frequently used
+   * first if the implementation tracks usage. Implementations which can't iterate their keys return
+   * an empty list.
+   *
+   * @param limit Maximum number of documents
+   * @param predicate Predicate matching the keys to return
+   * @return the cached documents
+   */
+  default List<CachedDocument> snapshot(int limit, Predicate<String> predicate) {
+    return Collections.emptyList();
+  }
+}
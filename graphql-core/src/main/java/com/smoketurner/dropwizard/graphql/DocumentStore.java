@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import java.io.IOException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Second-level store of parsed and validated documents shared by every node, behind the in-process
+ * {@link DocumentCache}. Documents are stored in their serialized form by {@link
+ * SharedDocumentCache}, and namespaced by the version of the schema they were validated against.
+ *
+ * <p>Schema versions and keys are lower-case hex SHA-256 hashes, so they can be used as they are in
+ * file names or remote keys. Implementations must be thread-safe.
+ */
+public interface DocumentStore {
+
+  /**
+   * Return a stored document.
+   *
+   * @param schemaVersion Version of the schema the document was validated against
+   * @param key Document key
+   * @return the serialized document, or null if it is not stored
+   * @throws IOException if unable to read from the store
+   */
+  @Nullable byte[] get(String schemaVersion, String key) throws IOException;
+
+  /**
+   * Store a document.
+   *
+   * @param schemaVersion Version of the schema the document was validated against
+   * @param key Document key
+   * @param document Serialized document
+   * @throws IOException if unable to write to the store
+   */
+  void put(String schemaVersion, String key, byte[] document) throws IOException;
+
+  /**
+   * Remove every document stored for a schema version.
+   *
+   * @param schemaVersion Schema version
+   * @throws IOException if unable to write to the store
+   */
+  void invalidate(String schemaVersion) throws IOException;
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import graphql.GraphQL;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.validation.OneOf;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration for the second-level document cache shared by every node. */
+public class DocumentStoreFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentStoreFactory.class);
+
+  private boolean enabled = false;
+
+  @NotEmpty
+  @OneOf({"memory", "file"})
+  private String type = "memory";
+
+  @Nullable private String directory;
+
+  @Min(1)
+  private long maximumSize = 10_000;
+
+  @Min(1)
+  private int threads = 8;
+
+  @Min(1)
+  private int queueSize = 1024;
+
+  @Nullable private DocumentStore store;
+
+  @Nullable private ExecutorService executor;
+
+  /**
+   * Whether parsed and validated documents are shared through a {@link DocumentStore}. Setting a
+   * custom store with {@link #setStore(DocumentStore)} also enables it.
+   *
+   * @return true if the document store is enabled
+   */
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled || store != null;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Type of the built-in store, either {@code memory} or {@code file}.
+   *
+   * @return the store type
+   */
+  @JsonProperty
+  public String getType() {
+    return type;
+  }
+
+  @JsonProperty
+  public void setType(String type) {
+    this.type = type;
+  }
+
+  /**
+   * Directory of the {@code file} store, which should be on a file system shared by every node.
+   *
+   * @return the directory
+   */
+  @JsonProperty
+  @Nullable
+  public String getDirectory() {
+    return directory;
+  }
+
+  @JsonProperty
+  public void setDirectory(@Nullable String directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Maximum number of documents kept by the built-in stores. The {@code memory} store evicts the
+   * least recently used documents, and the {@code file} store stops storing new documents of a
+   * schema version once it holds this many.
+   *
+   * @return the maximum number of documents
+   */
+  @JsonProperty
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  @JsonProperty
+  public void setMaximumSize(long size) {
+    maximumSize = size;
+  }
+
+  /**
+   * Number of threads reading and writing the store, so that store I/O never runs on the threads
+   * loading the in-process document cache.
+   *
+   * @return the number of threads
+   */
+  @JsonProperty
+  public int getThreads() {
+    return threads;
+  }
+
+  @JsonProperty
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Maximum number of store reads and writes waiting for a thread. Reads beyond it are treated as
+   * misses, and writes are dropped.
+   *
+   * @return the queue size
+   */
+  @JsonProperty
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  @JsonProperty
+  public void setQueueSize(int size) {
+    queueSize = size;
+  }
+
+  /**
+   * Return the document store, building the configured store on first use.
+   *
+   * @return the document store
+   * @throws IllegalStateException if the {@code file} store has no directory
+   */
+  @JsonIgnore
+  public synchronized DocumentStore getStore() {
+    if (store == null) {
+      if ("file".equals(type)) {
+        if (directory == null) {
+          throw new IllegalStateException("documentStore.directory is required for a file store");
+        }
+        store = new FileDocumentStore(Paths.get(directory), maximumSize);
+      } else {
+        store = new InMemoryDocumentStore(maximumSize);
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Use a custom document store, such as one backed by a remote cache.
+   *
+   * @param store Document store
+   */
+  @JsonIgnore
+  public synchronized void setStore(@Nullable DocumentStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Build the second-level cache of a schema.
+   *
+   * @param environment Dropwizard environment
+   * @param schemaVersion Version of the schema
+   * @return the second-level cache
+   */
+  public SharedDocumentCache build(Environment environment, String schemaVersion) {
+    final DocumentStore documentStore = getStore();
+    LOGGER.info("Document Store: {} (schema version: {})", documentStore, schemaVersion);
+    return new SharedDocumentCache(
+        documentStore, schemaVersion, getExecutor(environment), environment.metrics());
+  }
+
+  /**
+   * Return the executor running the store I/O, building it on first use so every schema version
+   * shares it.
+   *
+   * @param environment Dropwizard environment
+   * @return the executor
+   */
+  private synchronized ExecutorService getExecutor(Environment environment) {
+    if (executor == null) {
+      executor =
+          environment
+              .lifecycle()
+              .executorService("graphql-document-store-%d")
+              .minThreads(threads)
+              .maxThreads(threads)
+              .allowCoreThreadTimeOut(true)
+              .workQueue(new ArrayBlockingQueue<>(queueSize))
+              .build();
+    }
+    return executor;
+  }
+
+  /**
+   * Register the admin task which invalidates the stored documents.
+   *
+   * @param environment Dropwizard environment
+   * @param graphQL Supplies the GraphQL instance of the current schema
+   * @param documentCache In-process document cache
+   */
+  public void registerTask(
+      Environment environment, Supplier<GraphQL> graphQL, DocumentCache documentCache) {
+    environment
+        .admin()
+        .addTask(
+            new DocumentStoreTask(
+                getStore(),
+                () -> SharedDocumentCache.schemaVersion(graphQL.get().getGraphQLSchema()),
+                documentCache));
+  }
+}
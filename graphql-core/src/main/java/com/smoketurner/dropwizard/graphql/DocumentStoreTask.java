@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Admin task which removes the documents of a schema version from the shared {@link DocumentStore},
+ * for every node, and clears the in-process document cache of this node.
+ *
+ * <pre>
+ * curl -X POST http://localhost:8081/tasks/graphql-invalidate-documents
+ * curl -X POST http://localhost:8081/tasks/graphql-invalidate-documents?version=...
+ * </pre>
+ *
+ * <p>The optional {@code version} parameter selects another schema version than the current one,
+ * for example the version a deployment has moved away from. It must be the 64 character hex hash
+ * printed by this task.
+ */
+public class DocumentStoreTask extends Task {
+
+  private final DocumentStore store;
+  private final Supplier<String> schemaVersion;
+  private final DocumentCache documentCache;
+
+  /**
+   * Constructor
+   *
+   * @param store Shared document store
+   * @param schemaVersion Supplies the version of the current schema
+   * @param documentCache In-process document cache
+   */
+  public DocumentStoreTask(
+      DocumentStore store, Supplier<String> schemaVersion, DocumentCache documentCache) {
+    super("graphql-invalidate-documents");
+    this.store = Objects.requireNonNull(store);
+    this.schemaVersion = Objects.requireNonNull(schemaVersion);
+    this.documentCache = Objects.requireNonNull(documentCache);
+  }
+
+  @Override
+  public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+    final List<String> version = parameters.get("version");
+    final String current = schemaVersion.get();
+    final String invalidated = version == null || version.isEmpty() ? current : version.get(0);
+    if (!PersistedQueries.isSha256(invalidated)) {
+      throw new IllegalArgumentException("version must be a 64 character lower-case hex hash");
+    }
+
+    store.invalidate(invalidated);
+    if (invalidated.equals(current)) {
+      documentCache.invalidateAll();
+    }
+
+    output.printf("schema-version: %s%n", current);
+    output.printf("invalidated: %s%n", invalidated);
+    output.flush();
+  }
+}
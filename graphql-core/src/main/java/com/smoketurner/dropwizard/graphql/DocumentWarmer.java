@@ -0,0 +1,280 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import graphql.ExecutionInput;
+import graphql.ParseAndValidate;
+import graphql.ParseAndValidateResult;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.language.OperationDefinition;
+import graphql.schema.GraphQLSchema;
+import io.dropwizard.lifecycle.Managed;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Populates the document cache from operation manifests, and writes the most frequently used cached
+ * operations to a snapshot on shutdown.
+ */
+public class DocumentWarmer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentWarmer.class);
+  private static final String MANIFEST_FORMAT = "apollo-persisted-query-manifest";
+
+  private final GraphQLSchema schema;
+  private final CachingPreparsedDocumentProvider provider;
+  private final boolean persistedQueries;
+  private final ObjectMapper mapper;
+  private final Timer warmupTime;
+  private final Counter warmedDocuments;
+
+  /**
+   * Constructor
+   *
+   * @param schema GraphQL schema used to validate operations
+   * @param provider Document provider to warm
+   * @param persistedQueries Whether operations should also be served by their hash
+   * @param mapper Object mapper used to read and write manifests
+   * @param registry Metric registry
+   */
+  public DocumentWarmer(
+      GraphQLSchema schema,
+      CachingPreparsedDocumentProvider provider,
+      boolean persistedQueries,
+      ObjectMapper mapper,
+      MetricRegistry registry) {
+    this.schema = Objects.requireNonNull(schema);
+    this.provider = Objects.requireNonNull(provider);
+    this.persistedQueries = persistedQueries;
+    this.mapper = Objects.requireNonNull(mapper);
+    this.warmupTime = registry.timer(MetricRegistry.name(DocumentWarmer.class, "warmup-time"));
+    this.warmedDocuments =
+        registry.counter(MetricRegistry.name(DocumentWarmer.class, "warmed-documents"));
+  }
+
+  /**
+   * Parse and validate operations in parallel and store them in the document cache.
+   *
+   * @param queries Query text of each operation
+   * @param threads Number of threads to use
+   * @return the number of operations which were valid
+   */
+  public int warm(List<String> queries, int threads) {
+    final Set<String> unique = new LinkedHashSet<>(queries);
+    if (unique.isEmpty()) {
+      return 0;
+    }
+
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder().setNameFormat("graphql-warmup-%d").setDaemon(true).build());
+    final AtomicInteger valid = new AtomicInteger();
+    final long start = System.nanoTime();
+    try {
+      final List<CompletableFuture<Void>> futures = new ArrayList<>(unique.size());
+      for (String query : unique) {
+        futures.add(
+            CompletableFuture.runAsync(
+                () -> {
+                  final PreparsedDocumentEntry entry =
+                      provider.getDocumentAsync(newExecutionInput(query), this::parse).join();
+                  if (entry.hasErrors()) {
+                    LOGGER.warn("Invalid warm-up operation: {}", entry.getErrors());
+                  } else {
+                    valid.incrementAndGet();
+                  }
+                },
+                executor));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } finally {
+      executor.shutdown();
+    }
+
+    final long elapsed = System.nanoTime() - start;
+    warmupTime.update(elapsed, TimeUnit.NANOSECONDS);
+    warmedDocuments.inc(valid.get());
+    LOGGER.info(
+        "Warmed {} of {} GraphQL operations in {}ms",
+        valid.get(),
+        unique.size(),
+        TimeUnit.NANOSECONDS.toMillis(elapsed));
+    return valid.get();
+  }
+
+  private ExecutionInput newExecutionInput(String query) {
+    final ExecutionInput.Builder builder = ExecutionInput.newExecutionInput(query);
+    if (persistedQueries) {
+      // register the operation under the hash clients send, rather than its normalized form
+      builder.extensions(
+          Collections.singletonMap(
+              PersistedQueries.EXTENSION,
+              Collections.singletonMap(PersistedQueries.HASH, PersistedQueries.sha256(query))));
+    }
+    return builder.build();
+  }
+
+  private PreparsedDocumentEntry parse(ExecutionInput input) {
+    final ParseAndValidateResult result = ParseAndValidate.parseAndValidate(schema, input);
+    if (result.isFailure()) {
+      return new PreparsedDocumentEntry(result.getErrors());
+    }
+    return new PreparsedDocumentEntry(result.getDocument());
+  }
+
+  /**
+   * Read the operations in a manifest file or classpath resource.
+   *
+   * @param name File path or classpath resource name
+   * @return the query text of each operation
+   * @throws IOException if unable to read the manifest
+   */
+  public List<String> readManifest(String name) throws IOException {
+    final Path path = Paths.get(name);
+    if (Files.isRegularFile(path)) {
+      return readFile(path);
+    }
+
+    final ClassLoader loader =
+        MoreObjects.firstNonNull(
+            Thread.currentThread().getContextClassLoader(), DocumentWarmer.class.getClassLoader());
+    try (InputStream in = loader.getResourceAsStream(name)) {
+      Objects.requireNonNull(in, String.format("resource not found: %s", name));
+      LOGGER.info("Loading GraphQL operation manifest: {}", name);
+      return parseManifest(mapper.readTree(in));
+    }
+  }
+
+  /**
+   * Read the operations in a manifest file, if it exists.
+   *
+   * @param path Manifest file
+   * @return the query text of each operation
+   * @throws IOException if unable to read the manifest
+   */
+  public List<String> readFile(Path path) throws IOException {
+    if (!Files.isRegularFile(path)) {
+      return Collections.emptyList();
+    }
+    LOGGER.info("Loading GraphQL operation manifest: {}", path);
+    try (InputStream in = Files.newInputStream(path)) {
+      return parseManifest(mapper.readTree(in));
+    }
+  }
+
+  private static List<String> parseManifest(JsonNode root) {
+    final JsonNode operations = root.isArray() ? root : root.path("operations");
+    final List<String> queries = new ArrayList<>(operations.size());
+    for (JsonNode operation : operations) {
+      if (operation.isTextual()) {
+        queries.add(operation.textValue());
+      } else if (operation.path("body").isTextual()) {
+        queries.add(operation.path("body").textValue());
+      }
+    }
+    return queries;
+  }
+
+  /**
+   * Write the valid operations in the document cache to a manifest file.
+   *
+   * @param cache Document cache
+   * @param path Manifest file
+   * @param limit Maximum number of operations to write
+   * @throws IOException if unable to write the manifest
+   */
+  public void writeSnapshot(DocumentCache cache, Path path, int limit) throws IOException {
+    final ObjectNode root = mapper.createObjectNode();
+    root.put("format", MANIFEST_FORMAT);
+    root.put("version", 1);
+    final ArrayNode operations = root.putArray("operations");
+
+    for (CachedDocument document : cache.snapshot(limit)) {
+      final PreparsedDocumentEntry entry = document.getEntry();
+      if (entry.hasErrors() || entry.getDocument() == null) {
+        continue;
+      }
+      final ObjectNode operation = operations.addObject();
+      operation.put("id", PersistedQueries.sha256(document.getQuery()));
+      entry.getDocument().getDefinitionsOfType(OperationDefinition.class).stream()
+          .findFirst()
+          .ifPresent(
+              definition -> {
+                operation.put("name", definition.getName());
+                operation.put("type", definition.getOperation().name().toLowerCase(Locale.ROOT));
+              });
+      operation.put("body", document.getQuery());
+    }
+
+    // write to a temporary file first so a failed write doesn't destroy the previous snapshot
+    final Path absolute = path.toAbsolutePath();
+    final Path temp = Files.createTempFile(absolute.getParent(), "graphql-warmup", ".json");
+    try (OutputStream out = Files.newOutputStream(temp)) {
+      mapper.writeValue(out, root);
+    }
+    Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+    LOGGER.info("Wrote {} GraphQL operations to {}", operations.size(), absolute);
+  }
+
+  /**
+   * Return a managed object which writes a snapshot when the application stops.
+   *
+   * @param cache Document cache
+   * @param path Snapshot file
+   * @param limit Maximum number of operations to write
+   * @return the managed object
+   */
+  Managed snapshotOnStop(DocumentCache cache, Path path, int limit) {
+    return new Managed() {
+      @Override
+      public void start() {}
+
+      @Override
+      public void stop() throws Exception {
+        writeSnapshot(cache, path, limit);
+      }
+    };
+  }
+}
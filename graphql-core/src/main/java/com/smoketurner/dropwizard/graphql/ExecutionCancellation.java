@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.GraphQLContext;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cooperative cancellation of a GraphQL execution. Once cancelled, the pending {@link
+ * CompletableFuture}s returned by data fetchers are cancelled, and {@link
+ * ExecutionTimeoutInstrumentation} stops resolving any further fields.
+ *
+ * <p>The cancellation of an execution is stored in its {@link GraphQLContext} when the execution
+ * input is created, so it can be cancelled by application code as well as by the timeout. The
+ * servlet cancels it when writing an incremental response fails, and subscriptions when their
+ * operation stops. A single JSON response is only written once its execution completes, so a client
+ * which goes away before then is not noticed and the execution runs until it completes or times
+ * out.
+ */
+public final class ExecutionCancellation {
+
+  private final AtomicReference<String> reason = new AtomicReference<>();
+  private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Return the cancellation of an execution, creating it if necessary.
+   *
+   * @param context GraphQL context of the execution
+   * @return the cancellation
+   */
+  public static ExecutionCancellation from(GraphQLContext context) {
+    // GraphQLContext has no atomic computeIfAbsent, so check and create under its monitor
+    synchronized (context) {
+      final Optional<ExecutionCancellation> existing =
+          context.getOrEmpty(ExecutionCancellation.class);
+      if (existing.isPresent()) {
+        return existing.get();
+      }
+      final ExecutionCancellation cancellation = new ExecutionCancellation();
+      context.put(ExecutionCancellation.class, cancellation);
+      return cancellation;
+    }
+  }
+
+  /**
+   * Cancel the execution.
+   *
+   * @param message Reason for the cancellation, which is returned to the client as an error
+   * @return true if the execution was cancelled by this call
+   */
+  public boolean cancel(String message) {
+    if (!reason.compareAndSet(null, message)) {
+      return false;
+    }
+    for (CompletableFuture<?> future : pending) {
+      future.cancel(true);
+    }
+    pending.clear();
+    return true;
+  }
+
+  public boolean isCancelled() {
+    return reason.get() != null;
+  }
+
+  public Optional<String> getReason() {
+    return Optional.ofNullable(reason.get());
+  }
+
+  /**
+   * Track a pending future so it is cancelled along with the execution.
+   *
+   * @param future Future returned by a data fetcher
+   */
+  void track(CompletableFuture<?> future) {
+    if (future.isDone()) {
+      return;
+    }
+    pending.add(future);
+    future.whenComplete((value, error) -> pending.remove(future));
+    // the execution may have been cancelled while the future was being added
+    if (isCancelled()) {
+      future.cancel(true);
+    }
+  }
+}
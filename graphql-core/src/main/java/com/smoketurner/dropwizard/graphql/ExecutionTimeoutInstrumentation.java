@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import graphql.ErrorType;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLTypeUtil;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Instrumentation which cancels an execution once it runs longer than its timeout, or when its
+ * {@link ExecutionCancellation} is cancelled. Pending asynchronous data fetchers are cancelled,
+ * fields which have not started resolving yet are skipped, and the partial result is returned with
+ * an error describing why the execution was cancelled.
+ *
+ * <p>Cancelled fields resolve to null. A cancelled non-null field therefore nulls its parent, as
+ * required by the GraphQL specification, up to the nearest nullable field, or up to {@code data}
+ * itself when every field on the way is non-null. Cancelled non-null fields always carry the
+ * cancellation error, so the null is never reported only as a non-null violation.
+ *
+ * <p>Synchronous data fetchers which are already running are not interrupted.
+ */
+public class ExecutionTimeoutInstrumentation extends SimplePerformantInstrumentation {
+
+  private final class State implements InstrumentationState {
+    private final ExecutionCancellation cancellation;
+    private final long startNanos = System.nanoTime();
+    private final AtomicBoolean reported = new AtomicBoolean();
+    @Nullable private ScheduledFuture<?> timer;
+
+    private State(ExecutionCancellation cancellation) {
+      this.cancellation = cancellation;
+    }
+
+    private synchronized void schedule(long timeoutNanos) {
+      if (timer != null) {
+        timer.cancel(false);
+      }
+      final long remaining = timeoutNanos - (System.nanoTime() - startNanos);
+      final String message =
+          String.format(
+              "Execution timed out after %dms", TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+      timer =
+          scheduler.schedule(
+              () -> {
+                if (cancellation.cancel(message)) {
+                  timeouts.mark();
+                }
+              },
+              Math.max(0, remaining),
+              TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void stop() {
+      if (timer != null) {
+        timer.cancel(false);
+        timer = null;
+      }
+    }
+  }
+
+  private final ScheduledExecutorService scheduler;
+  private final long defaultTimeoutNanos;
+  private final Map<String, Long> operationTimeoutNanos;
+  private final Meter timeouts;
+  private final Meter cancellations;
+
+  /**
+   * Constructor
+   *
+   * @param scheduler Scheduler used to fire the timeouts
+   * @param defaultTimeoutNanos Timeout of operations which don't have their own timeout, or zero
+   *     for no timeout
+   * @param operationTimeoutNanos Timeouts keyed by operation name
+   * @param registry Metric registry
+   */
+  public ExecutionTimeoutInstrumentation(
+      ScheduledExecutorService scheduler,
+      long defaultTimeoutNanos,
+      Map<String, Long> operationTimeoutNanos,
+      MetricRegistry registry) {
+    this.scheduler = Objects.requireNonNull(scheduler);
+    this.defaultTimeoutNanos = defaultTimeoutNanos;
+    this.operationTimeoutNanos = ImmutableMap.copyOf(operationTimeoutNanos);
+
+    timeouts =
+        registry.meter(MetricRegistry.name(ExecutionTimeoutInstrumentation.class, "timeouts"));
+    cancellations =
+        registry.meter(
+            MetricRegistry.name(ExecutionTimeoutInstrumentation.class, "cancelled-fetchers"));
+  }
+
+  @Override
+  public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+    final ExecutionInput input = parameters.getExecutionInput();
+    final State state = new State(ExecutionCancellation.from(input.getGraphQLContext()));
+
+    // the operation name may not be known until the document is parsed
+    final long timeout = getTimeout(input.getOperationName());
+    if (timeout > 0) {
+      state.schedule(timeout);
+    }
+    return state;
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters, InstrumentationState state) {
+    if (state instanceof State && parameters.getExecutionContext().getExecutionInput() != null) {
+      final String requested =
+          parameters.getExecutionContext().getExecutionInput().getOperationName();
+      final String name = parameters.getExecutionContext().getOperationDefinition().getName();
+      if (requested == null && name != null && operationTimeoutNanos.containsKey(name)) {
+        ((State) state).schedule(operationTimeoutNanos.get(name));
+      }
+    }
+    return SimpleInstrumentationContext.noOp();
+  }
+
+  @Override
+  public DataFetcher<?> instrumentDataFetcher(
+      DataFetcher<?> dataFetcher,
+      InstrumentationFieldFetchParameters parameters,
+      InstrumentationState state) {
+    // property fetchers are cheap, so skipping them wouldn't save any work
+    if (!(state instanceof State) || parameters.isTrivialDataFetcher()) {
+      return dataFetcher;
+    }
+    final State timeoutState = (State) state;
+    final ExecutionCancellation cancellation = timeoutState.cancellation;
+
+    return environment -> {
+      if (cancellation.isCancelled()) {
+        return cancelled(timeoutState, environment);
+      }
+
+      final Object value = dataFetcher.get(environment);
+      if (!(value instanceof CompletableFuture)) {
+        return value;
+      }
+
+      final CompletableFuture<?> future = (CompletableFuture<?>) value;
+      cancellation.track(future);
+      return future.handle(
+          (result, error) -> {
+            if (error == null) {
+              return result;
+            }
+            if (cancellation.isCancelled()) {
+              cancellations.mark();
+              return cancelled(timeoutState, environment);
+            }
+            throw error instanceof CompletionException
+                ? (CompletionException) error
+                : new CompletionException(error);
+          });
+    };
+  }
+
+  @Override
+  public CompletableFuture<ExecutionResult> instrumentExecutionResult(
+      ExecutionResult executionResult,
+      InstrumentationExecutionParameters parameters,
+      InstrumentationState state) {
+    if (state instanceof State) {
+      ((State) state).stop();
+    }
+    return CompletableFuture.completedFuture(executionResult);
+  }
+
+  private long getTimeout(@Nullable String operationName) {
+    if (operationName == null) {
+      return defaultTimeoutNanos;
+    }
+    return operationTimeoutNanos.getOrDefault(operationName, defaultTimeoutNanos);
+  }
+
+  /**
+   * Result of a field which was cancelled. Only the first cancelled nullable field reports an
+   * error, so a large result doesn't produce an error for every unresolved field. Non-null fields
+   * always report it, as their null propagates to their parent.
+   */
+  private static DataFetcherResult<Object> cancelled(
+      State state, DataFetchingEnvironment environment) {
+    final DataFetcherResult.Builder<Object> result = DataFetcherResult.newResult();
+    final boolean first = state.reported.compareAndSet(false, true);
+    if (first || GraphQLTypeUtil.isNonNull(environment.getFieldType())) {
+      result.error(
+          GraphqlErrorBuilder.newError(environment)
+              .message(state.cancellation.getReason().orElse("Execution was cancelled"))
+              .errorType(ErrorType.ExecutionAborted)
+              .build());
+    }
+    return result.build();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.language.OperationDefinition;
+import graphql.schema.DataFetcher;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Instrumentation which runs non-trivial {@link DataFetcher}s on a separate {@link Executor} so
+ * blocking fetchers do not hold the Jetty request thread while they wait on I/O.
+ */
+public class ExecutorDataFetcherInstrumentation extends SimplePerformantInstrumentation {
+
+  private final Executor executor;
+  private final Set<OperationDefinition.Operation> operations;
+
+  /**
+   * Constructor
+   *
+   * @param executor Executor to run data fetchers on
+   * @param operations Operation types whose data fetchers should be offloaded
+   */
+  public ExecutorDataFetcherInstrumentation(
+      Executor executor, Set<OperationDefinition.Operation> operations) {
+    this.executor = Objects.requireNonNull(executor);
+    this.operations =
+        operations.isEmpty()
+            ? EnumSet.noneOf(OperationDefinition.Operation.class)
+            : EnumSet.copyOf(operations);
+  }
+
+  @Override
+  public DataFetcher<?> instrumentDataFetcher(
+      DataFetcher<?> dataFetcher,
+      InstrumentationFieldFetchParameters parameters,
+      InstrumentationState state) {
+
+    // property fetchers are cheap, so don't pay for a thread hand-off
+    if (parameters.isTrivialDataFetcher()) {
+      return dataFetcher;
+    }
+
+    final OperationDefinition operation = parameters.getEnvironment().getOperationDefinition();
+    if (operation == null || !operations.contains(operation.getOperation())) {
+      return dataFetcher;
+    }
+
+    return environment ->
+        CompletableFuture.supplyAsync(
+                () -> {
+                  try {
+                    return dataFetcher.get(environment);
+                  } catch (RuntimeException e) {
+                    throw e;
+                  } catch (Exception e) {
+                    throw new CompletionException(e);
+                  }
+                },
+                executor)
+            .thenCompose(ExecutorDataFetcherInstrumentation::flatten);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static CompletionStage<Object> flatten(Object value) {
+    if (value instanceof CompletionStage) {
+      return (CompletionStage<Object>) value;
+    }
+    return CompletableFuture.completedFuture(value);
+  }
+}
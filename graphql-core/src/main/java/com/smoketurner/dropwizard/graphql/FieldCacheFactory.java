@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import graphql.language.Argument;
+import graphql.language.Directive;
+import graphql.language.EnumValue;
+import graphql.language.FieldDefinition;
+import graphql.language.IntValue;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.idl.SchemaDirectiveWiring;
+import graphql.schema.idl.SchemaDirectiveWiringEnvironment;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * Configuration for memoizing the values of fields declared with the {@code @cached(ttl: Int!,
+ * scope: CacheScope)} directive.
+ */
+public class FieldCacheFactory {
+
+  private boolean enabled = true;
+
+  @Min(1)
+  private long maximumSize = 10_000;
+
+  @NotEmpty private String userHeader = "Authorization";
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Maximum number of values memoized for each field. The least recently used values are evicted
+   * first.
+   *
+   * @return the maximum number of values per field
+   */
+  @JsonProperty
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  @JsonProperty
+  public void setMaximumSize(long size) {
+    maximumSize = size;
+  }
+
+  /**
+   * Request header identifying the user of a request without an authenticated principal, for fields
+   * memoized with the {@code USER} scope. Values are not memoized for requests without either.
+   *
+   * @return the request header
+   */
+  @JsonProperty
+  public String getUserHeader() {
+    return userHeader;
+  }
+
+  @JsonProperty
+  public void setUserHeader(String header) {
+    userHeader = header;
+  }
+
+  /**
+   * Build the directive wiring which wraps the data fetchers of {@code @cached} fields.
+   *
+   * @param registry Metric registry
+   * @return the directive wiring
+   */
+  public SchemaDirectiveWiring build(MetricRegistry registry) {
+    return new Wiring(maximumSize, userHeader, registry);
+  }
+
+  private static final class Wiring implements SchemaDirectiveWiring {
+    private final long maximumSize;
+    private final String userHeader;
+    private final MetricRegistry registry;
+
+    private Wiring(long maximumSize, String userHeader, MetricRegistry registry) {
+      this.maximumSize = maximumSize;
+      this.userHeader = userHeader;
+      this.registry = registry;
+    }
+
+    @Override
+    public GraphQLFieldDefinition onField(
+        SchemaDirectiveWiringEnvironment<GraphQLFieldDefinition> environment) {
+      final GraphQLFieldDefinition field = environment.getElement();
+      final FieldDefinition definition = field.getDefinition();
+      if (definition == null) {
+        return field;
+      }
+      final List<Directive> directives = definition.getDirectives(BuiltInDirectives.CACHED);
+      if (directives.isEmpty()) {
+        return field;
+      }
+
+      final String coordinates = environment.getFieldsContainer().getName() + "." + field.getName();
+      final Directive cached = directives.get(0);
+      final Argument ttl = cached.getArgument("ttl");
+      if (ttl == null
+          || !(ttl.getValue() instanceof IntValue)
+          || ((IntValue) ttl.getValue()).getValue().signum() < 0) {
+        throw new IllegalArgumentException(
+            "@cached ttl of " + coordinates + " must be zero or more seconds");
+      }
+      final Argument scope = cached.getArgument("scope");
+      final CachedDataFetcher.Scope cacheScope =
+          scope != null && scope.getValue() instanceof EnumValue
+              ? CachedDataFetcher.Scope.valueOf(((EnumValue) scope.getValue()).getName())
+              : CachedDataFetcher.Scope.GLOBAL;
+
+      environment.setFieldDataFetcher(
+          new CachedDataFetcher(
+              environment.getFieldDataFetcher(),
+              coordinates,
+              ((IntValue) ttl.getValue()).getValue().intValueExact(),
+              cacheScope,
+              maximumSize,
+              userHeader,
+              registry));
+      return field;
+    }
+  }
+}
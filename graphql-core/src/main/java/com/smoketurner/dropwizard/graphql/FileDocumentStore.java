@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * {@link DocumentStore} which keeps each document in its own file, under a directory per schema
+ * version. Nodes share documents when the directory is on a shared file system.
+ *
+ * <p>Schema versions and keys must be SHA-256 hashes, so they can never name a path outside of the
+ * directory.
+ *
+ * <p>New documents are no longer stored for a schema version once its directory holds the maximum
+ * number of documents. Each node counts the documents written since it last listed the directory,
+ * and lists it again when that count reaches the maximum, so documents written concurrently by
+ * other nodes may exceed it slightly.
+ */
+public class FileDocumentStore implements DocumentStore {
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final long maximumSize;
+  private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param directory Directory the documents are stored in
+   * @param maximumSize Maximum number of documents stored for each schema version
+   */
+  public FileDocumentStore(Path directory, long maximumSize) {
+    this.directory = Objects.requireNonNull(directory).toAbsolutePath().normalize();
+    this.maximumSize = maximumSize;
+  }
+
+  @Nullable
+  @Override
+  public byte[] get(String schemaVersion, String key) throws IOException {
+    try {
+      return Files.readAllBytes(resolve(schemaVersion).resolve(check(key)));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String schemaVersion, String key, byte[] document) throws IOException {
+    final Path versionDirectory = Files.createDirectories(resolve(schemaVersion));
+    final Path path = versionDirectory.resolve(check(key));
+    if (!Files.exists(path) && !reserve(schemaVersion, versionDirectory)) {
+      return;
+    }
+    // written to a temporary file first, so readers never see a partial document
+    final Path temp = Files.createTempFile(versionDirectory, key, TEMP_SUFFIX);
+    try {
+      Files.write(temp, document);
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @Override
+  public void invalidate(String schemaVersion) throws IOException {
+    final Path versionDirectory = resolve(schemaVersion);
+    counts.remove(schemaVersion);
+    if (!Files.isDirectory(versionDirectory)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(versionDirectory)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  /**
+   * Reserve room for a new document of a schema version.
+   *
+   * @param schemaVersion Schema version
+   * @param versionDirectory Directory of the schema version
+   * @return true if the document may be stored
+   * @throws IOException if unable to list the directory
+   */
+  private boolean reserve(String schemaVersion, Path versionDirectory) throws IOException {
+    // starts at the maximum, so the directory is listed before the first write
+    final AtomicLong count =
+        counts.computeIfAbsent(schemaVersion, v -> new AtomicLong(maximumSize));
+    final long current = count.get();
+    if (current == Long.MAX_VALUE) {
+      return false;
+    }
+    if (current >= maximumSize) {
+      final long stored;
+      try (Stream<Path> paths = Files.list(versionDirectory)) {
+        stored = paths.filter(p -> !p.getFileName().toString().endsWith(TEMP_SUFFIX)).count();
+      }
+      if (stored >= maximumSize) {
+        count.set(Long.MAX_VALUE);
+        return false;
+      }
+      count.set(stored);
+    }
+    count.incrementAndGet();
+    return true;
+  }
+
+  private Path resolve(String schemaVersion) {
+    final Path versionDirectory = directory.resolve(check(schemaVersion)).normalize();
+    if (!versionDirectory.getParent().equals(directory)) {
+      throw new IllegalArgumentException("Invalid schema version: " + schemaVersion);
+    }
+    return versionDirectory;
+  }
+
+  private static String check(String name) {
+    if (!PersistedQueries.isSha256(name)) {
+      throw new IllegalArgumentException("Not a SHA-256 hash: " + name);
+    }
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return directory.toString();
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import graphql.ExecutionInput;
+import graphql.GraphQLException;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.language.NodeUtil;
+import graphql.language.OperationDefinition;
+import graphql.language.OperationDefinition.Operation;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * {@link PreparsedDocumentProvider} which only allows queries to be executed from {@code GET}
+ * requests, since {@code GET} requests may be repeated, prefetched or cached by intermediaries.
+ * Mutations and subscriptions sent with {@code GET} are rejected before they execute, and the
+ * {@link #METHOD_NOT_ALLOWED_ATTRIBUTE} request attribute is set so the servlet can respond with a
+ * {@code 405 Method Not Allowed}.
+ */
+public class GetRequestDocumentProvider implements PreparsedDocumentProvider {
+
+  public static final String METHOD_NOT_ALLOWED_ATTRIBUTE =
+      GetRequestDocumentProvider.class.getName() + ".methodNotAllowed";
+
+  private final PreparsedDocumentProvider delegate;
+
+  /**
+   * Constructor
+   *
+   * @param delegate Provider of the parsed and validated documents
+   */
+  public GetRequestDocumentProvider(PreparsedDocumentProvider delegate) {
+    this.delegate = Objects.requireNonNull(delegate);
+  }
+
+  @Override
+  public PreparsedDocumentEntry getDocument(
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+    final PreparsedDocumentEntry entry =
+        delegate.getDocument(executionInput, parseAndValidateFunction);
+
+    final HttpServletRequest request = getRequest(executionInput);
+    if (request == null) {
+      return entry;
+    }
+    return check(entry, executionInput, request);
+  }
+
+  @Override
+  public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+    final CompletableFuture<PreparsedDocumentEntry> entry =
+        delegate.getDocumentAsync(executionInput, parseAndValidateFunction);
+
+    final HttpServletRequest request = getRequest(executionInput);
+    if (request == null) {
+      return entry;
+    }
+    return entry.thenApply(e -> check(e, executionInput, request));
+  }
+
+  /** Return the HTTP request of an execution if it was sent with {@code GET}. */
+  @Nullable
+  private static HttpServletRequest getRequest(ExecutionInput executionInput) {
+    final HttpServletRequest request =
+        executionInput.getGraphQLContext().get(HttpServletRequest.class);
+    if (request == null || !"GET".equals(request.getMethod())) {
+      return null;
+    }
+    return request;
+  }
+
+  private static PreparsedDocumentEntry check(
+      PreparsedDocumentEntry entry, ExecutionInput executionInput, HttpServletRequest request) {
+    if (entry.hasErrors()) {
+      return entry;
+    }
+
+    final OperationDefinition operation;
+    try {
+      operation =
+          NodeUtil.getOperation(entry.getDocument(), executionInput.getOperationName())
+              .operationDefinition;
+    } catch (GraphQLException e) {
+      // unknown or ambiguous operations are reported when the document is executed
+      return entry;
+    }
+
+    if (operation.getOperation() == Operation.QUERY) {
+      return entry;
+    }
+    request.setAttribute(METHOD_NOT_ALLOWED_ATTRIBUTE, Boolean.TRUE);
+    return new PreparsedDocumentEntry(
+        new GraphQLValidationError(
+            "Only queries may be sent with GET, use POST for mutations and subscriptions"));
+  }
+}
@@ -15,20 +15,31 @@
  */
 package com.smoketurner.dropwizard.graphql;
 
+import com.google.common.base.Suppliers;
+import graphql.GraphQL;
+import graphql.execution.instrumentation.ChainedInstrumentation;
 import graphql.execution.preparsed.PreparsedDocumentProvider;
 import graphql.kickstart.execution.GraphQLQueryInvoker;
 import graphql.kickstart.servlet.GraphQLHttpServlet;
+import graphql.kickstart.servlet.context.DefaultGraphQLServletContextBuilder;
+import graphql.kickstart.servlet.context.GraphQLServletContextBuilder;
 import graphql.schema.GraphQLSchema;
 import io.dropwizard.assets.AssetsBundle;
 import io.dropwizard.core.Configuration;
 import io.dropwizard.core.ConfiguredBundle;
 import io.dropwizard.core.setup.Bootstrap;
 import io.dropwizard.core.setup.Environment;
-import jakarta.servlet.Servlet;
+import jakarta.servlet.http.HttpServlet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 public abstract class GraphQLBundle<C extends Configuration>
     implements ConfiguredBundle<C>, GraphQLConfiguration<C> {
 
+  private static final String SERVLET_NAME = "graphql";
+
   @Override
   public void initialize(Bootstrap<?> bootstrap) {
     bootstrap.addBundle(new AssetsBundle("/assets", "/", "index.htm", "graphql-playground"));
@@ -38,25 +49,188 @@ public abstract class GraphQLBundle<C extends Configuration>
   public void run(final C configuration, final Environment environment) throws Exception {
     final GraphQLFactory factory = getGraphQLFactory(configuration);
 
-    final PreparsedDocumentProvider provider =
-        new CachingPreparsedDocumentProvider(factory.getQueryCache(), environment.metrics());
+    final GraphQLSchema schema = factory.build(environment.metrics());
+    final DocumentCache documentCache = factory.buildDocumentCache(environment.metrics());
+    final SchemaReloadFactory schemaReload = factory.getSchemaReload();
+    // every generation of a reloadable schema keeps its documents under its own keys
+    final DocumentCache initialCache =
+        schemaReload.isEnabled()
+            ? ReloadableSchemaProvider.initialDocumentCache(documentCache)
+            : documentCache;
+    final PreparsedDocumentProvider documentProvider =
+        buildDocumentProvider(factory, environment, schema, initialCache, documentCache, true);
+
+    // shared by every generation of the schema, so its state and metrics survive a reload
+    final ChainedInstrumentation instrumentation = factory.getInstrumentations(schema, environment);
+
+    final DataLoaderRegistryFactory dataLoaders = factory.getDataLoaders();
+    final GraphQLServletContextBuilder contextBuilder =
+        dataLoaders.isEmpty()
+            ? new DefaultGraphQLServletContextBuilder()
+            : dataLoaders.build(environment);
+
+    final GraphQL initial = buildGraphQL(factory, schema, instrumentation, documentProvider);
+    final Supplier<GraphQL> graphQL;
+    final Supplier<DocumentCache> documentCaches;
+    if (schemaReload.isEnabled()) {
+      final ReloadableSchemaProvider reloadable =
+          schemaReload.build(
+              environment,
+              initial,
+              factory.getSchemaFiles(),
+              () -> factory.build(environment.metrics()),
+              (next, cache, previous) ->
+                  buildGraphQL(
+                      factory,
+                      next,
+                      instrumentation,
+                      buildDocumentProvider(
+                          factory, environment, next, cache, previous.getDocumentCache(), false)),
+              documentCache);
+      graphQL = reloadable;
+      documentCaches = () -> reloadable.getGeneration().getDocumentCache();
+    } else {
+      graphQL = Suppliers.ofInstance(initial);
+      documentCaches = Suppliers.ofInstance(documentCache);
+    }
+
+    if (factory.getDocumentStore().isEnabled()) {
+      factory.getDocumentStore().registerTask(environment, graphQL, documentCache);
+    }
+
+    final HttpServlet servlet;
+    if (factory.isStreamingResponses()) {
+      final BatchingFactory batching = factory.getBatching();
+      servlet =
+          new StreamingGraphQLServlet(
+              graphQL,
+              environment.getObjectMapper(),
+              contextBuilder,
+              factory.isEnableIncrementalDelivery(),
+              batching.isEnabled() ? batching.build(environment) : null,
+              factory.isEnablePersistedQueries()
+                  ? hash -> documentCaches.get().contains(hash)
+                  : null,
+              factory.getTrustedDocuments().isEnabled());
+    } else {
+      final GraphQLQueryInvoker queryInvoker =
+          GraphQLQueryInvoker.newBuilder()
+              .withPreparsedDocumentProvider(documentProvider)
+              .withExecutionStrategyProvider(factory.getExecutionStrategyProvider())
+              .withInstrumentation(instrumentation)
+              .build();
+
+      final graphql.kickstart.servlet.GraphQLConfiguration config =
+          graphql.kickstart.servlet.GraphQLConfiguration.with(schema)
+              .with(queryInvoker)
+              .with(contextBuilder)
+              .build();
+
+      servlet = GraphQLHttpServlet.with(config);
+    }
 
-    final GraphQLSchema schema = factory.build();
+    environment.servlets().addServlet(SERVLET_NAME, servlet).addMapping("/graphql", "/schema.json");
 
-    final GraphQLQueryInvoker queryInvoker =
-        GraphQLQueryInvoker.newBuilder()
-            .withPreparsedDocumentProvider(provider)
-            .withInstrumentation(factory.getInstrumentations())
-            .build();
+    // registered first, so it compresses the responses of the caches behind it
+    if (factory.getCompression().isEnabled()) {
+      factory.getCompression().build(environment, SERVLET_NAME);
+    }
 
-    final graphql.kickstart.servlet.GraphQLConfiguration config =
-        graphql.kickstart.servlet.GraphQLConfiguration.with(schema).with(queryInvoker).build();
+    // registered in front of the response cache, which sets the headers of the responses it serves
+    if (factory.getCdnCache().isEnabled()) {
+      factory.getCdnCache().build(environment, SERVLET_NAME);
+    }
 
-    final GraphQLHttpServlet servlet = GraphQLHttpServlet.with(config);
+    if (factory.getResponseCache().isEnabled()) {
+      factory.getResponseCache().build(environment, SERVLET_NAME);
+    }
+
+    // registered after the response cache, so cached responses don't count against the limit
+    if (factory.getConcurrencyLimit().isEnabled()) {
+      factory.getConcurrencyLimit().build(environment, SERVLET_NAME);
+    }
+
+    if (factory.getSubscriptions().isEnabled()) {
+      factory.getSubscriptions().build(environment, graphQL, contextBuilder);
+    }
+  }
+
+  /**
+   * Build the chain of document providers for a schema.
+   *
+   * @param factory GraphQL factory
+   * @param environment Dropwizard environment
+   * @param schema GraphQL schema the documents are validated against
+   * @param documentCache Document cache of the schema
+   * @param snapshotCache Document cache written to the warm-up snapshot on shutdown at startup, or
+   *     the cache of the previous schema, whose operations warm the new one, on reload
+   * @param startup Whether the schema is being loaded at startup, rather than reloaded
+   * @return the document provider
+   * @throws IOException if unable to read the warm-up manifests or trusted documents
+   */
+  private static PreparsedDocumentProvider buildDocumentProvider(
+      GraphQLFactory factory,
+      Environment environment,
+      GraphQLSchema schema,
+      DocumentCache documentCache,
+      DocumentCache snapshotCache,
+      boolean startup)
+      throws IOException {
+    final QueryComplexityAnalyzer analyzer =
+        factory.getQueryComplexityAnalyzer(schema, environment.metrics()).orElse(null);
+    final DocumentStoreFactory documentStore = factory.getDocumentStore();
+    final SharedDocumentCache shared =
+        documentStore.isEnabled()
+            ? documentStore.build(environment, SharedDocumentCache.schemaVersion(schema))
+            : null;
+    final CachingPreparsedDocumentProvider provider =
+        new CachingPreparsedDocumentProvider(
+            documentCache,
+            factory.isEnablePersistedQueries(),
+            factory.isNormalizeQueries(),
+            analyzer,
+            shared,
+            environment.metrics());
+
+    final WarmupFactory warmup = factory.getWarmup();
+    if (warmup.isEnabled() && startup) {
+      // runs before Jetty starts, so the first requests are served from the cache, and the
+      // snapshot is written from the shared cache, which holds the current generation on shutdown
+      warmup.build(
+          environment, schema, provider, snapshotCache, factory.isEnablePersistedQueries());
+    } else if (warmup.isEnabled()) {
+      // runs before the schema is swapped in, with the operations cached against the old schema
+      final List<String> queries = new ArrayList<>();
+      for (CachedDocument document : snapshotCache.snapshot(warmup.getSnapshotLimit())) {
+        queries.add(document.getQuery());
+      }
+      new DocumentWarmer(
+              schema,
+              provider,
+              factory.isEnablePersistedQueries(),
+              environment.getObjectMapper(),
+              environment.metrics())
+          .warm(queries, warmup.getThreads());
+    }
+
+    final TrustedDocumentsFactory trustedDocuments = factory.getTrustedDocuments();
+    return new GetRequestDocumentProvider(
+        trustedDocuments.isEnabled()
+            ? trustedDocuments.build(environment, schema, analyzer, provider)
+            : provider);
+  }
 
-    environment
-        .servlets()
-        .addServlet("graphql", (Servlet) servlet)
-        .addMapping("/graphql", "/schema.json");
+  private static GraphQL buildGraphQL(
+      GraphQLFactory factory,
+      GraphQLSchema schema,
+      ChainedInstrumentation instrumentation,
+      PreparsedDocumentProvider documentProvider) {
+    return GraphQL.newGraphQL(schema)
+        .queryExecutionStrategy(factory.getExecutionStrategy())
+        .mutationExecutionStrategy(factory.getMutationExecutionStrategy())
+        .subscriptionExecutionStrategy(factory.getSubscriptionExecutionStrategy())
+        .instrumentation(instrumentation)
+        .preparsedDocumentProvider(documentProvider)
+        .build();
   }
 }
@@ -15,10 +15,10 @@
  */
 package com.smoketurner.dropwizard.graphql;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.base.MoreObjects;
-import com.google.common.base.Strings;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
 import com.google.common.cache.CacheBuilderSpec;
 import graphql.execution.AsyncExecutionStrategy;
 import graphql.execution.AsyncSerialExecutionStrategy;
@@ -27,48 +27,142 @@ import graphql.execution.SubscriptionExecutionStrategy;
 import graphql.execution.instrumentation.ChainedInstrumentation;
 import graphql.execution.instrumentation.Instrumentation;
 import graphql.execution.instrumentation.tracing.TracingInstrumentation;
+import graphql.kickstart.execution.config.DefaultExecutionStrategyProvider;
+import graphql.kickstart.execution.config.ExecutionStrategyProvider;
+import graphql.language.OperationDefinition;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.RuntimeWiring;
 import graphql.schema.idl.SchemaGenerator;
-import graphql.schema.idl.SchemaParser;
 import graphql.schema.idl.TypeDefinitionRegistry;
 import graphql.schema.idl.errors.SchemaProblem;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.util.Duration;
 import io.dropwizard.validation.OneOf;
+import io.dropwizard.validation.ValidationMethod;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.dataloader.BatchLoader;
+import org.dataloader.MappedBatchLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class GraphQLFactory {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GraphQLFactory.class);
+  private static final String VIRTUAL_THREADS = "virtual_threads";
+  private static final String STREAMING = "streaming";
 
   private List<String> schemaFiles = new ArrayList<>();
 
+  @Nullable private String compiledSchema;
+
   @NotEmpty
-  @OneOf({"async", "async_serial", "subscription"})
+  @OneOf({"async", "async_serial", "subscription", "virtual_threads"})
   private String executionStrategy = "async";
 
-  private boolean enableTracing = true;
+  @NotEmpty
+  @OneOf({"async", "async_serial", "virtual_threads"})
+  private String mutationExecutionStrategy = "async_serial";
+
+  @NotEmpty
+  @OneOf({"async", "async_serial", "subscription"})
+  private String subscriptionExecutionStrategy = "subscription";
+
+  @NotEmpty
+  @OneOf({"buffered", "streaming"})
+  private String responseMode = "buffered";
+
+  private boolean enableIncrementalDelivery = false;
+
+  private boolean enableTracing = false;
+
+  @Valid @NotNull private TracingFactory tracing = new TracingFactory();
+
+  @Valid @NotNull private ResponseCacheFactory responseCache = new ResponseCacheFactory();
+
+  @Valid @NotNull private CdnCacheFactory cdnCache = new CdnCacheFactory();
+
+  @Valid @NotNull private FieldCacheFactory fieldCache = new FieldCacheFactory();
+
+  @Valid @NotNull private CompressionFactory compression = new CompressionFactory();
+
+  @Valid @NotNull private BatchingFactory batching = new BatchingFactory();
+
+  @Valid @NotNull private WarmupFactory warmup = new WarmupFactory();
+
+  @Valid @NotNull private TrustedDocumentsFactory trustedDocuments = new TrustedDocumentsFactory();
+
+  @Valid @NotNull private ConcurrencyLimitFactory concurrencyLimit = new ConcurrencyLimitFactory();
+
+  @Valid @NotNull private SubscriptionsFactory subscriptions = new SubscriptionsFactory();
+
+  @Valid @NotNull private SchemaReloadFactory schemaReload = new SchemaReloadFactory();
+
+  private boolean enablePersistedQueries = false;
+
+  private boolean normalizeQueries = false;
 
-  @NotNull private CacheBuilderSpec queryCache = CacheBuilderSpec.disableCaching();
+  private boolean hoistLiterals = false;
+
+  private boolean enableMetrics = false;
+
+  @Min(1)
+  private int metricsLimit = 1000;
+
+  @Min(1)
+  private int fetcherMaxThreads = 256;
+
+  @Min(1)
+  private int fetcherQueueSize = 1024;
+
+  @Nullable private Duration executionTimeout;
+
+  @NotNull private Map<String, Duration> operationTimeouts = new LinkedHashMap<>();
+
+  @Min(0)
+  private int maxQueryDepth = 0;
+
+  @Min(0)
+  private long maxQueryComplexity = 0;
+
+  @NotNull private CaffeineSpec queryCache = CaffeineSpec.parse("maximumSize=0");
+
+  @Nullable private DocumentCache documentCache;
+
+  @Valid @NotNull private DocumentStoreFactory documentStore = new DocumentStoreFactory();
 
   @NotNull private List<Instrumentation> instrumentations = new ArrayList<>();
 
+  @Valid @NotNull private DataLoaderRegistryFactory dataLoaders = new DataLoaderRegistryFactory();
+
   @NotNull private RuntimeWiring runtimeWiring = RuntimeWiring.newRuntimeWiring().build();
 
   private Optional<GraphQLSchema> graphQLSchema = Optional.empty();
 
+  /**
+   * Schema files, as file paths or classpath resources. Files are read from the file system when
+   * they exist there, so that they can be edited and reloaded without rebuilding the application.
+   *
+   * @return the schema files
+   */
   @JsonProperty
   public List<String> getSchemaFiles() {
     return Collections.unmodifiableList(schemaFiles);
@@ -79,17 +173,26 @@ public class GraphQLFactory {
     schemaFiles = Optional.ofNullable(files).orElseGet(ArrayList::new);
   }
 
+  /**
+   * Schema artifact compiled from the schema files by {@link SchemaCompiler} at build time, as a
+   * file path or classpath resource. The schema files are parsed as usual if the artifact is
+   * missing or was compiled from different schema files.
+   *
+   * @return the compiled schema
+   */
+  @JsonProperty
+  public Optional<String> getCompiledSchema() {
+    return Optional.ofNullable(compiledSchema);
+  }
+
+  @JsonProperty
+  public void setCompiledSchema(@Nullable String location) {
+    compiledSchema = location;
+  }
+
   @JsonProperty
   public ExecutionStrategy getExecutionStrategy() {
-    switch (executionStrategy) {
-      case "async_serial":
-        return new AsyncSerialExecutionStrategy();
-      case "subscription":
-        return new SubscriptionExecutionStrategy();
-      case "async":
-      default:
-        return new AsyncExecutionStrategy();
-    }
+    return buildExecutionStrategy(executionStrategy);
   }
 
   @JsonProperty
@@ -97,6 +200,36 @@ public class GraphQLFactory {
     executionStrategy = strategy;
   }
 
+  @JsonProperty
+  public ExecutionStrategy getMutationExecutionStrategy() {
+    // top-level mutation fields must run one after another, even when their fetchers are offloaded
+    if (VIRTUAL_THREADS.equals(mutationExecutionStrategy)) {
+      return new AsyncSerialExecutionStrategy();
+    }
+    return buildExecutionStrategy(mutationExecutionStrategy);
+  }
+
+  @JsonProperty
+  public void setMutationExecutionStrategy(final String strategy) {
+    mutationExecutionStrategy = strategy;
+  }
+
+  @JsonProperty
+  public ExecutionStrategy getSubscriptionExecutionStrategy() {
+    return buildExecutionStrategy(subscriptionExecutionStrategy);
+  }
+
+  @JsonProperty
+  public void setSubscriptionExecutionStrategy(final String strategy) {
+    subscriptionExecutionStrategy = strategy;
+  }
+
+  @JsonIgnore
+  public ExecutionStrategyProvider getExecutionStrategyProvider() {
+    return new DefaultExecutionStrategyProvider(
+        getExecutionStrategy(), getMutationExecutionStrategy(), getSubscriptionExecutionStrategy());
+  }
+
   @JsonIgnore
   public RuntimeWiring getRuntimeWiring() {
     return runtimeWiring;
@@ -107,6 +240,42 @@ public class GraphQLFactory {
     runtimeWiring = wiring;
   }
 
+  @JsonProperty
+  public String getResponseMode() {
+    return responseMode;
+  }
+
+  @JsonProperty
+  public void setResponseMode(final String mode) {
+    responseMode = mode;
+  }
+
+  /**
+   * Whether results should be serialized directly to the response output stream rather than
+   * rendered into a string first. Incremental delivery, batching and schema reloading are only
+   * supported by the streaming servlet, so they imply streaming responses.
+   *
+   * @return true if the streaming response mode, incremental delivery, batching or schema reloading
+   *     is configured
+   */
+  @JsonIgnore
+  public boolean isStreamingResponses() {
+    return STREAMING.equals(responseMode)
+        || enableIncrementalDelivery
+        || batching.isEnabled()
+        || schemaReload.isEnabled();
+  }
+
+  @JsonProperty
+  public boolean isEnableIncrementalDelivery() {
+    return enableIncrementalDelivery;
+  }
+
+  @JsonProperty
+  public void setEnableIncrementalDelivery(boolean enabled) {
+    enableIncrementalDelivery = enabled;
+  }
+
   @JsonProperty
   public boolean isEnableTracing() {
     return enableTracing;
@@ -115,9 +284,275 @@ public class GraphQLFactory {
   @JsonProperty
   public void setEnableTracing(boolean enabled) {
     enableTracing = enabled;
-    if (enabled) {
-      instrumentations.add(new TracingInstrumentation());
+  }
+
+  @JsonProperty
+  public TracingFactory getTracing() {
+    return tracing;
+  }
+
+  @JsonProperty
+  public void setTracing(TracingFactory factory) {
+    tracing = factory;
+  }
+
+  @JsonProperty
+  public boolean isEnablePersistedQueries() {
+    return enablePersistedQueries;
+  }
+
+  @JsonProperty
+  public void setEnablePersistedQueries(boolean enabled) {
+    enablePersistedQueries = enabled;
+  }
+
+  /**
+   * Persisted queries are looked up in the document cache, so they are never found when the cache
+   * can't hold any documents.
+   *
+   * @return false if persisted queries are enabled with an empty document cache
+   */
+  @JsonIgnore
+  @ValidationMethod(
+      message =
+          "queryCache must allow a non-zero maximumSize or maximumWeight when"
+              + " enablePersistedQueries is set")
+  public boolean isPersistedQueryCacheValid() {
+    if (!enablePersistedQueries || documentCache != null) {
+      return true;
     }
+    final String spec = queryCache.toParsableString();
+    return !spec.contains("maximumSize=0") && !spec.contains("maximumWeight=0");
+  }
+
+  /**
+   * Whether to key the document cache on the normalized query text, ignoring whitespace, commas and
+   * comments.
+   *
+   * @return true if queries are normalized
+   */
+  @JsonProperty
+  public boolean isNormalizeQueries() {
+    return normalizeQueries;
+  }
+
+  @JsonProperty
+  public void setNormalizeQueries(boolean enabled) {
+    normalizeQueries = enabled;
+  }
+
+  /**
+   * Whether to rewrite literal scalar and enum field arguments into variables before the document
+   * cache is consulted.
+   *
+   * @return true if literals are hoisted into variables
+   */
+  @JsonProperty
+  public boolean isHoistLiterals() {
+    return hoistLiterals;
+  }
+
+  @JsonProperty
+  public void setHoistLiterals(boolean enabled) {
+    hoistLiterals = enabled;
+  }
+
+  @JsonProperty
+  public ResponseCacheFactory getResponseCache() {
+    return responseCache;
+  }
+
+  @JsonProperty
+  public void setResponseCache(ResponseCacheFactory factory) {
+    responseCache = factory;
+  }
+
+  @JsonProperty
+  public CdnCacheFactory getCdnCache() {
+    return cdnCache;
+  }
+
+  @JsonProperty
+  public void setCdnCache(CdnCacheFactory factory) {
+    cdnCache = factory;
+  }
+
+  @JsonProperty
+  public FieldCacheFactory getFieldCache() {
+    return fieldCache;
+  }
+
+  @JsonProperty
+  public void setFieldCache(FieldCacheFactory factory) {
+    fieldCache = factory;
+  }
+
+  @JsonProperty
+  public BatchingFactory getBatching() {
+    return batching;
+  }
+
+  @JsonProperty
+  public void setBatching(BatchingFactory factory) {
+    batching = factory;
+  }
+
+  @JsonProperty
+  public WarmupFactory getWarmup() {
+    return warmup;
+  }
+
+  @JsonProperty
+  public void setWarmup(WarmupFactory factory) {
+    warmup = factory;
+  }
+
+  @JsonProperty
+  public TrustedDocumentsFactory getTrustedDocuments() {
+    return trustedDocuments;
+  }
+
+  @JsonProperty
+  public void setTrustedDocuments(TrustedDocumentsFactory factory) {
+    trustedDocuments = factory;
+  }
+
+  @JsonProperty
+  public ConcurrencyLimitFactory getConcurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  @JsonProperty
+  public void setConcurrencyLimit(ConcurrencyLimitFactory factory) {
+    concurrencyLimit = factory;
+  }
+
+  @JsonProperty
+  public SubscriptionsFactory getSubscriptions() {
+    return subscriptions;
+  }
+
+  @JsonProperty
+  public void setSubscriptions(SubscriptionsFactory factory) {
+    subscriptions = factory;
+  }
+
+  @JsonProperty
+  public DocumentStoreFactory getDocumentStore() {
+    return documentStore;
+  }
+
+  @JsonProperty
+  public void setDocumentStore(DocumentStoreFactory factory) {
+    documentStore = factory;
+  }
+
+  @JsonProperty
+  public CompressionFactory getCompression() {
+    return compression;
+  }
+
+  @JsonProperty
+  public void setCompression(CompressionFactory factory) {
+    compression = factory;
+  }
+
+  @JsonProperty
+  public SchemaReloadFactory getSchemaReload() {
+    return schemaReload;
+  }
+
+  @JsonProperty
+  public void setSchemaReload(SchemaReloadFactory factory) {
+    schemaReload = factory;
+  }
+
+  @JsonProperty
+  public boolean isEnableMetrics() {
+    return enableMetrics;
+  }
+
+  @JsonProperty
+  public void setEnableMetrics(boolean enabled) {
+    enableMetrics = enabled;
+  }
+
+  /**
+   * Maximum time an execution may run before its pending data fetchers are cancelled and a partial
+   * result is returned with a timeout error.
+   *
+   * @return the execution timeout
+   */
+  @JsonProperty
+  public Optional<Duration> getExecutionTimeout() {
+    return Optional.ofNullable(executionTimeout);
+  }
+
+  @JsonProperty
+  public void setExecutionTimeout(@Nullable Duration timeout) {
+    executionTimeout = timeout;
+  }
+
+  /**
+   * Execution timeouts keyed by operation name, which override the {@code executionTimeout}.
+   *
+   * @return the operation timeouts
+   */
+  @JsonProperty
+  public Map<String, Duration> getOperationTimeouts() {
+    return operationTimeouts;
+  }
+
+  @JsonProperty
+  public void setOperationTimeouts(Map<String, Duration> timeouts) {
+    operationTimeouts = timeouts;
+  }
+
+  /**
+   * Maximum number of per-operation and per-field timers created by the metrics instrumentation.
+   *
+   * @return the metrics limit
+   */
+  @JsonProperty
+  public int getMetricsLimit() {
+    return metricsLimit;
+  }
+
+  @JsonProperty
+  public void setMetricsLimit(int limit) {
+    metricsLimit = limit;
+  }
+
+  /**
+   * Maximum number of threads running data fetchers for the {@code virtual_threads} strategy on
+   * Java versions without virtual threads.
+   *
+   * @return the maximum number of fetcher threads
+   */
+  @JsonProperty
+  public int getFetcherMaxThreads() {
+    return fetcherMaxThreads;
+  }
+
+  @JsonProperty
+  public void setFetcherMaxThreads(int threads) {
+    fetcherMaxThreads = threads;
+  }
+
+  /**
+   * Number of data fetchers which may wait for a thread on Java versions without virtual threads.
+   * Fetchers beyond this fail with an error instead of starting more threads.
+   *
+   * @return the fetcher queue size
+   */
+  @JsonProperty
+  public int getFetcherQueueSize() {
+    return fetcherQueueSize;
+  }
+
+  @JsonProperty
+  public void setFetcherQueueSize(int size) {
+    fetcherQueueSize = size;
   }
 
   @JsonIgnore
@@ -130,19 +565,116 @@ public class GraphQLFactory {
     this.graphQLSchema = Optional.ofNullable(graphQLSchema);
   }
 
+  /**
+   * Specification of the document cache, in the {@link CaffeineSpec} format. When {@code
+   * maximumWeight} is set, documents are weighed by the length of their query text. The Guava
+   * {@code concurrencyLevel} key is ignored, and keys the cache can't support are rejected.
+   *
+   * @return the document cache specification
+   */
+  @JsonIgnore
+  public CaffeineSpec getDocumentCacheSpec() {
+    return queryCache;
+  }
+
+  /**
+   * Specification of the document cache, in the Guava format it used to be configured with.
+   *
+   * @return the document cache specification
+   * @deprecated the document cache is built with Caffeine, use {@link #getDocumentCacheSpec()}
+   */
+  @Deprecated
   @JsonProperty
   public CacheBuilderSpec getQueryCache() {
-    return queryCache;
+    return CacheBuilderSpec.parse(queryCache.toParsableString());
   }
 
   @JsonProperty
   public void setQueryCache(String queryCache) {
-    this.queryCache = CacheBuilderSpec.parse(queryCache);
+    this.queryCache = CaffeineDocumentCache.parseSpec(queryCache);
+  }
+
+  /**
+   * Use a custom document cache instead of a {@link CaffeineDocumentCache} built from {@link
+   * #getDocumentCacheSpec()}.
+   *
+   * @param cache Document cache
+   */
+  @JsonIgnore
+  public void setDocumentCache(@Nullable DocumentCache cache) {
+    documentCache = cache;
+  }
+
+  /**
+   * Return the custom document cache, or build one from {@link #getDocumentCacheSpec()}.
+   *
+   * @param registry Metric registry
+   * @return the document cache
+   */
+  @JsonIgnore
+  public DocumentCache buildDocumentCache(MetricRegistry registry) {
+    if (documentCache != null) {
+      return documentCache;
+    }
+    return new CaffeineDocumentCache(queryCache, registry);
+  }
+
+  /**
+   * Maximum depth of a query, or 0 for no limit.
+   *
+   * @return the maximum query depth
+   */
+  @JsonProperty
+  public int getMaxQueryDepth() {
+    return maxQueryDepth;
+  }
+
+  @JsonProperty
+  public void setMaxQueryDepth(int depth) {
+    maxQueryDepth = depth;
+  }
+
+  /**
+   * Maximum complexity of a query, as computed from the {@code @cost} directives in the schema, or
+   * 0 for no limit.
+   *
+   * @return the maximum query complexity
+   */
+  @JsonProperty
+  public long getMaxQueryComplexity() {
+    return maxQueryComplexity;
+  }
+
+  @JsonProperty
+  public void setMaxQueryComplexity(long complexity) {
+    maxQueryComplexity = complexity;
+  }
+
+  /**
+   * Build an analyzer which enforces the query depth and complexity limits.
+   *
+   * @param schema GraphQL schema
+   * @param registry Metric registry
+   * @return the analyzer, or empty if no limits are configured
+   */
+  @JsonIgnore
+  public Optional<QueryComplexityAnalyzer> getQueryComplexityAnalyzer(
+      GraphQLSchema schema, MetricRegistry registry) {
+    if (maxQueryDepth <= 0 && maxQueryComplexity <= 0) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new QueryComplexityAnalyzer(schema, maxQueryDepth, maxQueryComplexity, registry));
   }
 
   @JsonIgnore
   public ChainedInstrumentation getInstrumentations() {
-    return new ChainedInstrumentation(instrumentations);
+    if (!enableTracing) {
+      return new ChainedInstrumentation(instrumentations);
+    }
+    final List<Instrumentation> chain = new ArrayList<>(instrumentations);
+    chain.add(new TracingInstrumentation());
+    return new ChainedInstrumentation(chain);
   }
 
   @JsonIgnore
@@ -150,44 +682,191 @@ public class GraphQLFactory {
     this.instrumentations = Optional.ofNullable(instrumentations).orElseGet(ArrayList::new);
   }
 
+  @JsonProperty
+  public DataLoaderRegistryFactory getDataLoaders() {
+    return dataLoaders;
+  }
+
+  @JsonProperty
+  public void setDataLoaders(DataLoaderRegistryFactory factory) {
+    dataLoaders = factory;
+  }
+
+  /**
+   * Register a named {@link BatchLoader} which is instantiated for every request.
+   *
+   * @param name Data loader name
+   * @param supplier Supplier of batch loaders
+   */
+  @JsonIgnore
+  public <K, V> void registerBatchLoader(
+      String name, Supplier<? extends BatchLoader<K, V>> supplier) {
+    dataLoaders.registerBatchLoader(name, supplier);
+  }
+
+  /**
+   * Register a named {@link MappedBatchLoader} which is instantiated for every request.
+   *
+   * @param name Data loader name
+   * @param supplier Supplier of mapped batch loaders
+   */
+  @JsonIgnore
+  public <K, V> void registerMappedBatchLoader(
+      String name, Supplier<? extends MappedBatchLoader<K, V>> supplier) {
+    dataLoaders.registerMappedBatchLoader(name, supplier);
+  }
+
+  /**
+   * Return the configured instrumentations along with any instrumentations that require resources
+   * from the schema or the Dropwizard environment.
+   *
+   * @param schema GraphQL schema
+   * @param environment Dropwizard environment
+   * @return the chained instrumentations
+   */
+  @JsonIgnore
+  public ChainedInstrumentation getInstrumentations(GraphQLSchema schema, Environment environment) {
+    final List<Instrumentation> chain = new ArrayList<>();
+    // trusted documents are never parsed at runtime, so there is nothing to gain from hoisting
+    if (hoistLiterals && (!trustedDocuments.isEnabled() || trustedDocuments.isAllowUntrusted())) {
+      // must rewrite the execution input before any other instrumentation sees it
+      chain.add(new LiteralHoistingInstrumentation());
+    }
+
+    final Set<OperationDefinition.Operation> offloaded =
+        EnumSet.noneOf(OperationDefinition.Operation.class);
+    if (VIRTUAL_THREADS.equals(executionStrategy)) {
+      offloaded.add(OperationDefinition.Operation.QUERY);
+    }
+    if (VIRTUAL_THREADS.equals(mutationExecutionStrategy)) {
+      offloaded.add(OperationDefinition.Operation.MUTATION);
+    }
+    if (!offloaded.isEmpty()) {
+      final ExecutorService executor = buildFetcherExecutor(environment);
+      chain.add(new ExecutorDataFetcherInstrumentation(executor, offloaded));
+    }
+
+    // wraps the offloaded data fetchers, so it can cancel the futures they return
+    if (executionTimeout != null || !operationTimeouts.isEmpty()) {
+      chain.add(buildTimeoutInstrumentation(environment));
+    }
+
+    if (enableMetrics) {
+      chain.add(new MetricsInstrumentation(environment.metrics(), metricsLimit));
+    }
+    if (enableTracing) {
+      chain.add(tracing.build(environment));
+    }
+    // the CDN cache uses the max age computed for the response cache
+    if (responseCache.isEnabled() || cdnCache.isEnabled()) {
+      chain.add(responseCache.buildInstrumentation(schema));
+    }
+
+    if (fieldCache.isEnabled()) {
+      chain.add(new CachedDataFetcher.RequestScopeInstrumentation());
+    }
+
+    chain.addAll(instrumentations);
+    return new ChainedInstrumentation(chain);
+  }
+
+  /**
+   * Build the schema without reporting the metrics of {@code @cached} fields.
+   *
+   * @return the schema
+   * @throws SchemaProblem if the schema is invalid
+   */
   public GraphQLSchema build() throws SchemaProblem {
+    return build(new MetricRegistry());
+  }
+
+  /**
+   * Build the schema, wrapping the data fetchers of {@code @cached} fields.
+   *
+   * @param metrics Metric registry for the hits and misses of {@code @cached} fields
+   * @return the schema
+   * @throws SchemaProblem if the schema is invalid
+   */
+  public GraphQLSchema build(MetricRegistry metrics) throws SchemaProblem {
     if (graphQLSchema.isPresent()) {
       return graphQLSchema.get();
     }
 
-    final SchemaParser parser = new SchemaParser();
     final TypeDefinitionRegistry registry = new TypeDefinitionRegistry();
 
     if (!schemaFiles.isEmpty()) {
-      schemaFiles.stream()
-          .filter(f -> !Strings.isNullOrEmpty(f))
-          .map(f -> getResourceAsReader(f))
-          .map(r -> parser.parse(r))
-          .forEach(p -> registry.merge(p));
+      final List<String> sources = SchemaCompiler.read(schemaFiles);
+      final Optional<TypeDefinitionRegistry> compiled =
+          compiledSchema == null ? Optional.empty() : SchemaCompiler.load(compiledSchema, sources);
+      registry.merge(compiled.orElseGet(() -> SchemaCompiler.parse(sources)));
     }
 
+    BuiltInDirectives.register(registry);
+
     final SchemaGenerator generator = new SchemaGenerator();
-    final GraphQLSchema schema = generator.makeExecutableSchema(registry, runtimeWiring);
+    final RuntimeWiring wiring =
+        fieldCache.isEnabled()
+            ? RuntimeWiring.newRuntimeWiring(runtimeWiring)
+                .directive(BuiltInDirectives.CACHED, fieldCache.build(metrics))
+                .build()
+            : runtimeWiring;
+    final GraphQLSchema schema = generator.makeExecutableSchema(registry, wiring);
     return schema;
   }
 
+  private static ExecutionStrategy buildExecutionStrategy(final String strategy) {
+    switch (strategy) {
+      case "async_serial":
+        return new AsyncSerialExecutionStrategy();
+      case "subscription":
+        return new SubscriptionExecutionStrategy();
+      case VIRTUAL_THREADS:
+        // data fetchers are dispatched onto virtual threads by ExecutorDataFetcherInstrumentation
+      case "async":
+      default:
+        return new AsyncExecutionStrategy();
+    }
+  }
+
+  private ExecutionTimeoutInstrumentation buildTimeoutInstrumentation(
+      final Environment environment) {
+    final ScheduledExecutorService scheduler =
+        environment.lifecycle().scheduledExecutorService("graphql-timeout-%d", true).build();
+    final Map<String, Long> timeouts = new LinkedHashMap<>();
+    operationTimeouts.forEach((name, timeout) -> timeouts.put(name, timeout.toNanoseconds()));
+    return new ExecutionTimeoutInstrumentation(
+        scheduler,
+        executionTimeout == null ? 0 : executionTimeout.toNanoseconds(),
+        timeouts,
+        environment.metrics());
+  }
+
   /**
-   * Return a resource file name as a BufferedReader
+   * Build a virtual-thread-per-task executor for running blocking data fetchers. Virtual threads
+   * are only available on Java 21+, so fall back to a bounded thread pool on older runtimes.
    *
-   * @param name Resource file name
-   * @return BufferedReader for the file
+   * @param environment Dropwizard environment
+   * @return the executor
    */
-  private static BufferedReader getResourceAsReader(final String name) {
-    LOGGER.info("Loading GraphQL schema file: {}", name);
-
-    final ClassLoader loader =
-        MoreObjects.firstNonNull(
-            Thread.currentThread().getContextClassLoader(), GraphQLFactory.class.getClassLoader());
-
-    final InputStream in = loader.getResourceAsStream(name);
-
-    Objects.requireNonNull(in, String.format("resource not found: %s", name));
-
-    return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+  private ExecutorService buildFetcherExecutor(final Environment environment) {
+    try {
+      final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      final ExecutorService executor = (ExecutorService) method.invoke(null);
+      environment
+          .lifecycle()
+          .manage(new ExecutorServiceManager(executor, Duration.seconds(5), "graphql-fetcher"));
+      LOGGER.info("Running GraphQL data fetchers on virtual threads");
+      return executor;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOGGER.warn("Virtual threads are not available, running GraphQL data fetchers on threads");
+      return environment
+          .lifecycle()
+          .executorService("graphql-fetcher-%d")
+          .minThreads(fetcherMaxThreads)
+          .maxThreads(fetcherMaxThreads)
+          .allowCoreThreadTimeOut(true)
+          .workQueue(new ArrayBlockingQueue<>(fetcherQueueSize))
+          .build();
+    }
   }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * {@link DocumentStore} which keeps documents in memory. Only shared by the nodes in a single JVM,
+ * so it is mainly useful in tests and as a reference for remote stores. The least recently used
+ * documents are evicted once it holds its maximum number of documents.
+ */
+public class InMemoryDocumentStore implements DocumentStore {
+
+  private final Cache<String, byte[]> documents;
+
+  /**
+   * Constructor
+   *
+   * @param maximumSize Maximum number of documents across every schema version
+   */
+  public InMemoryDocumentStore(long maximumSize) {
+    documents = Caffeine.newBuilder().maximumSize(maximumSize).build();
+  }
+
+  @Nullable
+  @Override
+  public byte[] get(String schemaVersion, String key) {
+    return documents.getIfPresent(schemaVersion + '/' + key);
+  }
+
+  @Override
+  public void put(String schemaVersion, String key, byte[] document) {
+    documents.put(schemaVersion + '/' + key, document);
+  }
+
+  @Override
+  public void invalidate(String schemaVersion) {
+    final String prefix = schemaVersion + '/';
+    documents.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  /**
+   * Return the number of stored documents.
+   *
+   * @return the approximate number of documents across every schema version
+   */
+  public long size() {
+    return documents.estimatedSize();
+  }
+}
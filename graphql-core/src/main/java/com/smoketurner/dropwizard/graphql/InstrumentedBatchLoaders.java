@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import org.dataloader.BatchLoader;
+import org.dataloader.MappedBatchLoader;
+
+/** Wraps {@link BatchLoader}s and {@link MappedBatchLoader}s to report Dropwizard metrics. */
+final class InstrumentedBatchLoaders {
+
+  /** Metrics shared by every per-request instance of a named data loader. */
+  static final class Metrics {
+    private final Histogram batchSize;
+    private final Timer latency;
+    private final Meter cacheHits;
+
+    Metrics(MetricRegistry registry, String name) {
+      final String prefix = MetricRegistry.name(DataLoaderRegistryFactory.class, name);
+      batchSize = registry.histogram(MetricRegistry.name(prefix, "batch-size"));
+      latency = registry.timer(MetricRegistry.name(prefix, "load-latency"));
+      cacheHits = registry.meter(MetricRegistry.name(prefix, "cache-hits"));
+    }
+
+    void markCacheHits(long count) {
+      if (count > 0) {
+        cacheHits.mark(count);
+      }
+    }
+  }
+
+  private InstrumentedBatchLoaders() {}
+
+  static <K, V> BatchLoader<K, V> instrument(BatchLoader<K, V> loader, Metrics metrics) {
+    return keys -> {
+      metrics.batchSize.update(keys.size());
+      final Timer.Context context = metrics.latency.time();
+      final CompletionStage<List<V>> result = loader.load(keys);
+      return result.whenComplete((values, error) -> context.stop());
+    };
+  }
+
+  static <K, V> MappedBatchLoader<K, V> instrument(
+      MappedBatchLoader<K, V> loader, Metrics metrics) {
+    return (Set<K> keys) -> {
+      metrics.batchSize.update(keys.size());
+      final Timer.Context context = metrics.latency.time();
+      final CompletionStage<Map<K, V>> result = loader.load(keys);
+      return result.whenComplete((values, error) -> context.stop());
+    };
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import graphql.ExceptionWhileDataFetching;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serializes {@link ExecutionResult}s directly to an {@link OutputStream} with a Jackson {@link
+ * JsonGenerator}, without first rendering the result into a {@code String} or {@code byte[]}.
+ * Generator buffers come from a shared lock-free pool rather than thread-locals, so they are reused
+ * even when requests run on short-lived virtual threads.
+ *
+ * <p>Output is deterministic, so equal results are always written as the same bytes and can be
+ * compared or cached by their hash.
+ */
+public class JsonResultWriter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(JsonResultWriter.class);
+  static final String INTERNAL_ERROR = "Internal Server Error(s) while executing query";
+
+  private final ObjectMapper mapper;
+  private final JsonFactory factory;
+
+  /**
+   * Constructor
+   *
+   * @param mapper Object mapper used to serialize custom scalar values
+   */
+  public JsonResultWriter(ObjectMapper mapper) {
+    this.mapper = Objects.requireNonNull(mapper);
+    this.factory =
+        mapper
+            .getFactory()
+            .rebuild()
+            .recyclerPool(JsonRecyclerPools.sharedLockFreePool())
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+  }
+
+  /**
+   * Create a generator writing UTF-8 JSON to an output stream. The output stream is not closed when
+   * the generator is closed.
+   *
+   * @param out Output stream
+   * @return the generator
+   * @throws IOException if unable to create the generator
+   */
+  public JsonGenerator createGenerator(OutputStream out) throws IOException {
+    final JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
+    generator.setCodec(mapper);
+    return generator;
+  }
+
+  /**
+   * Write a single result to an output stream.
+   *
+   * @param out Output stream
+   * @param result Execution result
+   * @throws IOException if unable to write the result
+   */
+  public void write(OutputStream out, ExecutionResult result) throws IOException {
+    try (JsonGenerator generator = createGenerator(out)) {
+      writeResult(generator, result);
+    }
+  }
+
+  /**
+   * Write a list of results to an output stream as a JSON array.
+   *
+   * @param out Output stream
+   * @param results Execution results
+   * @throws IOException if unable to write the results
+   */
+  public void write(OutputStream out, List<ExecutionResult> results) throws IOException {
+    try (JsonGenerator generator = createGenerator(out)) {
+      generator.writeStartArray();
+      for (ExecutionResult result : results) {
+        writeResult(generator, result);
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  /**
+   * Write a result in the GraphQL response format.
+   *
+   * @param generator JSON generator
+   * @param result Execution result
+   * @throws IOException if unable to write the result
+   */
+  public void writeResult(JsonGenerator generator, ExecutionResult result) throws IOException {
+    generator.writeStartObject();
+    writeFields(generator, result);
+    generator.writeEndObject();
+  }
+
+  /**
+   * Write the {@code data}, {@code errors} and {@code extensions} fields of a result into the
+   * current JSON object.
+   *
+   * @param generator JSON generator
+   * @param result Execution result
+   * @throws IOException if unable to write the result
+   */
+  public void writeFields(JsonGenerator generator, ExecutionResult result) throws IOException {
+    if (result.isDataPresent()) {
+      generator.writeFieldName("data");
+      writeValue(generator, result.getData());
+    }
+    writeErrors(generator, result.getErrors());
+    final Map<Object, Object> extensions = result.getExtensions();
+    if (extensions != null && !extensions.isEmpty()) {
+      generator.writeFieldName("extensions");
+      writeValue(generator, extensions);
+    }
+  }
+
+  /**
+   * Write the {@code errors} field of a response, if there are any errors.
+   *
+   * @param generator JSON generator
+   * @param errors GraphQL errors
+   * @throws IOException if unable to write the errors
+   */
+  public void writeErrors(JsonGenerator generator, List<GraphQLError> errors) throws IOException {
+    if (errors == null || errors.isEmpty()) {
+      return;
+    }
+    generator.writeFieldName("errors");
+    generator.writeStartArray();
+    for (GraphQLError error : errors) {
+      writeValue(generator, toSpecification(error));
+    }
+    generator.writeEndArray();
+  }
+
+  /**
+   * Write a value from an execution result. Maps and lists are walked directly so only the current
+   * path through the result is held by the generator.
+   *
+   * @param generator JSON generator
+   * @param value Value to write
+   * @throws IOException if unable to write the value
+   */
+  public void writeValue(JsonGenerator generator, Object value) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Map) {
+      generator.writeStartObject();
+      for (Map.Entry<?, ?> entry : entries((Map<?, ?>) value)) {
+        generator.writeFieldName(String.valueOf(entry.getKey()));
+        writeValue(generator, entry.getValue());
+      }
+      generator.writeEndObject();
+    } else if (value instanceof List) {
+      generator.writeStartArray();
+      for (Object item : (List<?>) value) {
+        writeValue(generator, item);
+      }
+      generator.writeEndArray();
+    } else if (value instanceof Integer) {
+      generator.writeNumber((Integer) value);
+    } else if (value instanceof Long) {
+      generator.writeNumber((Long) value);
+    } else if (value instanceof Double) {
+      generator.writeNumber((Double) value);
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else if (value instanceof BigDecimal) {
+      generator.writeNumber((BigDecimal) value);
+    } else if (value instanceof BigInteger) {
+      generator.writeNumber((BigInteger) value);
+    } else {
+      generator.writeObject(value);
+    }
+  }
+
+  /**
+   * Return the entries of a map in a stable order, so equal results always serialize to the same
+   * bytes. Maps with a defined iteration order, such as the ones built by graphql-java, are written
+   * in that order and any other map is sorted by key.
+   *
+   * @param map Map to write
+   * @return the entries
+   */
+  private static Iterable<? extends Map.Entry<?, ?>> entries(Map<?, ?> map) {
+    if (map.size() < 2
+        || map instanceof LinkedHashMap
+        || map instanceof SortedMap
+        || map instanceof ImmutableMap) {
+      return map.entrySet();
+    }
+    final List<Map.Entry<?, ?>> sorted = new ArrayList<>(map.entrySet());
+    sorted.sort(Comparator.comparing((Map.Entry<?, ?> entry) -> String.valueOf(entry.getKey())));
+    return sorted;
+  }
+
+  /**
+   * Convert an error to the GraphQL specification format. Exceptions thrown by data fetchers which
+   * are not {@link GraphQLError}s are logged and replaced with a generic message so internal
+   * details are not returned to clients.
+   *
+   * @param error GraphQL error
+   * @return the error in specification format
+   */
+  static Map<String, Object> toSpecification(GraphQLError error) {
+    if (error instanceof ExceptionWhileDataFetching) {
+      final Throwable exception = ((ExceptionWhileDataFetching) error).getException();
+      if (!(exception instanceof GraphQLError)) {
+        LOGGER.error("Error executing query: {}", error.getMessage(), exception);
+        final Map<String, Object> sanitized = new LinkedHashMap<>();
+        sanitized.put("message", INTERNAL_ERROR);
+        if (error.getPath() != null) {
+          sanitized.put("path", error.getPath());
+        }
+        return sanitized;
+      }
+    }
+    return error.toSpecification();
+  }
+}
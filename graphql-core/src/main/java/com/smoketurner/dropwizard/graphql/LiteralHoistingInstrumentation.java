@@ -0,0 +1,381 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import graphql.ExecutionInput;
+import graphql.Scalars;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.language.Argument;
+import graphql.language.AstPrinter;
+import graphql.language.BooleanValue;
+import graphql.language.Definition;
+import graphql.language.Document;
+import graphql.language.EnumValue;
+import graphql.language.Field;
+import graphql.language.FloatValue;
+import graphql.language.FragmentDefinition;
+import graphql.language.InlineFragment;
+import graphql.language.IntValue;
+import graphql.language.ListType;
+import graphql.language.NonNullType;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.StringValue;
+import graphql.language.Type;
+import graphql.language.TypeName;
+import graphql.language.Value;
+import graphql.language.VariableDefinition;
+import graphql.language.VariableReference;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLArgument;
+import graphql.schema.GraphQLCompositeType;
+import graphql.schema.GraphQLEnumType;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNamedType;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLScalarType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Rewrites queries which pass literal scalar or enum values to field arguments so the values are
+ * passed as variables instead. Queries which only differ in the IDs or other values they inline
+ * then share a single parsed and validated document in the cache.
+ *
+ * <p>Only the executed operation and the fragments it uses are kept. Directive arguments, list and
+ * input object literals, and custom scalars are left as they are, as are persisted queries, since
+ * changing their text would no longer match the hash sent by the client.
+ *
+ * <p>The rewritten query and the hoisted values only depend on the query text, so they are cached
+ * by query and operation name, and a repeated query is not parsed again before the document cache
+ * is consulted.
+ */
+public class LiteralHoistingInstrumentation extends SimplePerformantInstrumentation {
+
+  private static final String PREFIX = "_lit";
+  private static final long DEFAULT_MAXIMUM_SIZE = 1_000;
+
+  /** The result of hoisting the literals of a query. */
+  private static final class Hoisted {
+    private final GraphQLSchema schema;
+    @Nullable private final String query;
+    private final Map<String, Object> literals;
+
+    private Hoisted(GraphQLSchema schema, @Nullable String query, Map<String, Object> literals) {
+      this.schema = schema;
+      this.query = query;
+      this.literals = literals;
+    }
+  }
+
+  private final Cache<List<String>, Hoisted> cache;
+
+  /** Constructor which caches up to 1,000 rewritten queries. */
+  public LiteralHoistingInstrumentation() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maximumSize Maximum number of rewritten queries to cache
+   */
+  public LiteralHoistingInstrumentation(long maximumSize) {
+    this.cache = Caffeine.newBuilder().maximumSize(maximumSize).build();
+  }
+
+  @Override
+  public ExecutionInput instrumentExecutionInput(
+      ExecutionInput executionInput,
+      InstrumentationExecutionParameters parameters,
+      InstrumentationState state) {
+    final String query = executionInput.getQuery();
+    if (PersistedQueries.isMissingQuery(query)
+        || PersistedQueries.getDocumentId(executionInput).isPresent()) {
+      return executionInput;
+    }
+
+    final GraphQLSchema schema = parameters.getSchema();
+    final List<String> key = Arrays.asList(query, executionInput.getOperationName());
+    Hoisted hoisted = cache.getIfPresent(key);
+    // the types of the arguments may have changed if the schema was reloaded
+    if (hoisted == null || hoisted.schema != schema) {
+      hoisted = hoist(schema, query, executionInput.getOperationName());
+      cache.put(key, hoisted);
+    }
+    if (hoisted.query == null) {
+      return executionInput;
+    }
+
+    final String rewritten = hoisted.query;
+    final Map<String, Object> variables = new LinkedHashMap<>(executionInput.getVariables());
+    variables.putAll(hoisted.literals);
+    return executionInput.transform(builder -> builder.query(rewritten).variables(variables));
+  }
+
+  private static Hoisted hoist(GraphQLSchema schema, String query, @Nullable String operationName) {
+    final Hoisted unchanged = new Hoisted(schema, null, Collections.emptyMap());
+    if (!QueryNormalizer.normalize(query).hasArgumentLiterals()) {
+      return unchanged;
+    }
+
+    final Document document;
+    try {
+      document = Parser.parse(query);
+    } catch (InvalidSyntaxException e) {
+      return unchanged;
+    }
+
+    final Optional<OperationDefinition> operation =
+        DeferredOperations.findOperation(document, operationName);
+    if (!operation.isPresent()) {
+      return unchanged;
+    }
+
+    final Hoister hoister = new Hoister(schema, operation.get());
+    final Optional<String> hoisted = hoister.hoist(document, operation.get());
+    if (!hoisted.isPresent()) {
+      return unchanged;
+    }
+    return new Hoisted(schema, hoisted.get(), Collections.unmodifiableMap(hoister.variables));
+  }
+
+  /** Rewrites a single operation, collecting the hoisted variables. */
+  private static final class Hoister {
+    private final GraphQLSchema schema;
+    private final Set<String> names = new HashSet<>();
+    private final List<VariableDefinition> definitions = new ArrayList<>();
+    private final Map<String, Object> variables = new LinkedHashMap<>();
+    private int next;
+
+    Hoister(GraphQLSchema schema, OperationDefinition operation) {
+      this.schema = schema;
+      for (VariableDefinition definition : operation.getVariableDefinitions()) {
+        names.add(definition.getName());
+      }
+    }
+
+    /** Return the rewritten document, or empty if there was nothing to hoist. */
+    Optional<String> hoist(Document document, OperationDefinition operation) {
+      final GraphQLCompositeType root;
+      switch (operation.getOperation()) {
+        case MUTATION:
+          root = schema.getMutationType();
+          break;
+        case SUBSCRIPTION:
+          root = schema.getSubscriptionType();
+          break;
+        default:
+          root = schema.getQueryType();
+          break;
+      }
+
+      final Map<String, FragmentDefinition> fragments = new HashMap<>();
+      for (FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class)) {
+        fragments.put(fragment.getName(), fragment);
+      }
+      // fragments only used by other operations are dropped, so they must not declare variables
+      final Set<String> usedFragments = new HashSet<>();
+      DeferredOperations.collect(operation, fragments, usedFragments, new HashSet<>());
+
+      final SelectionSet selectionSet = hoist(operation.getSelectionSet(), root);
+      final List<Definition> result = new ArrayList<>();
+      for (FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class)) {
+        if (usedFragments.contains(fragment.getName())) {
+          final GraphQLCompositeType type = getCompositeType(fragment.getTypeCondition().getName());
+          result.add(
+              fragment.transform(
+                  builder -> builder.selectionSet(hoist(fragment.getSelectionSet(), type))));
+        }
+      }
+      if (definitions.isEmpty()) {
+        return Optional.empty();
+      }
+
+      final List<VariableDefinition> variableDefinitions =
+          new ArrayList<>(operation.getVariableDefinitions());
+      variableDefinitions.addAll(definitions);
+      final OperationDefinition hoisted =
+          operation.transform(
+              builder ->
+                  builder.selectionSet(selectionSet).variableDefinitions(variableDefinitions));
+      result.add(0, hoisted);
+      return Optional.of(AstPrinter.printAst(Document.newDocument().definitions(result).build()));
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Nullable
+    private SelectionSet hoist(
+        @Nullable SelectionSet selectionSet, @Nullable GraphQLCompositeType parent) {
+      if (selectionSet == null) {
+        return null;
+      }
+      final List<Selection> selections = new ArrayList<>();
+      for (Selection selection : selectionSet.getSelections()) {
+        if (selection instanceof Field) {
+          selections.add(hoist((Field) selection, parent));
+        } else if (selection instanceof InlineFragment) {
+          final InlineFragment fragment = (InlineFragment) selection;
+          final GraphQLCompositeType type =
+              fragment.getTypeCondition() == null
+                  ? parent
+                  : getCompositeType(fragment.getTypeCondition().getName());
+          selections.add(
+              fragment.transform(
+                  builder -> builder.selectionSet(hoist(fragment.getSelectionSet(), type))));
+        } else {
+          selections.add(selection);
+        }
+      }
+      return SelectionSet.newSelectionSet(selections).build();
+    }
+
+    private Field hoist(Field field, @Nullable GraphQLCompositeType parent) {
+      if (!(parent instanceof GraphQLFieldsContainer)) {
+        return field;
+      }
+      final GraphQLFieldDefinition definition =
+          ((GraphQLFieldsContainer) parent).getFieldDefinition(field.getName());
+      if (definition == null) {
+        return field;
+      }
+
+      final List<Argument> arguments = new ArrayList<>(field.getArguments().size());
+      for (Argument argument : field.getArguments()) {
+        arguments.add(hoist(argument, definition.getArgument(argument.getName())));
+      }
+      final GraphQLType type = GraphQLTypeUtil.unwrapAll(definition.getType());
+      final GraphQLCompositeType child =
+          type instanceof GraphQLCompositeType ? (GraphQLCompositeType) type : null;
+      return field.transform(
+          builder ->
+              builder.arguments(arguments).selectionSet(hoist(field.getSelectionSet(), child)));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Argument hoist(Argument argument, @Nullable GraphQLArgument definition) {
+      if (definition == null) {
+        return argument;
+      }
+      final Value value = argument.getValue();
+      final Optional<Object> literal =
+          toVariableValue(value, GraphQLTypeUtil.unwrapNonNull(definition.getType()));
+      if (!literal.isPresent()) {
+        return argument;
+      }
+
+      final String name = nextName();
+      definitions.add(
+          VariableDefinition.newVariableDefinition(name, toAstType(definition.getType())).build());
+      variables.put(name, literal.get());
+      return argument.transform(builder -> builder.value(new VariableReference(name)));
+    }
+
+    private String nextName() {
+      String name;
+      do {
+        name = PREFIX + next++;
+      } while (names.contains(name));
+      return name;
+    }
+
+    @Nullable
+    private GraphQLCompositeType getCompositeType(String name) {
+      final GraphQLType type = schema.getType(name);
+      return type instanceof GraphQLCompositeType ? (GraphQLCompositeType) type : null;
+    }
+  }
+
+  /**
+   * Convert a literal to the value a client would send as a variable, if the literal is valid for
+   * the argument type. Invalid literals are left in place so validation reports them as before.
+   */
+  @SuppressWarnings("rawtypes")
+  private static Optional<Object> toVariableValue(Value value, GraphQLType type) {
+    if (type instanceof GraphQLEnumType) {
+      if (value instanceof EnumValue
+          && ((GraphQLEnumType) type).getValue(((EnumValue) value).getName()) != null) {
+        return Optional.of(((EnumValue) value).getName());
+      }
+      return Optional.empty();
+    }
+    if (!(type instanceof GraphQLScalarType)) {
+      return Optional.empty();
+    }
+
+    final String scalar = ((GraphQLScalarType) type).getName();
+    if (value instanceof StringValue) {
+      if (Scalars.GraphQLString.getName().equals(scalar)
+          || Scalars.GraphQLID.getName().equals(scalar)) {
+        return Optional.of(((StringValue) value).getValue());
+      }
+    } else if (value instanceof IntValue) {
+      final BigInteger number = ((IntValue) value).getValue();
+      if (Scalars.GraphQLInt.getName().equals(scalar)) {
+        return number.bitLength() < Integer.SIZE
+            ? Optional.of(number.intValue())
+            : Optional.empty();
+      }
+      if (Scalars.GraphQLID.getName().equals(scalar)) {
+        return Optional.of(number.toString());
+      }
+      if (Scalars.GraphQLFloat.getName().equals(scalar)) {
+        return Optional.of(number.doubleValue());
+      }
+    } else if (value instanceof FloatValue) {
+      if (Scalars.GraphQLFloat.getName().equals(scalar)) {
+        return Optional.of(((FloatValue) value).getValue().doubleValue());
+      }
+    } else if (value instanceof BooleanValue) {
+      if (Scalars.GraphQLBoolean.getName().equals(scalar)) {
+        return Optional.of(((BooleanValue) value).isValue());
+      }
+    }
+    return Optional.empty();
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static Type toAstType(GraphQLType type) {
+    if (type instanceof GraphQLNonNull) {
+      return new NonNullType(toAstType(((GraphQLNonNull) type).getWrappedType()));
+    }
+    if (type instanceof GraphQLList) {
+      return new ListType(toAstType(((GraphQLList) type).getWrappedType()));
+    }
+    return new TypeName(((GraphQLNamedType) type).getName());
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.language.Document;
+import graphql.language.OperationDefinition;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.validation.ValidationError;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Instrumentation which records Dropwizard {@link Timer}s for the parse, validate and execute
+ * phases, for each operation name and for each non-trivial {@code Type.field} resolver.
+ *
+ * <p>Operation and field names come from client requests and the schema, so the number of timers is
+ * capped. Once the limit is reached, new operations and fields are recorded under an {@code other}
+ * timer.
+ */
+public class MetricsInstrumentation extends SimplePerformantInstrumentation {
+
+  static final String ANONYMOUS = "anonymous";
+  static final String OTHER = "other";
+
+  private final MetricRegistry registry;
+  private final int limit;
+  private final AtomicInteger count = new AtomicInteger();
+  private final ConcurrentMap<String, Timer> operations = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ConcurrentMap<String, Timer>> fields =
+      new ConcurrentHashMap<>();
+  private final Timer parse;
+  private final Timer validate;
+  private final Timer execute;
+  private final Timer otherOperation;
+  private final Timer otherField;
+
+  /**
+   * Constructor
+   *
+   * @param registry Metric registry
+   * @param limit Maximum number of operation and field timers
+   */
+  public MetricsInstrumentation(MetricRegistry registry, int limit) {
+    this.registry = Objects.requireNonNull(registry);
+    this.limit = limit;
+
+    parse = registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "parse"));
+    validate = registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "validate"));
+    execute = registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "execute"));
+    otherOperation =
+        registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "operations", OTHER));
+    otherField = registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "fields", OTHER));
+  }
+
+  @Override
+  public InstrumentationContext<Document> beginParse(
+      InstrumentationExecutionParameters parameters, InstrumentationState state) {
+    return time(parse);
+  }
+
+  @Override
+  public InstrumentationContext<List<ValidationError>> beginValidation(
+      InstrumentationValidationParameters parameters, InstrumentationState state) {
+    return time(validate);
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters, InstrumentationState state) {
+
+    final OperationDefinition operation = parameters.getExecutionContext().getOperationDefinition();
+    final String name =
+        operation == null || operation.getName() == null ? ANONYMOUS : operation.getName();
+
+    final Timer.Context executeContext = execute.time();
+    final Timer.Context operationContext = getOperationTimer(name).time();
+    return SimpleInstrumentationContext.whenCompleted(
+        (result, error) -> {
+          operationContext.stop();
+          executeContext.stop();
+        });
+  }
+
+  @Override
+  public InstrumentationContext<Object> beginFieldFetch(
+      InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
+
+    // property data fetchers aren't resolvers worth timing and would dominate the overhead
+    if (parameters.isTrivialDataFetcher()) {
+      return SimpleInstrumentationContext.noOp();
+    }
+
+    final String type = GraphQLTypeUtil.simplePrint(parameters.getEnvironment().getParentType());
+    return time(getFieldTimer(type, parameters.getField().getName()));
+  }
+
+  private Timer getOperationTimer(String name) {
+    final Timer timer = operations.get(name);
+    if (timer != null) {
+      return timer;
+    }
+    if (!reserve()) {
+      return otherOperation;
+    }
+    return operations.computeIfAbsent(
+        name,
+        n -> registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "operations", n)));
+  }
+
+  private Timer getFieldTimer(String type, String field) {
+    final ConcurrentMap<String, Timer> timers =
+        fields.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+    final Timer timer = timers.get(field);
+    if (timer != null) {
+      return timer;
+    }
+    if (!reserve()) {
+      return otherField;
+    }
+    return timers.computeIfAbsent(
+        field,
+        f -> registry.timer(MetricRegistry.name(MetricsInstrumentation.class, "fields", type, f)));
+  }
+
+  /**
+   * Reserve a slot for a new timer. Concurrent misses for the same name may each reserve a slot, so
+   * the limit is approximate but still bounds the number of timers.
+   *
+   * @return true if a new timer may be created
+   */
+  private boolean reserve() {
+    while (true) {
+      final int current = count.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (count.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private static <T> InstrumentationContext<T> time(Timer timer) {
+    final Timer.Context context = timer.time();
+    return SimpleInstrumentationContext.whenCompleted((result, error) -> context.stop());
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/** A single GraphQL operation sent over HTTP. */
+final class OperationRequest {
+
+  private final String query;
+  @Nullable private final String operationName;
+  private final Map<String, Object> variables;
+  private final Map<String, Object> extensions;
+
+  OperationRequest(
+      @Nullable String query,
+      @Nullable String operationName,
+      @Nullable Map<String, Object> variables,
+      @Nullable Map<String, Object> extensions) {
+    this.query = Optional.ofNullable(query).orElse("");
+    this.operationName = operationName;
+    this.variables = Optional.ofNullable(variables).orElse(Collections.emptyMap());
+    this.extensions = Optional.ofNullable(extensions).orElse(Collections.emptyMap());
+  }
+
+  /**
+   * Return a copy of this request with a different query. The persisted query hash and trusted
+   * document identifier are dropped, since they identify the original query text.
+   *
+   * @param newQuery Query text
+   * @return the new request
+   */
+  OperationRequest withQuery(String newQuery) {
+    final Map<String, Object> rest = new LinkedHashMap<>(extensions);
+    rest.remove(PersistedQueries.EXTENSION);
+    rest.remove(PersistedQueries.DOCUMENT_ID);
+    return new OperationRequest(newQuery, operationName, variables, rest);
+  }
+
+  String getQuery() {
+    return query;
+  }
+
+  @Nullable String getOperationName() {
+    return operationName;
+  }
+
+  Map<String, Object> getVariables() {
+    return variables;
+  }
+
+  Map<String, Object> getExtensions() {
+    return extensions;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import graphql.ExecutionInput;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Helpers for the <a
+ * href="https://github.com/apollographql/apollo-link-persisted-queries">Automatic Persisted
+ * Queries</a> protocol, where clients send a SHA-256 hash of the query in {@code
+ * extensions.persistedQuery.sha256Hash} instead of (or along with) the query text.
+ */
+public final class PersistedQueries {
+
+  public static final String EXTENSION = "persistedQuery";
+  public static final String HASH = "sha256Hash";
+  public static final String DOCUMENT_ID = "documentId";
+
+  private static final Pattern SHA_256 = Pattern.compile("[0-9a-f]{64}");
+
+  private PersistedQueries() {}
+
+  /**
+   * Return the SHA-256 hash sent by the client in the request extensions, if any.
+   *
+   * @param executionInput Execution input
+   * @return the lower-cased hex encoded hash
+   */
+  public static Optional<String> getHash(ExecutionInput executionInput) {
+    return getHash(executionInput.getExtensions());
+  }
+
+  /**
+   * Return the SHA-256 hash sent by the client in the request extensions, if any.
+   *
+   * @param extensions Request extensions
+   * @return the lower-cased hex encoded hash
+   */
+  public static Optional<String> getHash(@Nullable Map<String, Object> extensions) {
+    if (extensions == null) {
+      return Optional.empty();
+    }
+
+    final Object persistedQuery = extensions.get(EXTENSION);
+    if (!(persistedQuery instanceof Map)) {
+      return Optional.empty();
+    }
+
+    final Object hash = ((Map<?, ?>) persistedQuery).get(HASH);
+    if (!(hash instanceof String) || Strings.isNullOrEmpty((String) hash)) {
+      return Optional.empty();
+    }
+    return Optional.of(((String) hash).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Return the identifier of a trusted document sent by the client, either as {@code
+   * extensions.documentId} or as the persisted query hash.
+   *
+   * @param executionInput Execution input
+   * @return the document identifier
+   */
+  public static Optional<String> getDocumentId(ExecutionInput executionInput) {
+    final Map<String, Object> extensions = executionInput.getExtensions();
+    if (extensions != null) {
+      final Object documentId = extensions.get(DOCUMENT_ID);
+      if (documentId instanceof String && !Strings.isNullOrEmpty((String) documentId)) {
+        return Optional.of((String) documentId);
+      }
+    }
+    return getHash(executionInput);
+  }
+
+  /**
+   * Return whether the execution input carries no query text, which is the case when a client only
+   * sends the hash of a persisted query.
+   *
+   * @param query Query text
+   * @return true if the query text is missing
+   */
+  public static boolean isMissingQuery(String query) {
+    return Strings.isNullOrEmpty(query)
+        || query.trim().isEmpty()
+        || PersistedQuerySupport.PERSISTED_QUERY_MARKER.equals(query);
+  }
+
+  /**
+   * Return the document entry of a persisted query which is not found, with the same error as
+   * graphql-java's {@link PersistedQuerySupport}, so clients know to send the query text.
+   *
+   * @param id Hash or id of the persisted query
+   * @return the document entry
+   */
+  public static PreparsedDocumentEntry notFound(Object id) {
+    final PersistedQueryNotFound error = new PersistedQueryNotFound(id);
+    return new PreparsedDocumentEntry(
+        GraphqlErrorBuilder.newError()
+            .errorType(error)
+            .message(error.getMessage())
+            .extensions(error.getExtensions())
+            .build());
+  }
+
+  /**
+   * Return whether a value is a lower-cased hex encoded SHA-256 hash, as returned by {@link
+   * #sha256(String)}.
+   *
+   * @param value Value to check
+   * @return true if the value is a SHA-256 hash
+   */
+  public static boolean isSha256(@Nullable String value) {
+    return value != null && SHA_256.matcher(value).matches();
+  }
+
+  /**
+   * Return the lower-cased hex encoded SHA-256 hash of a query
+   *
+   * @param query Query text
+   * @return SHA-256 hash of the query
+   */
+  @SuppressWarnings("UnstableApiUsage")
+  public static String sha256(String query) {
+    return Hashing.sha256().hashString(query, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Return the lower-cased hex encoded SHA-256 hash of a byte array
+   *
+   * @param bytes Bytes to hash
+   * @return SHA-256 hash of the bytes
+   */
+  @SuppressWarnings("UnstableApiUsage")
+  public static String sha256(byte[] bytes) {
+    return Hashing.sha256().hashBytes(bytes).toString();
+  }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.math.LongMath;
+import graphql.ExecutionInput;
+import graphql.GraphQLError;
+import graphql.language.Argument;
+import graphql.language.ArrayValue;
+import graphql.language.Directive;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.FieldDefinition;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.InputValueDefinition;
+import graphql.language.IntValue;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.StringValue;
+import graphql.language.Value;
+import graphql.language.VariableDefinition;
+import graphql.language.VariableReference;
+import graphql.schema.GraphQLCompositeType;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Computes the depth and complexity of each operation in a document, using the {@code @cost}
+ * directive on field definitions to weight fields. Fields without a {@code @cost} directive have a
+ * weight of 1. Arguments named in {@code multipliers} multiply the cost of a field's selections.
+ *
+ * <p>The analysis is done once per document and the result stored with the cached document, so only
+ * multipliers which reference variables are evaluated for each request.
+ */
+public class QueryComplexityAnalyzer {
+
+  private static final int MAX_WALK_DEPTH = 1000;
+  private static final int MAX_NODES = 100_000;
+
+  /**
+   * Cost of one field, and the fields selected beneath it. The nodes of a fragment are shared by
+   * every spread of it, so the nodes form a graph rather than a tree, and are evaluated once each.
+   */
+  private static final class CostNode {
+    private final long weight;
+    private final List<Multiplier> multipliers;
+    private final List<CostNode> children;
+    private final boolean constant;
+
+    private CostNode(long weight, List<Multiplier> multipliers, List<CostNode> children) {
+      this.weight = weight;
+      this.multipliers = multipliers;
+      this.children = children;
+
+      boolean constant = true;
+      for (Multiplier m : multipliers) {
+        constant &= m.variable == null;
+      }
+      for (CostNode child : children) {
+        constant &= child.constant;
+      }
+      this.constant = constant;
+    }
+
+    private long evaluate(Map<String, Object> variables, Map<CostNode, Long> evaluated) {
+      final Long cached = evaluated.get(this);
+      if (cached != null) {
+        return cached;
+      }
+      long childCost = 0;
+      for (CostNode child : children) {
+        childCost = LongMath.saturatedAdd(childCost, child.evaluate(variables, evaluated));
+      }
+      long multiplier = 1;
+      for (Multiplier m : multipliers) {
+        multiplier = LongMath.saturatedMultiply(multiplier, m.evaluate(variables));
+      }
+      final long cost =
+          LongMath.saturatedAdd(weight, LongMath.saturatedMultiply(multiplier, childCost));
+      evaluated.put(this, cost);
+      return cost;
+    }
+  }
+
+  /** The cost nodes of a fragment, and the depth of its deepest field relative to the spread. */
+  private static final class FragmentCost {
+    private final List<CostNode> nodes;
+    private final int depth;
+
+    private FragmentCost(List<CostNode> nodes, int depth) {
+      this.nodes = nodes;
+      this.depth = depth;
+    }
+  }
+
+  /** An argument value which multiplies the cost of a field's selections. */
+  private static final class Multiplier {
+    private final long value;
+    @Nullable private final String variable;
+
+    private Multiplier(long value, @Nullable String variable) {
+      this.value = value;
+      this.variable = variable;
+    }
+
+    private long evaluate(Map<String, Object> variables) {
+      if (variable != null) {
+        final Object provided = variables.get(variable);
+        if (provided instanceof Number) {
+          return Math.max(0L, ((Number) provided).longValue());
+        }
+      }
+      return value;
+    }
+  }
+
+  /** The cost of a single operation. */
+  static final class OperationCost {
+    private final int depth;
+    private final List<CostNode> fields;
+    private final boolean tooLarge;
+    private final long constantComplexity;
+
+    private OperationCost(int depth, List<CostNode> fields, boolean tooLarge) {
+      this.depth = depth;
+      this.fields = fields;
+      this.tooLarge = tooLarge;
+
+      boolean constant = true;
+      for (CostNode field : fields) {
+        constant &= field.constant;
+      }
+      this.constantComplexity = constant ? sum(fields, Collections.emptyMap()) : -1L;
+    }
+
+    int getDepth() {
+      return depth;
+    }
+
+    /** Whether the operation has more fields than are analyzed, even with fragments shared. */
+    boolean isTooLarge() {
+      return tooLarge;
+    }
+
+    long getComplexity(Map<String, Object> variables) {
+      if (constantComplexity >= 0) {
+        return constantComplexity;
+      }
+      return sum(fields, variables);
+    }
+
+    private static long sum(List<CostNode> fields, Map<String, Object> variables) {
+      final Map<CostNode, Long> evaluated = new IdentityHashMap<>();
+      long total = 0;
+      for (CostNode field : fields) {
+        total = LongMath.saturatedAdd(total, field.evaluate(variables, evaluated));
+      }
+      return total;
+    }
+  }
+
+  /** The costs of every operation in a document, keyed by operation name. */
+  public static final class DocumentCost {
+    private final Map<String, OperationCost> operations;
+
+    private DocumentCost(Map<String, OperationCost> operations) {
+      this.operations = operations;
+    }
+
+    Optional<OperationCost> getOperation(@Nullable String operationName) {
+      if (operationName == null || operationName.isEmpty()) {
+        if (operations.size() == 1) {
+          return Optional.of(operations.values().iterator().next());
+        }
+        return Optional.ofNullable(operations.get(""));
+      }
+      return Optional.ofNullable(operations.get(operationName));
+    }
+  }
+
+  private final GraphQLSchema schema;
+  private final int maxDepth;
+  private final long maxComplexity;
+  private final Meter depthRejections;
+  private final Meter complexityRejections;
+
+  /**
+   * Constructor
+   *
+   * @param schema GraphQL schema
+   * @param maxDepth Maximum query depth, or 0 for no limit
+   * @param maxComplexity Maximum query complexity, or 0 for no limit
+   * @param registry Metric registry
+   */
+  public QueryComplexityAnalyzer(
+      GraphQLSchema schema, int maxDepth, long maxComplexity, MetricRegistry registry) {
+    this.schema = Objects.requireNonNull(schema);
+    this.maxDepth = maxDepth;
+    this.maxComplexity = maxComplexity;
+
+    depthRejections =
+        registry.meter(MetricRegistry.name(QueryComplexityAnalyzer.class, "depth-rejections"));
+    complexityRejections =
+        registry.meter(MetricRegistry.name(QueryComplexityAnalyzer.class, "complexity-rejections"));
+  }
+
+  /**
+   * Analyze every operation in a validated document.
+   *
+   * @param document Validated document
+   * @return the cost of each operation
+   */
+  public DocumentCost analyze(Document document) {
+    final Map<String, FragmentDefinition> fragments = new HashMap<>();
+    for (FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class)) {
+      fragments.put(fragment.getName(), fragment);
+    }
+
+    final Map<String, OperationCost> operations = new HashMap<>();
+    for (OperationDefinition operation : document.getDefinitionsOfType(OperationDefinition.class)) {
+      final GraphQLObjectType root = getRootType(operation.getOperation());
+      if (root == null) {
+        continue;
+      }
+
+      final Map<String, Long> defaults = new HashMap<>();
+      for (VariableDefinition variable : operation.getVariableDefinitions()) {
+        final Value<?> value = variable.getDefaultValue();
+        if (value instanceof IntValue) {
+          defaults.put(variable.getName(), ((IntValue) value).getValue().longValue());
+        }
+      }
+
+      final Walker walker = new Walker(fragments, defaults);
+      final List<CostNode> fields = walker.walk(operation.getSelectionSet(), root, 1);
+      operations.put(
+          Optional.ofNullable(operation.getName()).orElse(""),
+          new OperationCost(walker.maxDepth, fields, walker.nodeCount > MAX_NODES));
+    }
+    return new DocumentCost(operations);
+  }
+
+  /**
+   * Check the cost of the requested operation against the configured limits.
+   *
+   * @param cost Document cost returned by {@link #analyze(Document)}
+   * @param executionInput Execution input
+   * @return an error if the operation exceeds a limit
+   */
+  public Optional<GraphQLError> check(DocumentCost cost, ExecutionInput executionInput) {
+    final Optional<OperationCost> operation = cost.getOperation(executionInput.getOperationName());
+    if (!operation.isPresent()) {
+      // graphql-java will report the unknown operation
+      return Optional.empty();
+    }
+
+    if (operation.get().isTooLarge()) {
+      complexityRejections.mark();
+      return Optional.of(
+          new GraphQLValidationError(
+              String.format("Query selects more than %d fields", MAX_NODES)));
+    }
+
+    final int depth = operation.get().getDepth();
+    if (maxDepth > 0 && depth > maxDepth) {
+      depthRejections.mark();
+      return Optional.of(
+          new GraphQLValidationError(
+              String.format("Query depth %d exceeds maximum depth %d", depth, maxDepth)));
+    }
+
+    if (maxComplexity > 0) {
+      final Map<String, Object> variables =
+          Optional.ofNullable(executionInput.getVariables()).orElse(Collections.emptyMap());
+      final long complexity = operation.get().getComplexity(variables);
+      if (complexity > maxComplexity) {
+        complexityRejections.mark();
+        return Optional.of(
+            new GraphQLValidationError(
+                String.format(
+                    "Query complexity %d exceeds maximum complexity %d",
+                    complexity, maxComplexity)));
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Nullable
+  private GraphQLObjectType getRootType(OperationDefinition.Operation operation) {
+    switch (operation) {
+      case MUTATION:
+        return schema.getMutationType();
+      case SUBSCRIPTION:
+        return schema.getSubscriptionType();
+      case QUERY:
+      default:
+        return schema.getQueryType();
+    }
+  }
+
+  private final class Walker {
+    private final Map<String, FragmentDefinition> fragments;
+    private final Map<String, Long> variableDefaults;
+    private final Map<String, FragmentCost> fragmentCosts = new HashMap<>();
+    private int maxDepth = 0;
+    private int nodeCount = 0;
+
+    private Walker(Map<String, FragmentDefinition> fragments, Map<String, Long> variableDefaults) {
+      this.fragments = fragments;
+      this.variableDefaults = variableDefaults;
+    }
+
+    private List<CostNode> walk(
+        @Nullable SelectionSet selectionSet, GraphQLCompositeType parent, int depth) {
+      if (selectionSet == null) {
+        return Collections.emptyList();
+      }
+
+      final List<CostNode> nodes = new ArrayList<>();
+      for (Selection<?> selection : selectionSet.getSelections()) {
+        if (selection instanceof Field) {
+          final CostNode node = walkField((Field) selection, parent, depth);
+          if (node != null) {
+            nodes.add(node);
+          }
+        } else if (selection instanceof InlineFragment) {
+          final InlineFragment fragment = (InlineFragment) selection;
+          final GraphQLCompositeType type =
+              fragment.getTypeCondition() == null
+                  ? parent
+                  : getCompositeType(fragment.getTypeCondition().getName(), parent);
+          nodes.addAll(walk(fragment.getSelectionSet(), type, depth));
+        } else if (selection instanceof FragmentSpread) {
+          final FragmentCost fragment =
+              walkFragment(((FragmentSpread) selection).getName(), parent, depth);
+          if (fragment != null) {
+            maxDepth = Math.max(maxDepth, depth + fragment.depth);
+            nodes.addAll(fragment.nodes);
+          }
+        }
+      }
+      return nodes;
+    }
+
+    /**
+     * Walk a fragment the first time it is spread, and share its nodes with every other spread, so
+     * fragments which spread other fragments several times can't multiply the work of the walk.
+     */
+    @Nullable
+    private FragmentCost walkFragment(String name, GraphQLCompositeType parent, int depth) {
+      // a null entry is a fragment still being walked, which only a cycle rejected by validation
+      // would spread again
+      if (fragmentCosts.containsKey(name)) {
+        return fragmentCosts.get(name);
+      }
+      final FragmentDefinition fragment = fragments.get(name);
+      if (fragment == null || depth > MAX_WALK_DEPTH) {
+        return null;
+      }
+
+      fragmentCosts.put(name, null);
+      final int outerDepth = maxDepth;
+      maxDepth = depth;
+      final GraphQLCompositeType type =
+          getCompositeType(fragment.getTypeCondition().getName(), parent);
+      final List<CostNode> nodes = walk(fragment.getSelectionSet(), type, depth);
+      final FragmentCost cost = new FragmentCost(nodes, maxDepth - depth);
+      maxDepth = outerDepth;
+      fragmentCosts.put(name, cost);
+      return cost;
+    }
+
+    @Nullable
+    private CostNode walkField(Field field, GraphQLCompositeType parent, int depth) {
+      // introspection fields are not counted
+      if (field.getName().startsWith("__") || !(parent instanceof GraphQLFieldsContainer)) {
+        return null;
+      }
+
+      final GraphQLFieldDefinition definition =
+          ((GraphQLFieldsContainer) parent).getFieldDefinition(field.getName());
+      if (definition == null) {
+        return null;
+      }
+
+      if (++nodeCount > MAX_NODES) {
+        return null;
+      }
+      maxDepth = Math.max(maxDepth, depth);
+
+      long weight = 1;
+      final List<Multiplier> multipliers = new ArrayList<>();
+      final FieldDefinition ast = definition.getDefinition();
+      if (ast != null) {
+        final List<Directive> directives = ast.getDirectives(BuiltInDirectives.COST);
+        if (!directives.isEmpty()) {
+          final Directive cost = directives.get(0);
+          final Argument weightArgument = cost.getArgument("weight");
+          if (weightArgument != null && weightArgument.getValue() instanceof IntValue) {
+            weight = ((IntValue) weightArgument.getValue()).getValue().longValue();
+          }
+          final Argument multipliersArgument = cost.getArgument("multipliers");
+          if (multipliersArgument != null) {
+            for (String name : getStrings(multipliersArgument.getValue())) {
+              multipliers.add(getMultiplier(field, ast, name));
+            }
+          }
+        }
+      }
+
+      final GraphQLType type = GraphQLTypeUtil.unwrapAll(definition.getType());
+      final List<CostNode> children;
+      if (type instanceof GraphQLCompositeType && depth < MAX_WALK_DEPTH) {
+        children = walk(field.getSelectionSet(), (GraphQLCompositeType) type, depth + 1);
+      } else {
+        children = Collections.emptyList();
+      }
+      return new CostNode(weight, multipliers, children);
+    }
+
+    private Multiplier getMultiplier(Field field, FieldDefinition definition, String name) {
+      for (Argument argument : field.getArguments()) {
+        if (!argument.getName().equals(name)) {
+          continue;
+        }
+        final Value<?> value = argument.getValue();
+        if (value instanceof IntValue) {
+          return new Multiplier(((IntValue) value).getValue().longValue(), null);
+        }
+        if (value instanceof VariableReference) {
+          final String variable = ((VariableReference) value).getName();
+          return new Multiplier(variableDefaults.getOrDefault(variable, 1L), variable);
+        }
+      }
+
+      for (InputValueDefinition input : definition.getInputValueDefinitions()) {
+        if (input.getName().equals(name) && input.getDefaultValue() instanceof IntValue) {
+          return new Multiplier(((IntValue) input.getDefaultValue()).getValue().longValue(), null);
+        }
+      }
+      return new Multiplier(1L, null);
+    }
+
+    private GraphQLCompositeType getCompositeType(String name, GraphQLCompositeType fallback) {
+      final GraphQLType type = schema.getType(name);
+      if (type instanceof GraphQLCompositeType) {
+        return (GraphQLCompositeType) type;
+      }
+      return fallback;
+    }
+  }
+
+  private static List<String> getStrings(Value<?> value) {
+    final List<String> strings = new ArrayList<>();
+    if (value instanceof ArrayValue) {
+      for (Value<?> item : ((ArrayValue) value).getValues()) {
+        if (item instanceof StringValue) {
+          strings.add(((StringValue) item).getValue());
+        }
+      }
+    } else if (value instanceof StringValue) {
+      strings.add(((StringValue) value).getValue());
+    }
+    return strings;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+/**
+ * Canonicalizes query text with a single lexical pass, so that queries which differ only in
+ * whitespace, commas or comments share a document cache entry. Tokens are copied verbatim and only
+ * separated by a space when two names, numbers or strings would otherwise run together. Query text
+ * containing anything the GraphQL lexer would reject is returned unchanged, so an invalid query can
+ * never share a cache entry with a valid one.
+ */
+final class QueryNormalizer {
+
+  /** The result of normalizing a query. */
+  static final class Result {
+    private final String query;
+    private final boolean argumentLiterals;
+
+    private Result(String query, boolean argumentLiterals) {
+      this.query = query;
+      this.argumentLiterals = argumentLiterals;
+    }
+
+    String getQuery() {
+      return query;
+    }
+
+    /**
+     * Whether any field or directive argument within a selection set is passed a literal value
+     * rather than a variable.
+     *
+     * @return true if the query has literal arguments
+     */
+    boolean hasArgumentLiterals() {
+      return argumentLiterals;
+    }
+  }
+
+  private QueryNormalizer() {}
+
+  /**
+   * Normalize query text.
+   *
+   * @param query Query text
+   * @return the normalized query
+   */
+  static Result normalize(String query) {
+    final int length = query.length();
+    final StringBuilder out = new StringBuilder(length);
+    boolean previousWord = false;
+    boolean argumentLiterals = false;
+    boolean expectValue = false;
+    int braces = 0;
+    int parens = 0;
+
+    int i = 0;
+    while (i < length) {
+      final char c = query.charAt(i);
+
+      // ignored tokens
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ',' || c == '\uFEFF') {
+        i++;
+        continue;
+      }
+      if (c == '#') {
+        while (i < length && query.charAt(i) != '\n' && query.charAt(i) != '\r') {
+          i++;
+        }
+        continue;
+      }
+
+      final int end;
+      final boolean word;
+      if (c == '"') {
+        end = endOfString(query, i);
+        word = true;
+      } else if (isNameStart(c)) {
+        end = endOfName(query, i);
+        word = true;
+      } else if (c == '-' || isDigit(c)) {
+        end = endOfNumber(query, i);
+        word = true;
+      } else if (query.startsWith("...", i)) {
+        end = i + 3;
+        word = false;
+      } else if ("!$&():=@[]{|}".indexOf(c) >= 0) {
+        end = i + 1;
+        word = false;
+      } else {
+        end = -1;
+        word = false;
+      }
+      if (end < 0) {
+        // leave invalid queries to the parser
+        return new Result(query, true);
+      }
+
+      if (expectValue) {
+        argumentLiterals |= c != '$';
+        expectValue = false;
+      }
+      if (c == '{') {
+        braces++;
+      } else if (c == '}') {
+        braces--;
+      } else if (c == '(') {
+        parens++;
+      } else if (c == ')') {
+        parens--;
+      } else if (c == ':' && parens > 0 && braces > 0) {
+        expectValue = true;
+      }
+
+      if (word && previousWord) {
+        out.append(' ');
+      }
+      out.append(query, i, end);
+      previousWord = word;
+      i = end;
+    }
+    return new Result(out.toString(), argumentLiterals);
+  }
+
+  /** Return the index after a string or block string, or -1 if it is not terminated. */
+  private static int endOfString(String query, int start) {
+    final int length = query.length();
+    if (query.startsWith("\"\"\"", start)) {
+      int i = start + 3;
+      while (i < length) {
+        if (query.startsWith("\\\"\"\"", i)) {
+          i += 4;
+        } else if (query.startsWith("\"\"\"", i)) {
+          return i + 3;
+        } else {
+          i++;
+        }
+      }
+      return -1;
+    }
+
+    int i = start + 1;
+    while (i < length) {
+      final char c = query.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (c == '"') {
+        return i + 1;
+      } else if (c == '\n' || c == '\r') {
+        return -1;
+      } else {
+        i++;
+      }
+    }
+    return -1;
+  }
+
+  private static int endOfName(String query, int start) {
+    int i = start + 1;
+    while (i < query.length() && (isNameStart(query.charAt(i)) || isDigit(query.charAt(i)))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int endOfNumber(String query, int start) {
+    int i = start + 1;
+    while (i < query.length()) {
+      final char c = query.charAt(i);
+      if (isDigit(c) || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        i++;
+      } else {
+        break;
+      }
+    }
+    // a number may not be directly followed by a name start or a dot
+    if (i < query.length() && (isNameStart(query.charAt(i)) || query.charAt(i) == '.')) {
+      return -1;
+    }
+    return i;
+  }
+
+  private static boolean isNameStart(char c) {
+    return c == '_' || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.MoreObjects;
+import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Supplies the current {@link GraphQL} instance, and replaces it when the schema is reloaded. A new
+ * schema is built and validated in full before it is swapped in, so a schema which fails to build
+ * leaves the current one in place. Requests already executing keep the instance they started with
+ * and finish against the old schema.
+ *
+ * <p>Each schema generation caches its documents under its own keys in the shared {@link
+ * DocumentCache}, since a document is validated against a particular schema. The initial {@link
+ * GraphQL} instance must be built with {@link #initialDocumentCache(DocumentCache)}, so the keys of
+ * every generation, including the first, are prefixed. The documents of previous generations are
+ * discarded once a new generation is swapped in.
+ */
+public class ReloadableSchemaProvider implements Supplier<GraphQL> {
+
+  /** Builds the {@link GraphQL} instance for a generation of the schema. */
+  @FunctionalInterface
+  public interface Builder {
+    /**
+     * Build the GraphQL instance for a schema.
+     *
+     * @param schema GraphQL schema
+     * @param documentCache Document cache of this generation
+     * @param previous Generation being replaced, whose cached operations can warm the new cache
+     * @return the GraphQL instance
+     * @throws Exception if unable to build the instance
+     */
+    GraphQL build(GraphQLSchema schema, DocumentCache documentCache, Generation previous)
+        throws Exception;
+  }
+
+  /** A schema along with the GraphQL instance which executes against it. */
+  public static final class Generation {
+    private final long number;
+    private final GraphQLSchema schema;
+    private final GraphQL graphQL;
+    private final DocumentCache documentCache;
+    private final Instant loadedAt = Instant.now();
+
+    private Generation(
+        long number, GraphQLSchema schema, GraphQL graphQL, DocumentCache documentCache) {
+      this.number = number;
+      this.schema = schema;
+      this.graphQL = graphQL;
+      this.documentCache = documentCache;
+    }
+
+    public long getNumber() {
+      return number;
+    }
+
+    public GraphQLSchema getSchema() {
+      return schema;
+    }
+
+    public GraphQL getGraphQL() {
+      return graphQL;
+    }
+
+    public DocumentCache getDocumentCache() {
+      return documentCache;
+    }
+
+    public Instant getLoadedAt() {
+      return loadedAt;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("number", number)
+          .add("types", schema.getAllTypesAsList().size())
+          .add("loadedAt", loadedAt)
+          .toString();
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReloadableSchemaProvider.class);
+
+  private final Callable<GraphQLSchema> loader;
+  private final Builder builder;
+  private final DocumentCache documentCache;
+  private final AtomicReference<Generation> current;
+  private final Meter reloads;
+  private final Meter failures;
+
+  /**
+   * Return the view of the shared document cache used by the schema loaded at startup.
+   *
+   * @param documentCache Document cache shared by every generation
+   * @return the document cache of the first generation
+   */
+  public static DocumentCache initialDocumentCache(DocumentCache documentCache) {
+    return new GenerationDocumentCache(Objects.requireNonNull(documentCache), 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param initial GraphQL instance of the schema loaded at startup, built with {@link
+   *     #initialDocumentCache(DocumentCache)}
+   * @param loader Loads and validates the schema, for example {@link GraphQLFactory#build()}
+   * @param builder Builds the GraphQL instance of each reloaded schema
+   * @param documentCache Document cache shared by every generation
+   * @param registry Metric registry
+   */
+  public ReloadableSchemaProvider(
+      GraphQL initial,
+      Callable<GraphQLSchema> loader,
+      Builder builder,
+      DocumentCache documentCache,
+      MetricRegistry registry) {
+    this.loader = Objects.requireNonNull(loader);
+    this.builder = Objects.requireNonNull(builder);
+    this.documentCache = Objects.requireNonNull(documentCache);
+    this.current =
+        new AtomicReference<>(
+            new Generation(
+                0, initial.getGraphQLSchema(), initial, initialDocumentCache(documentCache)));
+
+    reloads = registry.meter(MetricRegistry.name(ReloadableSchemaProvider.class, "reloads"));
+    failures =
+        registry.meter(MetricRegistry.name(ReloadableSchemaProvider.class, "reload-failures"));
+  }
+
+  @Override
+  public GraphQL get() {
+    return current.get().getGraphQL();
+  }
+
+  public Generation getGeneration() {
+    return current.get();
+  }
+
+  /**
+   * Load the schema again, and swap it in once it has been built and validated.
+   *
+   * @return the new generation
+   * @throws Exception if the schema could not be loaded, in which case the current schema is kept
+   */
+  public synchronized Generation reload() throws Exception {
+    final Generation previous = current.get();
+    final long number = previous.getNumber() + 1;
+
+    final Generation next;
+    try {
+      final GraphQLSchema schema = loader.call();
+      final DocumentCache cache = new GenerationDocumentCache(documentCache, number);
+      next = new Generation(number, schema, builder.build(schema, cache, previous), cache);
+    } catch (Exception e) {
+      failures.mark();
+      LOGGER.error("Unable to reload GraphQL schema, keeping generation {}", previous.number, e);
+      throw e;
+    }
+
+    current.set(next);
+    final String prefix = GenerationDocumentCache.prefix(number);
+    documentCache.invalidateIf(key -> !key.startsWith(prefix));
+    reloads.mark();
+    LOGGER.info("Reloaded GraphQL schema: {}", next);
+    return next;
+  }
+
+  /** View of the shared document cache which keeps the documents of a generation apart. */
+  private static final class GenerationDocumentCache implements DocumentCache {
+    private final DocumentCache delegate;
+    private final String prefix;
+
+    private GenerationDocumentCache(DocumentCache delegate, long generation) {
+      this.delegate = delegate;
+      this.prefix = prefix(generation);
+    }
+
+    /**
+     * Key prefix of a generation. Every generation is prefixed and its number never contains NUL,
+     * so the first NUL of a key ends the prefix and one generation can never produce the key of
+     * another, whatever the query text sent by clients contains.
+     */
+    private static String prefix(long generation) {
+      return generation + "\0";
+    }
+
+    @Nullable
+    @Override
+    public CompletableFuture<CachedDocument> getIfPresent(String key) {
+      return delegate.getIfPresent(prefix + key);
+    }
+
+    @Override
+    public boolean contains(String key) {
+      return delegate.contains(prefix + key);
+    }
+
+    @Override
+    public CompletableFuture<CachedDocument> get(
+        String key, Function<String, CachedDocument> loader) {
+      return delegate.get(prefix + key, k -> loader.apply(key));
+    }
+
+    @Override
+    public CompletableFuture<CachedDocument> getAsync(
+        String key, Function<String, CompletableFuture<CachedDocument>> loader) {
+      return delegate.getAsync(prefix + key, k -> loader.apply(key));
+    }
+
+    @Override
+    public void invalidateAll() {
+      delegate.invalidateIf(key -> key.startsWith(prefix));
+    }
+
+    @Override
+    public void invalidateIf(Predicate<String> predicate) {
+      delegate.invalidateIf(
+          key -> key.startsWith(prefix) && predicate.test(key.substring(prefix.length())));
+    }
+
+    @Override
+    public List<CachedDocument> snapshot(int limit) {
+      return delegate.snapshot(limit, key -> key.startsWith(prefix));
+    }
+
+    @Override
+    public List<CachedDocument> snapshot(int limit, Predicate<String> predicate) {
+      return delegate.snapshot(
+          limit, key -> key.startsWith(prefix) && predicate.test(key.substring(prefix.length())));
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ForwardingList;
+import com.google.common.collect.ForwardingMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Decodes the JSON body of a {@code POST} request into operations by streaming over its tokens,
+ * rather than first reading the whole body into a tree of generic maps.
+ *
+ * <p>The text of the {@code query} is never decoded when the client has already sent the hash of a
+ * persisted query whose document is cached, as the document is looked up by its hash. Clients such
+ * as Apollo send the {@code extensions} after the {@code query}, so the query is only located while
+ * scanning the operation and decoded once its extensions are known. Variables holding objects or
+ * lists are only parsed when they are first read, which graphql-java does when it coerces the
+ * variables declared by the operation, so the variables of operations rejected before execution are
+ * never materialized.
+ */
+final class RequestDecoder {
+
+  private static final TypeReference<Map<String, Object>> MAP_TYPE =
+      new TypeReference<Map<String, Object>>() {};
+  private static final TypeReference<List<Object>> LIST_TYPE = new TypeReference<List<Object>>() {};
+
+  /** The operations of a request body. */
+  static final class Operations {
+    private final List<OperationRequest> operations;
+    private final boolean batched;
+
+    private Operations(List<OperationRequest> operations, boolean batched) {
+      this.operations = operations;
+      this.batched = batched;
+    }
+
+    List<OperationRequest> getOperations() {
+      return operations;
+    }
+
+    boolean isBatched() {
+      return batched;
+    }
+  }
+
+  private final ObjectMapper mapper;
+  @Nullable private final Predicate<String> cachedHashes;
+
+  /**
+   * Constructor
+   *
+   * @param mapper Object mapper used to parse extensions and variables
+   * @param cachedHashes Tests whether the document of a persisted query hash is cached, or null if
+   *     the query text should always be decoded
+   */
+  RequestDecoder(ObjectMapper mapper, @Nullable Predicate<String> cachedHashes) {
+    this.mapper = Objects.requireNonNull(mapper);
+    this.cachedHashes = cachedHashes;
+  }
+
+  /**
+   * Decode a request body holding a single operation or a batch of operations.
+   *
+   * @param body Request body
+   * @return the operations
+   * @throws IOException if the body is not valid JSON
+   * @throws IllegalArgumentException if the body is not a valid GraphQL request
+   */
+  Operations decode(byte[] body) throws IOException {
+    try (JsonParser parser = mapper.getFactory().createParser(body)) {
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_OBJECT) {
+        return new Operations(Collections.singletonList(readOperation(parser, body)), false);
+      }
+      if (token != JsonToken.START_ARRAY) {
+        throw new IllegalArgumentException("Expected a JSON object or array");
+      }
+
+      final List<OperationRequest> operations = new ArrayList<>();
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        if (token != JsonToken.START_OBJECT) {
+          throw new IllegalArgumentException("Operation must be a JSON object");
+        }
+        operations.add(readOperation(parser, body));
+      }
+      return new Operations(operations, true);
+    }
+  }
+
+  private OperationRequest readOperation(JsonParser parser, byte[] body) throws IOException {
+    String query = null;
+    long queryOffset = -1;
+    String operationName = null;
+    String documentId = null;
+    Map<String, Object> variables = null;
+    Map<String, Object> extensions = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      // field names are canonicalized by the parser, so they don't allocate
+      final String field = parser.currentName();
+      final JsonToken token = parser.nextToken();
+      switch (field) {
+        case "query":
+          // string values are only decoded when read, so a skipped query is never copied
+          query = null;
+          queryOffset = -1;
+          if (token == JsonToken.VALUE_STRING && cachedHashes != null && extensions == null) {
+            // the extensions may follow, so only remember where the query starts
+            queryOffset = parser.getTokenLocation().getByteOffset();
+          }
+          if (queryOffset < 0 && (token != JsonToken.VALUE_STRING || !isCached(extensions))) {
+            query = readText(parser, token);
+          }
+          break;
+        case "operationName":
+          operationName = readText(parser, token);
+          break;
+        case PersistedQueries.DOCUMENT_ID:
+          documentId = readText(parser, token);
+          break;
+        case "variables":
+          variables = readVariables(parser, token, body);
+          break;
+        case "extensions":
+          extensions = readMap(parser, token);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+
+    if (queryOffset >= 0 && !isCached(extensions)) {
+      query = readString(body, (int) queryOffset);
+    }
+    return new OperationRequest(
+        query,
+        operationName,
+        variables,
+        StreamingGraphQLServlet.withDocumentId(extensions, documentId));
+  }
+
+  private boolean isCached(@Nullable Map<String, Object> extensions) {
+    if (cachedHashes == null) {
+      return false;
+    }
+    final Optional<String> hash = PersistedQueries.getHash(extensions);
+    return hash.isPresent() && cachedHashes.test(hash.get());
+  }
+
+  /**
+   * Decode the string value which starts at an offset of the request body.
+   *
+   * @param body Request body
+   * @param offset Offset of the opening quote of the string
+   * @return the decoded string
+   * @throws IOException if unable to read the string
+   */
+  private String readString(byte[] body, int offset) throws IOException {
+    // only the first token is read, so the rest of the body is never scanned again
+    try (JsonParser parser = mapper.getFactory().createParser(body, offset, body.length - offset)) {
+      return parser.nextTextValue();
+    }
+  }
+
+  @Nullable
+  private static String readText(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token != JsonToken.VALUE_STRING) {
+      throw new IllegalArgumentException("Expected a string");
+    }
+    return parser.getText();
+  }
+
+  @Nullable
+  private Map<String, Object> readMap(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      // some clients send the map as a JSON encoded string
+      final String json = parser.getText();
+      return json.isEmpty() ? null : mapper.readValue(json, MAP_TYPE);
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new IllegalArgumentException("Expected a JSON object");
+    }
+    return mapper.readValue(parser, MAP_TYPE);
+  }
+
+  /**
+   * Read the variables, keeping the object and list values as lazily parsed views of the body.
+   *
+   * @param parser JSON parser positioned on the value of the {@code variables} field
+   * @param token Current token
+   * @param body Request body
+   * @return the variables, or null if there are none
+   * @throws IOException if unable to read the variables
+   */
+  @Nullable
+  private Map<String, Object> readVariables(JsonParser parser, JsonToken token, byte[] body)
+      throws IOException {
+    if (token != JsonToken.START_OBJECT) {
+      return readMap(parser, token);
+    }
+
+    final Map<String, Object> variables = new LinkedHashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = parser.currentName();
+      final JsonToken value = parser.nextToken();
+      final long start = parser.getTokenLocation().getByteOffset();
+      if ((value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) && start >= 0) {
+        parser.skipChildren();
+        final int offset = (int) start;
+        final int length = (int) (parser.getCurrentLocation().getByteOffset() - start);
+        variables.put(
+            name,
+            value == JsonToken.START_OBJECT
+                ? new LazyMap(Suppliers.memoize(() -> parse(body, offset, length, MAP_TYPE)))
+                : new LazyList(Suppliers.memoize(() -> parse(body, offset, length, LIST_TYPE))));
+      } else {
+        variables.put(name, mapper.readValue(parser, Object.class));
+      }
+    }
+    return variables;
+  }
+
+  private <T> T parse(byte[] body, int offset, int length, TypeReference<T> type) {
+    try {
+      return mapper.readValue(body, offset, length, type);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Object variable which is parsed from the request body when it is first read. */
+  private static final class LazyMap extends ForwardingMap<String, Object> {
+    private final Supplier<Map<String, Object>> delegate;
+
+    private LazyMap(Supplier<Map<String, Object>> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected Map<String, Object> delegate() {
+      return delegate.get();
+    }
+  }
+
+  /** List variable which is parsed from the request body when it is first read. */
+  private static final class LazyList extends ForwardingList<Object> {
+    private final Supplier<List<Object>> delegate;
+
+    private LazyList(Supplier<List<Object>> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected List<Object> delegate() {
+      return delegate.get();
+    }
+  }
+}
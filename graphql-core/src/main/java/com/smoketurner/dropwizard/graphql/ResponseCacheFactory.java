@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import graphql.schema.GraphQLSchema;
+import io.dropwizard.core.setup.Environment;
+import jakarta.servlet.DispatcherType;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration for the full-response cache for idempotent queries. */
+public class ResponseCacheFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCacheFactory.class);
+
+  private boolean enabled = false;
+
+  @NotNull private String cache = "maximumWeight=67108864";
+
+  @Min(0)
+  private int defaultMaxAge = 0;
+
+  @NotNull private List<String> varyHeaders = new ArrayList<>(List.of("Authorization", "Cookie"));
+
+  @Min(0)
+  private int maxBodySize = 1_048_576;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Specification of the response cache, in the {@link CacheBuilderSpec} format. When {@code
+   * maximumWeight} is used, entries are weighed by the size of the response body in bytes.
+   *
+   * @return the cache specification
+   */
+  @JsonProperty
+  public String getCache() {
+    return cache;
+  }
+
+  @JsonProperty
+  public void setCache(String cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Max age in seconds of root fields and composite fields without a {@code @cacheControl} hint.
+   *
+   * @return the default max age
+   */
+  @JsonProperty
+  public int getDefaultMaxAge() {
+    return defaultMaxAge;
+  }
+
+  @JsonProperty
+  public void setDefaultMaxAge(int maxAge) {
+    defaultMaxAge = maxAge;
+  }
+
+  /**
+   * Request headers which are included in the cache key, such as credentials which change the
+   * response. Responses to requests including any of these headers are marked as private, and
+   * requests with an {@code Authorization} or {@code Cookie} header which is not listed bypass the
+   * cache.
+   *
+   * @return the request headers
+   */
+  @JsonProperty
+  public List<String> getVaryHeaders() {
+    return Collections.unmodifiableList(varyHeaders);
+  }
+
+  @JsonProperty
+  public void setVaryHeaders(List<String> headers) {
+    varyHeaders = Optional.ofNullable(headers).orElseGet(ArrayList::new);
+  }
+
+  /**
+   * Maximum size in bytes of a {@code POST} body which is read to build a cache key. Larger
+   * requests are not cached.
+   *
+   * @return the maximum body size
+   */
+  @JsonProperty
+  public int getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  @JsonProperty
+  public void setMaxBodySize(int size) {
+    maxBodySize = size;
+  }
+
+  /**
+   * Build the instrumentation which computes the max age of each query.
+   *
+   * @param schema GraphQL schema
+   * @return the instrumentation
+   */
+  public CacheControlInstrumentation buildInstrumentation(GraphQLSchema schema) {
+    return new CacheControlInstrumentation(new CacheControlCalculator(schema, defaultMaxAge));
+  }
+
+  /**
+   * Build the response cache filter and register it in front of a servlet.
+   *
+   * @param environment Dropwizard environment
+   * @param servletName Name of the GraphQL servlet
+   * @return the filter
+   */
+  public ResponseCacheFilter build(Environment environment, String servletName) {
+    LOGGER.info("Response Cache: {}", cache);
+
+    final CacheBuilderSpec spec = CacheBuilderSpec.parse(cache);
+    final Cache<String, ResponseCacheFilter.CachedResponse> responses;
+    if (cache.contains("maximumWeight")) {
+      responses =
+          CacheBuilder.from(spec)
+              .weigher(
+                  (String key, ResponseCacheFilter.CachedResponse value) ->
+                      key.length() + value.getWeight())
+              .build();
+    } else {
+      responses = CacheBuilder.from(spec).build();
+    }
+
+    final ResponseCacheFilter filter =
+        new ResponseCacheFilter(
+            responses,
+            environment.getObjectMapper(),
+            varyHeaders,
+            maxBodySize,
+            environment.metrics());
+    environment
+        .servlets()
+        .addFilter("graphql-response-cache", filter)
+        .addMappingForServletNames(EnumSet.of(DispatcherType.REQUEST), true, servletName);
+    return filter;
+  }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.net.HttpHeaders;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filter which caches the full response of idempotent queries. Responses are keyed on the hash of
+ * the normalized query document, the operation name, the canonicalized variables and any configured
+ * request headers, and are only cached when {@link CacheControlInstrumentation} reports a positive
+ * max age. Requests carrying credentials which are not part of the key bypass the cache, and
+ * responses with a {@code PRIVATE} scope hint are only cached for requests whose credentials are
+ * part of the key.
+ *
+ * <p>Only {@code POST} bodies of JSON or GraphQL requests up to a maximum size are read, so other
+ * requests such as multipart file uploads stream through untouched.
+ *
+ * <p>Responses include {@code Cache-Control} and {@code ETag} headers, and requests with a matching
+ * {@code If-None-Match} header are answered with a {@code 304 Not Modified}.
+ */
+public class ResponseCacheFilter implements Filter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCacheFilter.class);
+  private static final List<String> CREDENTIAL_HEADERS =
+      List.of(HttpHeaders.AUTHORIZATION, HttpHeaders.COOKIE);
+
+  /** A cached response body, along with its compressed forms once they have been requested. */
+  static final class CachedResponse {
+    private final byte[] body;
+    @Nullable private final String contentType;
+    private final String etag;
+    private final long expiresAtNanos;
+    private final boolean privateScope;
+    private final Map<String, byte[]> encoded = new ConcurrentHashMap<>(4);
+
+    CachedResponse(
+        byte[] body, @Nullable String contentType, long expiresAtNanos, boolean privateScope) {
+      this.body = body;
+      this.contentType = contentType;
+      this.etag = '"' + PersistedQueries.sha256(body) + '"';
+      this.expiresAtNanos = expiresAtNanos;
+      this.privateScope = privateScope;
+    }
+
+    int getWeight() {
+      return body.length;
+    }
+
+    private byte[] getBody(ResponseCompressor.Encoding encoding) {
+      return encoded.computeIfAbsent(encoding.getName(), name -> encoding.encode(body));
+    }
+
+    private long getRemainingSeconds(long nowNanos) {
+      return TimeUnit.NANOSECONDS.toSeconds(expiresAtNanos - nowNanos);
+    }
+  }
+
+  private final Cache<String, CachedResponse> cache;
+  private final ObjectMapper mapper;
+  private final List<String> varyHeaders;
+  private final int maxBodySize;
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter notModified;
+
+  /**
+   * Constructor
+   *
+   * @param cache Response cache
+   * @param mapper Object mapper used to parse requests
+   * @param varyHeaders Request headers which are part of the cache key
+   * @param maxBodySize Maximum size in bytes of a {@code POST} body which is read to build a key
+   * @param registry Metric registry
+   */
+  public ResponseCacheFilter(
+      Cache<String, CachedResponse> cache,
+      ObjectMapper mapper,
+      List<String> varyHeaders,
+      int maxBodySize,
+      MetricRegistry registry) {
+    this.cache = Objects.requireNonNull(cache);
+    this.mapper = mapper.copy().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    this.varyHeaders = Objects.requireNonNull(varyHeaders);
+    this.maxBodySize = maxBodySize;
+
+    hits = registry.meter(MetricRegistry.name(ResponseCacheFilter.class, "hits"));
+    misses = registry.meter(MetricRegistry.name(ResponseCacheFilter.class, "misses"));
+    notModified = registry.meter(MetricRegistry.name(ResponseCacheFilter.class, "not-modified"));
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(req instanceof HttpServletRequest) || !(resp instanceof HttpServletResponse)) {
+      chain.doFilter(req, resp);
+      return;
+    }
+
+    final HttpServletRequest request = (HttpServletRequest) req;
+    final HttpServletResponse response = (HttpServletResponse) resp;
+
+    // incremental responses are flushed as they are produced, so they are never captured, and a
+    // response for credentials which are not part of the key must not be served to anyone else
+    if (StreamingGraphQLServlet.acceptsMultipart(request)
+        || hasUnkeyedCredentials(request, varyHeaders)) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    final HttpServletRequest buffered;
+    final Optional<String> key;
+    if ("GET".equals(request.getMethod())) {
+      buffered = request;
+      key =
+          buildKey(
+              request,
+              request.getParameter("query"),
+              request.getParameter("operationName"),
+              readTree(request.getParameter("variables")),
+              readTree(request.getParameter("extensions")));
+    } else if ("POST".equals(request.getMethod())) {
+      buffered = BufferedRequestWrapper.buffer(request, maxBodySize);
+      final Optional<byte[]> body = BufferedRequestWrapper.getBody(buffered);
+      key = body.isPresent() ? buildKey(request, body.get()) : Optional.empty();
+    } else {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    if (!key.isPresent()) {
+      chain.doFilter(buffered, response);
+      return;
+    }
+
+    final long now = System.nanoTime();
+    final CachedResponse cached = cache.getIfPresent(key.get());
+    if (cached != null) {
+      if (cached.getRemainingSeconds(now) > 0) {
+        hits.mark();
+        write(request, response, cached, now);
+        return;
+      }
+      cache.invalidate(key.get());
+    }
+
+    misses.mark();
+    final CapturingResponseWrapper capture = new CapturingResponseWrapper(response);
+    chain.doFilter(buffered, capture);
+    final byte[] body = capture.getBody();
+
+    final Object maxAge = request.getAttribute(CacheControlInstrumentation.MAX_AGE_ATTRIBUTE);
+    final boolean privateScope =
+        Boolean.TRUE.equals(request.getAttribute(CacheControlInstrumentation.PRIVATE_ATTRIBUTE));
+    // without credentials in the key, a private response would be shared between users
+    if (capture.getStatus() == HttpServletResponse.SC_OK
+        && maxAge instanceof Integer
+        && (Integer) maxAge > 0
+        && (!privateScope || isPrivate(request))) {
+      final CachedResponse entry =
+          new CachedResponse(
+              body,
+              capture.getContentType(),
+              now + TimeUnit.SECONDS.toNanos((Integer) maxAge),
+              privateScope);
+      cache.put(key.get(), entry);
+      write(request, response, entry, now);
+      return;
+    }
+
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private void write(
+      HttpServletRequest request, HttpServletResponse response, CachedResponse cached, long now)
+      throws IOException {
+    final String visibility = cached.privateScope || isPrivate(request) ? "private" : "public";
+    final long maxAge = cached.getRemainingSeconds(now);
+    response.setHeader("Cache-Control", visibility + ", max-age=" + maxAge);
+
+    final Object attribute = request.getAttribute(ResponseCompressor.ENCODING_ATTRIBUTE);
+    final ResponseCompressor.Encoding encoding =
+        attribute instanceof ResponseCompressor.Encoding
+                && ((ResponseCompressor.Encoding) attribute).accepts(cached.body.length)
+            ? (ResponseCompressor.Encoding) attribute
+            : null;
+    response.setHeader("ETag", encoding == null ? cached.etag : encoding.etag(cached.etag));
+
+    if (matches(request.getHeader("If-None-Match"), cached.etag)) {
+      notModified.mark();
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_OK);
+    if (cached.contentType != null) {
+      response.setContentType(cached.contentType);
+    }
+
+    // the compressed bytes are kept with the response, so hits are written without compressing
+    final byte[] body = encoding == null ? cached.body : cached.getBody(encoding);
+    if (encoding != null) {
+      response.setHeader("Content-Encoding", encoding.getName());
+      response.addHeader("Vary", "Accept-Encoding");
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  private Optional<String> buildKey(HttpServletRequest request, byte[] body) {
+    if (Strings.nullToEmpty(request.getContentType())
+        .startsWith(StreamingGraphQLServlet.APPLICATION_GRAPHQL)) {
+      return buildKey(request, new String(body, StandardCharsets.UTF_8), null, null, null);
+    }
+
+    final JsonNode root;
+    try {
+      root = mapper.readTree(body);
+    } catch (IOException e) {
+      LOGGER.debug("Unable to parse GraphQL request", e);
+      return Optional.empty();
+    }
+    if (root == null || !root.isObject()) {
+      // batched requests aren't cached
+      return Optional.empty();
+    }
+    return buildKey(
+        request,
+        root.path("query").textValue(),
+        root.path("operationName").textValue(),
+        root.get("variables"),
+        root.get("extensions"));
+  }
+
+  private Optional<String> buildKey(
+      HttpServletRequest request,
+      @Nullable String query,
+      @Nullable String operationName,
+      @Nullable JsonNode variables,
+      @Nullable JsonNode extensions) {
+
+    final String hash;
+    final String persisted =
+        extensions == null
+            ? null
+            : extensions.path(PersistedQueries.EXTENSION).path(PersistedQueries.HASH).textValue();
+    if (!Strings.isNullOrEmpty(persisted)) {
+      hash = persisted;
+    } else if (!Strings.isNullOrEmpty(query)) {
+      // queries which only differ in whitespace, commas or comments share a response
+      hash = PersistedQueries.sha256(QueryNormalizer.normalize(query).getQuery());
+    } else {
+      return Optional.empty();
+    }
+
+    final StringBuilder key = new StringBuilder(hash);
+    key.append('\0').append(Strings.nullToEmpty(operationName));
+    try {
+      key.append('\0').append(canonicalize(variables));
+    } catch (JsonProcessingException e) {
+      return Optional.empty();
+    }
+    for (String header : varyHeaders) {
+      key.append('\0').append(Strings.nullToEmpty(request.getHeader(header)));
+    }
+    return Optional.of(PersistedQueries.sha256(key.toString()));
+  }
+
+  private String canonicalize(@Nullable JsonNode variables) throws JsonProcessingException {
+    if (variables == null || variables.isNull() || variables.isEmpty()) {
+      return "";
+    }
+    // maps are serialized with sorted keys, so equivalent variables produce the same key
+    return mapper.writeValueAsString(mapper.treeToValue(variables, Object.class));
+  }
+
+  @Nullable
+  private JsonNode readTree(@Nullable String json) {
+    if (Strings.isNullOrEmpty(json)) {
+      return null;
+    }
+    try {
+      return mapper.readTree(json);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private boolean isPrivate(HttpServletRequest request) {
+    for (String header : varyHeaders) {
+      if (request.getHeader(header) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return whether a request carries credentials, such as an {@code Authorization} header, a cookie
+   * or an authenticated principal, which are not among the given headers.
+   *
+   * @param request HTTP request
+   * @param headers Request headers which are accounted for
+   * @return true if the request has credentials which are not accounted for
+   */
+  static boolean hasUnkeyedCredentials(HttpServletRequest request, List<String> headers) {
+    boolean keyed = false;
+    for (String credential : CREDENTIAL_HEADERS) {
+      if (request.getHeader(credential) != null) {
+        if (!containsIgnoreCase(headers, credential)) {
+          return true;
+        }
+        keyed = true;
+      }
+    }
+    // a principal authenticated some other way, such as a client certificate
+    return request.getUserPrincipal() != null && !keyed;
+  }
+
+  private static boolean containsIgnoreCase(List<String> values, String value) {
+    for (String candidate : values) {
+      if (candidate.equalsIgnoreCase(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean matches(@Nullable String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      final String value = candidate.trim();
+      if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+/**
+ * Content coding used to compress GraphQL responses, see {@link ResponseCodecs} for the built-in
+ * codings.
+ */
+public interface ResponseCodec {
+
+  /**
+   * Return the name of the coding, as used in the {@code Accept-Encoding} and {@code
+   * Content-Encoding} headers.
+   *
+   * @return the coding name
+   */
+  String getName();
+
+  /**
+   * Compress a response body.
+   *
+   * @param body Response body
+   * @return the compressed body
+   */
+  byte[] encode(byte[] body);
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.util.Native;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Built-in response codecs. Brotli and zstd need native libraries, so they are only available when
+ * {@code brotli4j} or {@code zstd-jni} and their natives for the platform are on the classpath.
+ */
+public final class ResponseCodecs {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCodecs.class);
+
+  public static final String GZIP = "gzip";
+  public static final String BROTLI = "br";
+  public static final String ZSTD = "zstd";
+
+  private ResponseCodecs() {}
+
+  /**
+   * Return a gzip codec.
+   *
+   * @param level Compression level, from 1 to 9
+   * @return the codec
+   */
+  public static ResponseCodec gzip(int level) {
+    return new Gzip(level);
+  }
+
+  /**
+   * Return a Brotli codec, if the native library is available.
+   *
+   * @param quality Compression quality, from 0 to 11
+   * @return the codec
+   */
+  public static Optional<ResponseCodec> brotli(int quality) {
+    try {
+      if (Brotli.isAvailable()) {
+        return Optional.of(new Brotli(quality));
+      }
+    } catch (LinkageError e) {
+      LOGGER.debug("Unable to load brotli4j", e);
+    }
+    LOGGER.warn("Brotli is not available, add brotli4j and its natives to enable it");
+    return Optional.empty();
+  }
+
+  /**
+   * Return a zstd codec, if the native library is available.
+   *
+   * @param level Compression level, from 1 to 22
+   * @return the codec
+   */
+  public static Optional<ResponseCodec> zstd(int level) {
+    try {
+      if (Zstandard.isAvailable()) {
+        return Optional.of(new Zstandard(level));
+      }
+    } catch (LinkageError e) {
+      LOGGER.debug("Unable to load zstd-jni", e);
+    }
+    LOGGER.warn("Zstandard is not available, add zstd-jni to enable it");
+    return Optional.empty();
+  }
+
+  private static final class Gzip implements ResponseCodec {
+    private final int level;
+
+    private Gzip(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public String getName() {
+      return GZIP;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 32);
+      try (GZIPOutputStream gzip =
+          new GZIPOutputStream(out) {
+            {
+              def.setLevel(level);
+            }
+          }) {
+        gzip.write(body);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  // the native libraries are only loaded when these classes are first used
+  private static final class Brotli implements ResponseCodec {
+    private final Encoder.Parameters parameters;
+
+    private Brotli(int quality) {
+      this.parameters = new Encoder.Parameters().setQuality(quality);
+    }
+
+    private static boolean isAvailable() {
+      return Brotli4jLoader.isAvailable();
+    }
+
+    @Override
+    public String getName() {
+      return BROTLI;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) {
+      try {
+        return Encoder.compress(body, parameters);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static final class Zstandard implements ResponseCodec {
+    private final int level;
+
+    private Zstandard(int level) {
+      this.level = level;
+    }
+
+    private static boolean isAvailable() {
+      Native.load();
+      return Native.isLoaded();
+    }
+
+    @Override
+    public String getName() {
+      return ZSTD;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) {
+      return Zstd.compress(body, level);
+    }
+  }
+}
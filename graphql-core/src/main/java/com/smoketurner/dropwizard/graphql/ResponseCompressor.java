@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Negotiates the content coding of GraphQL responses from the {@code Accept-Encoding} header and
+ * compresses them, recording the compression ratio and CPU time of each coding.
+ */
+public class ResponseCompressor {
+
+  /** Request attribute holding the {@link Encoding} negotiated for the response. */
+  public static final String ENCODING_ATTRIBUTE = ResponseCompressor.class.getName() + ".encoding";
+
+  private static final Splitter COMMA = Splitter.on(',').trimResults().omitEmptyStrings();
+  private static final Splitter SEMICOLON = Splitter.on(';').trimResults();
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  /** A content coding along with its metrics. */
+  public final class Encoding {
+    private final ResponseCodec codec;
+    private final Histogram ratio;
+    private final Timer cpuTime;
+
+    private Encoding(ResponseCodec codec, MetricRegistry registry) {
+      this.codec = codec;
+      ratio =
+          registry.histogram(
+              MetricRegistry.name(ResponseCompressor.class, codec.getName(), "ratio"));
+      cpuTime =
+          registry.timer(
+              MetricRegistry.name(ResponseCompressor.class, codec.getName(), "cpu-time"));
+    }
+
+    public String getName() {
+      return codec.getName();
+    }
+
+    /**
+     * Return whether a body is large enough to be worth compressing.
+     *
+     * @param length Body length in bytes
+     * @return true if the body should be compressed
+     */
+    public boolean accepts(int length) {
+      return length >= minSize;
+    }
+
+    /**
+     * Compress a response body.
+     *
+     * @param body Response body
+     * @return the compressed body
+     */
+    public byte[] encode(byte[] body) {
+      final long start = cpuTime();
+      final byte[] encoded = codec.encode(body);
+      cpuTime.update(cpuTime() - start, TimeUnit.NANOSECONDS);
+      // percentage of the original size
+      ratio.update(body.length == 0 ? 100 : (int) (100L * encoded.length / body.length));
+      return encoded;
+    }
+
+    /**
+     * Return the entity tag of the compressed representation of a response.
+     *
+     * @param etag Entity tag of the uncompressed response
+     * @return the entity tag
+     */
+    public String etag(String etag) {
+      final String suffix = "-" + getName() + '"';
+      if (!etag.endsWith("\"") || etag.endsWith(suffix)) {
+        return etag;
+      }
+      return etag.substring(0, etag.length() - 1) + suffix;
+    }
+  }
+
+  private final List<Encoding> encodings;
+  private final int minSize;
+
+  /**
+   * Constructor
+   *
+   * @param codecs Codecs in order of preference
+   * @param minSize Minimum size in bytes of the responses to compress
+   * @param registry Metric registry
+   */
+  public ResponseCompressor(List<ResponseCodec> codecs, int minSize, MetricRegistry registry) {
+    final ImmutableList.Builder<Encoding> builder = ImmutableList.builder();
+    for (ResponseCodec codec : codecs) {
+      builder.add(new Encoding(codec, registry));
+    }
+    this.encodings = builder.build();
+    this.minSize = minSize;
+  }
+
+  public List<Encoding> getEncodings() {
+    return encodings;
+  }
+
+  /**
+   * Choose the coding for a response. The coding the client prefers is used, and the codings it
+   * prefers equally are chosen in the configured order.
+   *
+   * @param acceptEncoding Value of the {@code Accept-Encoding} header
+   * @return the coding, or empty if the response should not be compressed
+   */
+  public Optional<Encoding> negotiate(@Nullable String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+      return Optional.empty();
+    }
+
+    Encoding best = null;
+    double bestQuality = 0;
+    for (Encoding encoding : encodings) {
+      final double quality = getQuality(acceptEncoding, encoding.getName());
+      if (quality > bestQuality) {
+        best = encoding;
+        bestQuality = quality;
+      }
+    }
+    return Optional.ofNullable(best);
+  }
+
+  /**
+   * Return the quality value the client gave a coding, falling back to the value of {@code *}.
+   *
+   * @param acceptEncoding Value of the {@code Accept-Encoding} header
+   * @param name Coding name
+   * @return the quality value, or zero if the coding is not acceptable
+   */
+  private static double getQuality(String acceptEncoding, String name) {
+    double wildcard = 0;
+    for (String element : COMMA.split(acceptEncoding)) {
+      final List<String> parts = SEMICOLON.splitToList(element);
+      final String coding = parts.get(0).toLowerCase(Locale.ROOT);
+      if (coding.equals(name)) {
+        return parseQuality(parts);
+      } else if (coding.equals("*")) {
+        wildcard = parseQuality(parts);
+      }
+    }
+    return wildcard;
+  }
+
+  private static double parseQuality(List<String> parts) {
+    for (int i = 1; i < parts.size(); i++) {
+      final String parameter = parts.get(i);
+      if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  private static long cpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported()
+        ? THREADS.getCurrentThreadCpuTime()
+        : System.nanoTime();
+  }
+}
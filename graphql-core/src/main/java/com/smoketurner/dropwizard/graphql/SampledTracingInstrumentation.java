@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.execution.instrumentation.tracing.TracingInstrumentation;
+import graphql.execution.instrumentation.tracing.TracingSupport;
+import graphql.language.Document;
+import graphql.validation.ValidationError;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instrumentation which produces <a href="https://github.com/apollographql/apollo-tracing">Apollo
+ * Tracing</a> data, like {@link TracingInstrumentation}, for only a sample of requests. Requests
+ * which aren't sampled don't allocate any tracing state.
+ */
+public class SampledTracingInstrumentation extends SimplePerformantInstrumentation {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SampledTracingInstrumentation.class);
+  private static final String EXTENSION = "tracing";
+
+  public enum Sampling {
+    /** Trace every request */
+    ALWAYS,
+    /** Trace a random fraction of requests */
+    RATE,
+    /** Trace requests which include a request header */
+    HEADER,
+    /** Trace every request, but only log the traces of slow requests instead of returning them */
+    SLOW
+  }
+
+  private static final class SampledState implements InstrumentationState {
+    private final TracingSupport tracing;
+    private final long startNanos = System.nanoTime();
+
+    private SampledState(TracingSupport tracing) {
+      this.tracing = tracing;
+    }
+  }
+
+  private final Sampling sampling;
+  private final double sampleRate;
+  private final String header;
+  private final long slowThresholdNanos;
+  private final boolean includeTrivialDataFetchers;
+  private final ObjectMapper mapper;
+  private final Meter sampled;
+  private final Meter slow;
+
+  /**
+   * Constructor
+   *
+   * @param sampling Sampling mode
+   * @param sampleRate Fraction of requests to trace in {@link Sampling#RATE} mode
+   * @param header Request header which enables tracing in {@link Sampling#HEADER} mode
+   * @param slowThresholdNanos Minimum duration of a request to log in {@link Sampling#SLOW} mode
+   * @param includeTrivialDataFetchers Whether to trace trivial property data fetchers
+   * @param mapper Object mapper used to log slow traces
+   * @param registry Metric registry
+   */
+  public SampledTracingInstrumentation(
+      Sampling sampling,
+      double sampleRate,
+      String header,
+      long slowThresholdNanos,
+      boolean includeTrivialDataFetchers,
+      ObjectMapper mapper,
+      MetricRegistry registry) {
+    this.sampling = Objects.requireNonNull(sampling);
+    this.sampleRate = sampleRate;
+    this.header = Objects.requireNonNull(header);
+    this.slowThresholdNanos = slowThresholdNanos;
+    this.includeTrivialDataFetchers = includeTrivialDataFetchers;
+    this.mapper = Objects.requireNonNull(mapper);
+
+    sampled = registry.meter(MetricRegistry.name(SampledTracingInstrumentation.class, "sampled"));
+    slow = registry.meter(MetricRegistry.name(SampledTracingInstrumentation.class, "slow"));
+  }
+
+  @Nullable
+  @Override
+  public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+    if (!isSampled(parameters.getExecutionInput())) {
+      return null;
+    }
+    sampled.mark();
+    return new SampledState(new TracingSupport(includeTrivialDataFetchers));
+  }
+
+  @Override
+  public InstrumentationContext<Document> beginParse(
+      InstrumentationExecutionParameters parameters, InstrumentationState state) {
+    if (!(state instanceof SampledState)) {
+      return SimpleInstrumentationContext.noOp();
+    }
+    final TracingSupport.TracingContext context = ((SampledState) state).tracing.beginParse();
+    return SimpleInstrumentationContext.whenCompleted((result, error) -> context.onEnd());
+  }
+
+  @Override
+  public InstrumentationContext<List<ValidationError>> beginValidation(
+      InstrumentationValidationParameters parameters, InstrumentationState state) {
+    if (!(state instanceof SampledState)) {
+      return SimpleInstrumentationContext.noOp();
+    }
+    final TracingSupport.TracingContext context = ((SampledState) state).tracing.beginValidation();
+    return SimpleInstrumentationContext.whenCompleted((result, error) -> context.onEnd());
+  }
+
+  @Override
+  public InstrumentationContext<Object> beginFieldFetch(
+      InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
+    if (!(state instanceof SampledState)) {
+      return SimpleInstrumentationContext.noOp();
+    }
+    final TracingSupport.TracingContext context =
+        ((SampledState) state)
+            .tracing.beginField(parameters.getEnvironment(), parameters.isTrivialDataFetcher());
+    return SimpleInstrumentationContext.whenCompleted((result, error) -> context.onEnd());
+  }
+
+  @Override
+  public CompletableFuture<ExecutionResult> instrumentExecutionResult(
+      ExecutionResult executionResult,
+      InstrumentationExecutionParameters parameters,
+      InstrumentationState state) {
+    if (!(state instanceof SampledState)) {
+      return CompletableFuture.completedFuture(executionResult);
+    }
+
+    final SampledState sampledState = (SampledState) state;
+    final Map<String, Object> tracing = sampledState.tracing.snapshotTracingData();
+
+    if (sampling == Sampling.SLOW) {
+      final long duration = System.nanoTime() - sampledState.startNanos;
+      if (duration >= slowThresholdNanos) {
+        slow.mark();
+        logSlowTrace(parameters.getOperation(), duration, tracing);
+      }
+      return CompletableFuture.completedFuture(executionResult);
+    }
+
+    return CompletableFuture.completedFuture(
+        ExecutionResultImpl.newExecutionResult()
+            .from(executionResult)
+            .addExtension(EXTENSION, tracing)
+            .build());
+  }
+
+  private boolean isSampled(ExecutionInput executionInput) {
+    switch (sampling) {
+      case RATE:
+        return ThreadLocalRandom.current().nextDouble() < sampleRate;
+      case HEADER:
+        final HttpServletRequest request =
+            executionInput.getGraphQLContext().get(HttpServletRequest.class);
+        return request != null && request.getHeader(header) != null;
+      case ALWAYS:
+      case SLOW:
+      default:
+        return true;
+    }
+  }
+
+  private void logSlowTrace(
+      @Nullable String operationName, long durationNanos, Map<String, Object> tracing) {
+    try {
+      LOGGER.warn(
+          "Slow GraphQL operation {} took {}ms: {}",
+          operationName,
+          TimeUnit.NANOSECONDS.toMillis(durationNanos),
+          mapper.writeValueAsString(tracing));
+    } catch (JsonProcessingException e) {
+      LOGGER.warn("Unable to serialize trace for slow GraphQL operation {}", operationName, e);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import graphql.schema.idl.UnExecutableSchemaGenerator;
+import graphql.schema.idl.errors.SchemaProblem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses schema files into a merged {@link TypeDefinitionRegistry}, and compiles the registry into
+ * a binary artifact at build time so it can be loaded at startup without parsing any SDL.
+ *
+ * <p>The artifact records a fingerprint of the schema files it was compiled from, and is ignored if
+ * the schema files have changed since.
+ */
+public final class SchemaCompiler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SchemaCompiler.class);
+  private static final int FORMAT_VERSION = 1;
+
+  // only the AST classes from graphql-java and the JDK collections they use may be deserialized
+  static final ObjectInputFilter FILTER =
+      ObjectInputFilter.Config.createFilter(
+          "maxdepth=256;graphql.**;java.lang.*;java.util.*;java.math.*;!*");
+
+  private SchemaCompiler() {}
+
+  /**
+   * Compile schema files into a binary artifact.
+   *
+   * <pre>
+   * java -cp ... com.smoketurner.dropwizard.graphql.SchemaCompiler OUTPUT SCHEMA_FILE...
+   * </pre>
+   *
+   * @param args Output file, followed by the schema files as classpath resources
+   * @throws IOException if unable to read a schema file or write the artifact
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: SchemaCompiler <output> <schema file>...");
+      System.exit(1);
+    }
+    final List<String> files = Arrays.asList(args).subList(1, args.length);
+    compile(files, Paths.get(args[0]));
+  }
+
+  /**
+   * Parse and validate schema files, and write the merged type registry to a file.
+   *
+   * @param files Schema files as classpath resources
+   * @param output Artifact file
+   * @throws IOException if unable to read a schema file or write the artifact
+   * @throws SchemaProblem if the schema is invalid
+   */
+  public static void compile(List<String> files, Path output) throws IOException {
+    final List<String> sources = read(files);
+    final TypeDefinitionRegistry registry = parse(sources);
+
+    // fail the build on an invalid schema, rather than at startup
+    final TypeDefinitionRegistry validation = new TypeDefinitionRegistry().merge(registry);
+    BuiltInDirectives.register(validation);
+    UnExecutableSchemaGenerator.makeUnExecutableSchema(validation);
+
+    final Path absolute = output.toAbsolutePath();
+    Files.createDirectories(absolute.getParent());
+    final Path temp = Files.createTempFile(absolute.getParent(), "graphql-schema", ".tmp");
+    try (ObjectOutputStream out =
+        new ObjectOutputStream(
+            new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(fingerprint(sources));
+      out.writeObject(registry);
+    }
+    Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+    LOGGER.info("Compiled {} GraphQL schema files to {}", files.size(), absolute);
+  }
+
+  /**
+   * Read the text of each schema file, in parallel.
+   *
+   * @param files Schema files as file paths, or as classpath resources when no such file exists
+   * @return the text of each file, in the same order
+   */
+  static List<String> read(List<String> files) {
+    // the pool threads don't inherit the context class loader of the caller
+    final ClassLoader loader = getClassLoader();
+    return files.parallelStream()
+        .filter(f -> !Strings.isNullOrEmpty(f))
+        .map(f -> readSchema(loader, f))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Parse each schema in parallel, and merge them in order into a single registry.
+   *
+   * @param sources Schema text
+   * @return the merged registry
+   * @throws SchemaProblem if a schema is invalid or the schemas can't be merged
+   */
+  static TypeDefinitionRegistry parse(List<String> sources) {
+    final List<TypeDefinitionRegistry> parsed =
+        sources.parallelStream()
+            .map(source -> new SchemaParser().parse(source))
+            .collect(Collectors.toList());
+
+    final TypeDefinitionRegistry registry = new TypeDefinitionRegistry();
+    parsed.forEach(registry::merge);
+    return registry;
+  }
+
+  /**
+   * Load a compiled type registry, if it exists and was compiled from the given schema.
+   *
+   * @param location File path or classpath resource of the artifact
+   * @param sources Text of the schema files the artifact should have been compiled from
+   * @return the type registry, or empty if the artifact is missing, stale or unreadable
+   */
+  static Optional<TypeDefinitionRegistry> load(String location, List<String> sources) {
+    try (InputStream in = open(location)) {
+      if (in == null) {
+        LOGGER.warn("Compiled GraphQL schema not found: {}", location);
+        return Optional.empty();
+      }
+
+      try (ObjectInputStream objects =
+          new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(in)))) {
+        objects.setObjectInputFilter(FILTER);
+
+        if (objects.readInt() != FORMAT_VERSION
+            || !fingerprint(sources).equals(objects.readUTF())) {
+          LOGGER.warn("Compiled GraphQL schema is out of date: {}", location);
+          return Optional.empty();
+        }
+
+        final TypeDefinitionRegistry registry = (TypeDefinitionRegistry) objects.readObject();
+        LOGGER.info("Loaded compiled GraphQL schema: {}", location);
+        return Optional.of(registry);
+      }
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      // usually the artifact was compiled with a different version of graphql-java
+      LOGGER.warn("Unable to load compiled GraphQL schema: {}", location, e);
+      return Optional.empty();
+    }
+  }
+
+  @Nullable
+  private static InputStream open(String location) throws IOException {
+    final Path path = Paths.get(location);
+    if (Files.isRegularFile(path)) {
+      return Files.newInputStream(path);
+    }
+    return getClassLoader().getResourceAsStream(location);
+  }
+
+  @SuppressWarnings("UnstableApiUsage")
+  static String fingerprint(List<String> sources) {
+    final Hasher hasher = Hashing.sha256().newHasher();
+    for (String source : sources) {
+      hasher.putInt(source.length()).putString(source, StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  private static String readSchema(ClassLoader loader, String name) {
+    LOGGER.info("Loading GraphQL schema file: {}", name);
+    final Path path = Paths.get(name);
+    if (Files.isRegularFile(path)) {
+      try {
+        return Files.readString(path);
+      } catch (IOException e) {
+        throw new IllegalStateException(String.format("Unable to read file: %s", name), e);
+      }
+    }
+    try (InputStream in = loader.getResourceAsStream(name)) {
+      Objects.requireNonNull(in, String.format("resource not found: %s", name));
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Unable to read resource: %s", name), e);
+    }
+  }
+
+  private static ClassLoader getClassLoader() {
+    return MoreObjects.firstNonNull(
+        Thread.currentThread().getContextClassLoader(), SchemaCompiler.class.getClassLoader());
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MinDuration;
+import jakarta.validation.constraints.NotNull;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration for reloading the GraphQL schema while the application is running. */
+public class SchemaReloadFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SchemaReloadFactory.class);
+
+  private boolean enabled = false;
+
+  private boolean watch = false;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration watchInterval = Duration.seconds(10);
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Whether to poll the schema files and reload the schema when they change. Classpath resources
+   * packaged in a jar never change, so the schema files should be file system paths.
+   *
+   * @return true if the schema files are watched
+   */
+  @JsonProperty
+  public boolean isWatch() {
+    return watch;
+  }
+
+  @JsonProperty
+  public void setWatch(boolean watch) {
+    this.watch = watch;
+  }
+
+  @JsonProperty
+  public Duration getWatchInterval() {
+    return watchInterval;
+  }
+
+  @JsonProperty
+  public void setWatchInterval(Duration interval) {
+    watchInterval = interval;
+  }
+
+  /**
+   * Build the reloadable schema provider, register the reload task and gauges, and start watching
+   * the schema files if configured.
+   *
+   * @param environment Dropwizard environment
+   * @param initial GraphQL instance of the schema loaded at startup
+   * @param schemaFiles Schema files to watch
+   * @param loader Loads and validates the schema
+   * @param builder Builds the GraphQL instance of each reloaded schema
+   * @param documentCache Document cache shared by every generation
+   * @return the provider
+   */
+  public ReloadableSchemaProvider build(
+      Environment environment,
+      GraphQL initial,
+      List<String> schemaFiles,
+      Callable<GraphQLSchema> loader,
+      ReloadableSchemaProvider.Builder builder,
+      DocumentCache documentCache) {
+    final ReloadableSchemaProvider provider =
+        new ReloadableSchemaProvider(
+            initial, loader, builder, documentCache, environment.metrics());
+
+    final MetricRegistry registry = environment.metrics();
+    final String metricName = MetricRegistry.name(ReloadableSchemaProvider.class, "generation");
+    registry.remove(metricName);
+    registry.register(metricName, (Gauge<Long>) () -> provider.getGeneration().getNumber());
+
+    environment.admin().addTask(new SchemaReloadTask(provider));
+
+    if (watch && !schemaFiles.isEmpty()) {
+      final ScheduledExecutorService scheduler =
+          environment.lifecycle().scheduledExecutorService("graphql-schema-watch-%d", true).build();
+      final long interval = watchInterval.toMilliseconds();
+      scheduler.scheduleWithFixedDelay(
+          new Watcher(provider, schemaFiles), interval, interval, TimeUnit.MILLISECONDS);
+      LOGGER.info("Watching GraphQL schema files every {}", watchInterval);
+    }
+    return provider;
+  }
+
+  /** Reloads the schema when the fingerprint of the schema files changes. */
+  private static final class Watcher implements Runnable {
+    private final ReloadableSchemaProvider provider;
+    private final List<String> schemaFiles;
+    private String fingerprint;
+
+    private Watcher(ReloadableSchemaProvider provider, List<String> schemaFiles) {
+      this.provider = provider;
+      this.schemaFiles = schemaFiles;
+      this.fingerprint = SchemaCompiler.fingerprint(SchemaCompiler.read(schemaFiles));
+    }
+
+    @Override
+    public void run() {
+      try {
+        final String current = SchemaCompiler.fingerprint(SchemaCompiler.read(schemaFiles));
+        if (current.equals(fingerprint)) {
+          return;
+        }
+        // remembered even if the reload fails, so a broken schema is only retried once it changes
+        fingerprint = current;
+        LOGGER.info("GraphQL schema files changed, reloading");
+        provider.reload();
+      } catch (Exception e) {
+        // already logged by the provider, and an exception would cancel the watcher
+        LOGGER.debug("Unable to reload GraphQL schema", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Admin task which rebuilds the GraphQL schema from its schema files and swaps it into the running
+ * servlet.
+ *
+ * <pre>
+ * curl -X POST http://localhost:8081/tasks/graphql-reload-schema
+ * </pre>
+ *
+ * <p>If the schema fails to build or validate, the error is printed and the current schema is kept.
+ */
+public class SchemaReloadTask extends Task {
+
+  private final ReloadableSchemaProvider provider;
+
+  /**
+   * Constructor
+   *
+   * @param provider Reloadable schema provider
+   */
+  public SchemaReloadTask(ReloadableSchemaProvider provider) {
+    super("graphql-reload-schema");
+    this.provider = Objects.requireNonNull(provider);
+  }
+
+  @Override
+  public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+    try {
+      final ReloadableSchemaProvider.Generation generation = provider.reload();
+      output.printf("generation: %d%n", generation.getNumber());
+      output.printf("types: %d%n", generation.getSchema().getAllTypesAsList().size());
+    } catch (Exception e) {
+      output.printf("generation: %d%n", provider.getGeneration().getNumber());
+      output.printf("error: %s%n", e.getMessage());
+    }
+    output.flush();
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.language.Document;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.SchemaPrinter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes the documents of a schema version in a {@link DocumentStore}, so a document
+ * parsed and validated by one node is served to every other node without parsing or validating it
+ * again. Only valid documents are stored, along with the query text they were parsed from.
+ *
+ * <p>The schema version is derived from the printed schema, so nodes running different schemas
+ * never share documents, and reloading the schema moves to a new set of documents.
+ *
+ * <p>The asynchronous methods run the store I/O on a dedicated executor, so a slow store never
+ * blocks the threads loading the in-process cache. When the executor is saturated, documents are
+ * treated as missing and are not stored.
+ */
+public class SharedDocumentCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedDocumentCache.class);
+  private static final int FORMAT_VERSION = 1;
+
+  private final DocumentStore store;
+  private final String schemaVersion;
+  private final Executor executor;
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter errors;
+
+  /**
+   * Constructor
+   *
+   * @param store Document store
+   * @param schemaVersion Version of the schema the documents are validated against
+   * @param executor Executor the store I/O of the asynchronous methods runs on
+   * @param registry Metric registry
+   */
+  public SharedDocumentCache(
+      DocumentStore store, String schemaVersion, Executor executor, MetricRegistry registry) {
+    this.store = Objects.requireNonNull(store);
+    this.schemaVersion = Objects.requireNonNull(schemaVersion);
+    this.executor = Objects.requireNonNull(executor);
+
+    hits = registry.meter(MetricRegistry.name(SharedDocumentCache.class, "hits"));
+    misses = registry.meter(MetricRegistry.name(SharedDocumentCache.class, "misses"));
+    errors = registry.meter(MetricRegistry.name(SharedDocumentCache.class, "errors"));
+  }
+
+  /**
+   * Return the version of a schema, which is the hash of the printed schema.
+   *
+   * @param schema GraphQL schema
+   * @return the schema version
+   */
+  public static String schemaVersion(GraphQLSchema schema) {
+    return PersistedQueries.sha256(new SchemaPrinter().print(schema));
+  }
+
+  public String getSchemaVersion() {
+    return schemaVersion;
+  }
+
+  /**
+   * Return a stored document. Documents which can't be read, for example because they were written
+   * by another version of graphql-java, are treated as missing.
+   *
+   * @param key Document cache key
+   * @return the document without its cost analysis, or empty if it is not stored
+   */
+  public Optional<CachedDocument> get(String key) {
+    final byte[] bytes;
+    try {
+      bytes = store.get(schemaVersion, storeKey(key));
+    } catch (IOException e) {
+      errors.mark();
+      LOGGER.warn("Unable to read GraphQL document from {}", store, e);
+      return Optional.empty();
+    }
+    if (bytes == null) {
+      misses.mark();
+      return Optional.empty();
+    }
+
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      in.setObjectInputFilter(SchemaCompiler.FILTER);
+      if (in.readInt() != FORMAT_VERSION) {
+        misses.mark();
+        return Optional.empty();
+      }
+      final String query = (String) in.readObject();
+      final Document document = (Document) in.readObject();
+      hits.mark();
+      return Optional.of(new CachedDocument(new PreparsedDocumentEntry(document), null, query));
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      errors.mark();
+      LOGGER.debug("Unable to deserialize GraphQL document", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Return a stored document, reading it on the store executor.
+   *
+   * @param key Document cache key
+   * @return the document without its cost analysis, or empty if it is not stored
+   */
+  public CompletableFuture<Optional<CachedDocument>> getAsync(String key) {
+    try {
+      return CompletableFuture.supplyAsync(() -> get(key), executor);
+    } catch (RejectedExecutionException e) {
+      errors.mark();
+      LOGGER.debug("Document store executor is saturated", e);
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+  }
+
+  /**
+   * Store a document on the store executor, without waiting for it to be written.
+   *
+   * @param key Document cache key
+   * @param document Cached document
+   */
+  public void putAsync(String key, CachedDocument document) {
+    try {
+      executor.execute(() -> put(key, document));
+    } catch (RejectedExecutionException e) {
+      errors.mark();
+      LOGGER.debug("Document store executor is saturated", e);
+    }
+  }
+
+  /**
+   * Store a document, unless it failed to parse or validate.
+   *
+   * @param key Document cache key
+   * @param document Cached document
+   */
+  public void put(String key, CachedDocument document) {
+    final PreparsedDocumentEntry entry = document.getEntry();
+    if (entry.hasErrors() || entry.getDocument() == null) {
+      return;
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeObject(document.getQuery());
+        out.writeObject(entry.getDocument());
+      }
+      store.put(schemaVersion, storeKey(key), bytes.toByteArray());
+    } catch (IOException e) {
+      errors.mark();
+      LOGGER.warn("Unable to write GraphQL document to {}", store, e);
+    }
+  }
+
+  /**
+   * Remove every stored document of this schema version, on every node sharing the store.
+   *
+   * @throws IOException if unable to write to the store
+   */
+  public void invalidate() throws IOException {
+    store.invalidate(schemaVersion);
+  }
+
+  private static String storeKey(String key) {
+    // cache keys may be the full query text, so they are hashed into a fixed size
+    return PersistedQueries.sha256(key);
+  }
+}
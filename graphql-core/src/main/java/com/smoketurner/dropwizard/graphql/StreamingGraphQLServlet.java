@@ -0,0 +1,592 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.base.Suppliers;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQL;
+import graphql.GraphqlErrorBuilder;
+import graphql.ParseAndValidate;
+import graphql.ParseAndValidateResult;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.introspection.IntrospectionQuery;
+import graphql.kickstart.execution.context.GraphQLKickstartContext;
+import graphql.kickstart.servlet.context.GraphQLServletContextBuilder;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GraphQL servlet which serializes execution results directly to the response output stream instead
+ * of rendering them into a string first. Supports the same {@code GET} and {@code POST} request
+ * formats and the {@code /schema.json} introspection endpoint as the default servlet.
+ *
+ * <p>When incremental delivery is enabled and the client accepts {@code multipart/mixed}, queries
+ * which {@code @defer} or {@code @stream} root selections are split by {@link DeferredOperations}
+ * and executed concurrently. The initial payload is flushed as soon as the non-deferred selections
+ * complete, followed by one patch per deferred selection in the order they complete. The depth and
+ * complexity limits are checked against the whole query before it is split. Requests which
+ * reference a trusted document by its identifier are never split, since the parts could not be
+ * matched to trusted documents.
+ */
+public class StreamingGraphQLServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+  static final String SCHEMA_PATH = "/schema.json";
+  static final String APPLICATION_JSON = MediaType.JSON_UTF_8.toString();
+  static final String APPLICATION_GRAPHQL = "application/graphql";
+  static final String MULTIPART_MIXED = "multipart/mixed";
+  private static final String MULTIPART_CONTENT_TYPE =
+      MULTIPART_MIXED + "; boundary=\"-\"; deferSpec=20220824";
+  private static final byte[] PART_HEADER =
+      "\r\n---\r\nContent-Type: application/json; charset=utf-8\r\n\r\n"
+          .getBytes(StandardCharsets.UTF_8);
+  private static final byte[] MULTIPART_END = "\r\n-----\r\n".getBytes(StandardCharsets.UTF_8);
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamingGraphQLServlet.class);
+  private static final TypeReference<Map<String, Object>> MAP_TYPE =
+      new TypeReference<Map<String, Object>>() {};
+
+  private final transient Supplier<GraphQL> provider;
+  private final transient ObjectMapper mapper;
+  private final transient RequestDecoder decoder;
+  private final transient JsonResultWriter writer;
+  private final transient GraphQLServletContextBuilder contextBuilder;
+  private final boolean incrementalDelivery;
+  private final boolean trustedDocuments;
+  @Nullable private final transient BatchExecutor batchExecutor;
+
+  /**
+   * Constructor
+   *
+   * @param graphQL GraphQL instance used to execute operations
+   * @param mapper Object mapper used to parse requests and serialize custom scalars
+   * @param contextBuilder Builder of the per-request GraphQL context
+   */
+  public StreamingGraphQLServlet(
+      GraphQL graphQL, ObjectMapper mapper, GraphQLServletContextBuilder contextBuilder) {
+    this(graphQL, mapper, contextBuilder, false, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param graphQL GraphQL instance used to execute operations
+   * @param mapper Object mapper used to parse requests and serialize custom scalars
+   * @param contextBuilder Builder of the per-request GraphQL context
+   * @param incrementalDelivery Whether to support {@code @defer} and {@code @stream}
+   * @param batchExecutor Executor for batched requests, or null to execute them sequentially, up to
+   *     the default maximum batch size
+   */
+  public StreamingGraphQLServlet(
+      GraphQL graphQL,
+      ObjectMapper mapper,
+      GraphQLServletContextBuilder contextBuilder,
+      boolean incrementalDelivery,
+      @Nullable BatchExecutor batchExecutor) {
+    this(
+        Suppliers.ofInstance(Objects.requireNonNull(graphQL)),
+        mapper,
+        contextBuilder,
+        incrementalDelivery,
+        batchExecutor,
+        null,
+        false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param provider Supplies the GraphQL instance used to execute each request, such as a {@link
+   *     ReloadableSchemaProvider}
+   * @param mapper Object mapper used to parse requests and serialize custom scalars
+   * @param contextBuilder Builder of the per-request GraphQL context
+   * @param incrementalDelivery Whether to support {@code @defer} and {@code @stream}
+   * @param batchExecutor Executor for batched requests, or null to execute them sequentially, up to
+   *     the default maximum batch size
+   * @param cachedHashes Tests whether the document of a persisted query hash is cached, so the
+   *     query text sent along with the hash doesn't need to be decoded, or null
+   * @param trustedDocuments Whether persisted query hashes identify trusted documents
+   */
+  public StreamingGraphQLServlet(
+      Supplier<GraphQL> provider,
+      ObjectMapper mapper,
+      GraphQLServletContextBuilder contextBuilder,
+      boolean incrementalDelivery,
+      @Nullable BatchExecutor batchExecutor,
+      @Nullable Predicate<String> cachedHashes,
+      boolean trustedDocuments) {
+    this.provider = Objects.requireNonNull(provider);
+    this.mapper = Objects.requireNonNull(mapper);
+    this.decoder = new RequestDecoder(mapper, cachedHashes);
+    this.writer = new JsonResultWriter(mapper);
+    this.contextBuilder = Objects.requireNonNull(contextBuilder);
+    this.incrementalDelivery = incrementalDelivery;
+    this.trustedDocuments = trustedDocuments;
+    this.batchExecutor = batchExecutor;
+  }
+
+  /**
+   * Return whether the client accepts incremental responses.
+   *
+   * @param request HTTP request
+   * @return true if the {@code Accept} header includes {@code multipart/mixed}
+   */
+  static boolean acceptsMultipart(HttpServletRequest request) {
+    final String accept = request.getHeader(HttpHeaders.ACCEPT);
+    return accept != null && accept.contains(MULTIPART_MIXED);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (SCHEMA_PATH.equals(request.getServletPath())) {
+      execute(
+          Collections.singletonList(
+              new OperationRequest(IntrospectionQuery.INTROSPECTION_QUERY, null, null, null)),
+          false,
+          request,
+          response);
+      return;
+    }
+
+    final String query = request.getParameter("query");
+    final String extensions = request.getParameter("extensions");
+    final String documentId = request.getParameter(PersistedQueries.DOCUMENT_ID);
+    if (Strings.isNullOrEmpty(query)
+        && Strings.isNullOrEmpty(extensions)
+        && Strings.isNullOrEmpty(documentId)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    final OperationRequest operation;
+    try {
+      operation =
+          new OperationRequest(
+              query,
+              request.getParameter("operationName"),
+              readMap(request.getParameter("variables")),
+              withDocumentId(readMap(extensions), documentId));
+    } catch (JsonProcessingException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    execute(Collections.singletonList(operation), false, request, response);
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    final String contentType = Strings.nullToEmpty(request.getContentType());
+
+    if (contentType.startsWith(APPLICATION_GRAPHQL)) {
+      final String query;
+      try (InputStream in = request.getInputStream()) {
+        query = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      execute(
+          Collections.singletonList(new OperationRequest(query, null, null, null)),
+          false,
+          request,
+          response);
+      return;
+    }
+
+    final RequestDecoder.Operations operations;
+    try (InputStream in = request.getInputStream()) {
+      operations = decoder.decode(in.readAllBytes());
+    } catch (JsonProcessingException | IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    // batches executed sequentially are limited too, so one request can't run unbounded work
+    final int maxBatchSize =
+        batchExecutor != null
+            ? batchExecutor.getMaxBatchSize()
+            : BatchingFactory.DEFAULT_MAX_BATCH_SIZE;
+    if (operations.isBatched() && operations.getOperations().size() > maxBatchSize) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "Batch exceeds the maximum of " + maxBatchSize + " operations");
+      return;
+    }
+    execute(operations.getOperations(), operations.isBatched(), request, response);
+  }
+
+  /**
+   * Execute a list of operations and stream the results to the response.
+   *
+   * @param operations Operations to execute
+   * @param batched Whether the results should be written as a JSON array
+   * @param request HTTP request
+   * @param response HTTP response
+   * @throws IOException if unable to write the response
+   */
+  private void execute(
+      List<OperationRequest> operations,
+      boolean batched,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    // every operation of a request runs against the same schema, even if it is reloaded meanwhile
+    final GraphQL graphQL = provider.get();
+    final GraphQLKickstartContext context = contextBuilder.build(request, response);
+    // shared by every operation of the request, so application code can cancel all of them
+    final ExecutionCancellation cancellation = new ExecutionCancellation();
+    List<OperationRequest> toExecute = operations;
+    if (incrementalDelivery
+        && !batched
+        && !referencesDocument(operations.get(0))
+        && DeferredOperations.mayContainDirectives(operations.get(0).getQuery())) {
+      final OperationRequest operation = operations.get(0);
+      final Optional<DeferredOperations.Plan> plan = DeferredOperations.plan(operation);
+      if (plan.isPresent()) {
+        final OperationRequest whole = operation.withQuery(plan.get().getQuery());
+        if (!plan.get().getParts().isEmpty()
+            && acceptsMultipart(request)
+            && isExecutable(graphQL, whole, context, cancellation)) {
+          executeIncremental(graphQL, operation, plan.get(), context, cancellation, response);
+          return;
+        }
+        // a query rejected by the limits or validation gets a single response with the errors
+        toExecute = Collections.singletonList(whole);
+      }
+    }
+
+    final List<ExecutionResult> results;
+    if (batched && batchExecutor != null) {
+      final List<ExecutionInput> inputs = new ArrayList<>(toExecute.size());
+      for (OperationRequest operation : toExecute) {
+        inputs.add(newExecutionInput(operation, context, cancellation));
+      }
+      results = batchExecutor.execute(graphQL, inputs);
+    } else {
+      results = new ArrayList<>(toExecute.size());
+      for (OperationRequest operation : toExecute) {
+        results.add(graphQL.execute(newExecutionInput(operation, context, cancellation)));
+      }
+    }
+
+    if (Boolean.TRUE.equals(
+        request.getAttribute(GetRequestDocumentProvider.METHOD_NOT_ALLOWED_ATTRIBUTE))) {
+      response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      response.setHeader(HttpHeaders.ALLOW, "POST");
+    } else {
+      response.setStatus(HttpServletResponse.SC_OK);
+    }
+    response.setContentType(APPLICATION_JSON);
+    // the executions have completed by now, so there is nothing left to cancel if the client has
+    // gone away, and the execution timeout bounds the work done for it
+    if (batched) {
+      writer.write(response.getOutputStream(), results);
+    } else {
+      writer.write(response.getOutputStream(), results.get(0));
+    }
+  }
+
+  /**
+   * Execute the initial and deferred parts of an operation concurrently and stream each result as a
+   * {@code multipart/mixed} part once it completes.
+   *
+   * @param graphQL GraphQL instance used to execute every part
+   * @param operation Operation to execute
+   * @param plan Deferred parts of the operation
+   * @param context Per-request GraphQL context
+   * @param cancellation Cancellation shared by every part, so they are all cancelled if the client
+   *     goes away
+   * @param response HTTP response
+   * @throws IOException if unable to write the response
+   */
+  private void executeIncremental(
+      GraphQL graphQL,
+      OperationRequest operation,
+      DeferredOperations.Plan plan,
+      GraphQLKickstartContext context,
+      ExecutionCancellation cancellation,
+      HttpServletResponse response)
+      throws IOException {
+    final CompletableFuture<ExecutionResult> initial =
+        executeAsync(graphQL, operation.withQuery(plan.getInitialQuery()), context, cancellation);
+    final List<DeferredOperations.Part> parts = plan.getParts();
+    final List<CompletableFuture<ExecutionResult>> pending = new ArrayList<>(parts.size());
+    for (DeferredOperations.Part part : parts) {
+      pending.add(
+          executeAsync(graphQL, operation.withQuery(part.getQuery()), context, cancellation));
+    }
+
+    try {
+      writeIncremental(plan, initial, pending, response);
+    } catch (IOException e) {
+      cancellation.cancel("Client disconnected");
+      throw e;
+    }
+  }
+
+  private void writeIncremental(
+      DeferredOperations.Plan plan,
+      CompletableFuture<ExecutionResult> initial,
+      List<CompletableFuture<ExecutionResult>> pending,
+      HttpServletResponse response)
+      throws IOException {
+    final List<DeferredOperations.Part> parts = plan.getParts();
+
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType(MULTIPART_CONTENT_TYPE);
+    final OutputStream out = response.getOutputStream();
+
+    final ExecutionResult result = initial.join();
+    if (!result.isDataPresent()) {
+      writeInitial(out, plan, result, false);
+      out.write(MULTIPART_END);
+      return;
+    }
+    writeInitial(out, plan, result, true);
+    response.flushBuffer();
+
+    final boolean[] written = new boolean[parts.size()];
+    int remaining = parts.size();
+    while (remaining > 0) {
+      final List<CompletableFuture<ExecutionResult>> waiting = new ArrayList<>(remaining);
+      for (int i = 0; i < written.length; i++) {
+        if (!written[i]) {
+          waiting.add(pending.get(i));
+        }
+      }
+      CompletableFuture.anyOf(waiting.toArray(new CompletableFuture<?>[0])).join();
+
+      for (int i = 0; i < written.length; i++) {
+        if (!written[i] && pending.get(i).isDone()) {
+          written[i] = true;
+          remaining--;
+          writePatch(out, parts.get(i), pending.get(i).join(), remaining > 0);
+        }
+      }
+      response.flushBuffer();
+    }
+    out.write(MULTIPART_END);
+  }
+
+  private CompletableFuture<ExecutionResult> executeAsync(
+      GraphQL graphQL,
+      OperationRequest operation,
+      GraphQLKickstartContext context,
+      ExecutionCancellation cancellation) {
+    return graphQL
+        .executeAsync(newExecutionInput(operation, context, cancellation))
+        .exceptionally(
+            e -> {
+              LOGGER.error("Error executing deferred query", e);
+              return ExecutionResultImpl.newExecutionResult()
+                  .addError(
+                      GraphqlErrorBuilder.newError()
+                          .message(JsonResultWriter.INTERNAL_ERROR)
+                          .build())
+                  .build();
+            });
+  }
+
+  private void writeInitial(
+      OutputStream out, DeferredOperations.Plan plan, ExecutionResult result, boolean hasNext)
+      throws IOException {
+    ExecutionResult initial = result;
+    final Object data = result.getData();
+    if (data instanceof Map) {
+      final Map<Object, Object> merged = new LinkedHashMap<>((Map<?, ?>) data);
+      if (plan.isTypenameAdded()) {
+        merged.remove("__typename");
+      }
+      for (String key : plan.getStreamKeys()) {
+        merged.put(key, Collections.emptyList());
+      }
+      initial = ExecutionResultImpl.newExecutionResult().from(result).data(merged).build();
+    }
+
+    try (JsonGenerator generator = startPart(out)) {
+      generator.writeStartObject();
+      writer.writeFields(generator, initial);
+      generator.writeBooleanField("hasNext", hasNext);
+      generator.writeEndObject();
+    }
+  }
+
+  private void writePatch(
+      OutputStream out, DeferredOperations.Part part, ExecutionResult result, boolean hasNext)
+      throws IOException {
+    final Object data = result.getData();
+    try (JsonGenerator generator = startPart(out)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("incremental");
+      generator.writeStartObject();
+
+      final Optional<String> streamKey = part.getStreamKey();
+      if (streamKey.isPresent()) {
+        final Object items = data instanceof Map ? ((Map<?, ?>) data).get(streamKey.get()) : null;
+        generator.writeFieldName("items");
+        writer.writeValue(generator, items instanceof List ? items : Collections.emptyList());
+        generator.writeArrayFieldStart("path");
+        generator.writeString(streamKey.get());
+        generator.writeNumber(0);
+        generator.writeEndArray();
+      } else {
+        generator.writeFieldName("data");
+        writer.writeValue(generator, data);
+        generator.writeArrayFieldStart("path");
+        generator.writeEndArray();
+      }
+
+      if (part.getLabel().isPresent()) {
+        generator.writeStringField("label", part.getLabel().get());
+      }
+      writer.writeErrors(generator, result.getErrors());
+      generator.writeEndObject();
+      generator.writeEndArray();
+      generator.writeBooleanField("hasNext", hasNext);
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Return whether an operation references a trusted document by its identifier, in which case the
+   * trusted document is executed whatever the query text is.
+   *
+   * @param operation Operation request
+   * @return true if the operation references a trusted document
+   */
+  private boolean referencesDocument(OperationRequest operation) {
+    final Map<String, Object> extensions = operation.getExtensions();
+    return extensions.get(PersistedQueries.DOCUMENT_ID) != null
+        || (trustedDocuments && PersistedQueries.getHash(extensions).isPresent());
+  }
+
+  /**
+   * Check the whole query of a deferred operation against the document provider, which enforces the
+   * depth and complexity limits, since each part on its own may be within them.
+   *
+   * @param graphQL GraphQL instance
+   * @param whole Operation with every deferred selection inlined
+   * @param context Per-request GraphQL context
+   * @param cancellation Cancellation of the request
+   * @return true if the document is valid and within the limits
+   */
+  private static boolean isExecutable(
+      GraphQL graphQL,
+      OperationRequest whole,
+      GraphQLKickstartContext context,
+      ExecutionCancellation cancellation) {
+    final PreparsedDocumentEntry entry =
+        graphQL
+            .getPreparsedDocumentProvider()
+            .getDocumentAsync(
+                newExecutionInput(whole, context, cancellation),
+                input -> {
+                  final ParseAndValidateResult result =
+                      ParseAndValidate.parseAndValidate(graphQL.getGraphQLSchema(), input);
+                  return result.isFailure()
+                      ? new PreparsedDocumentEntry(result.getErrors())
+                      : new PreparsedDocumentEntry(result.getDocument());
+                })
+            .join();
+    return !entry.hasErrors();
+  }
+
+  private JsonGenerator startPart(OutputStream out) throws IOException {
+    out.write(PART_HEADER);
+    return writer.createGenerator(out);
+  }
+
+  /**
+   * Create the execution input for an operation, with its cancellation stored in the GraphQL
+   * context.
+   *
+   * @param operation Operation to execute
+   * @param context Per-request GraphQL context
+   * @param cancellation Cancellation of the execution
+   * @return the execution input
+   */
+  static ExecutionInput newExecutionInput(
+      OperationRequest operation,
+      GraphQLKickstartContext context,
+      ExecutionCancellation cancellation) {
+    final ExecutionInput input =
+        ExecutionInput.newExecutionInput()
+            .query(operation.getQuery())
+            .operationName(operation.getOperationName())
+            .variables(operation.getVariables())
+            .extensions(operation.getExtensions())
+            .graphQLContext(context.getMapOfContext())
+            .dataLoaderRegistry(context.getDataLoaderRegistry())
+            .build();
+    input.getGraphQLContext().put(ExecutionCancellation.class, cancellation);
+    return input;
+  }
+
+  /**
+   * Move a top-level trusted document identifier into the extensions, which is where the document
+   * provider looks for it.
+   *
+   * @param extensions Request extensions
+   * @param documentId Trusted document identifier
+   * @return the extensions
+   */
+  @Nullable
+  static Map<String, Object> withDocumentId(
+      @Nullable Map<String, Object> extensions, @Nullable String documentId) {
+    if (Strings.isNullOrEmpty(documentId)) {
+      return extensions;
+    }
+    final Map<String, Object> merged = new LinkedHashMap<>();
+    if (extensions != null) {
+      merged.putAll(extensions);
+    }
+    merged.put(PersistedQueries.DOCUMENT_ID, documentId);
+    return merged;
+  }
+
+  @Nullable
+  private Map<String, Object> readMap(@Nullable String json) throws JsonProcessingException {
+    if (Strings.isNullOrEmpty(json)) {
+      return null;
+    }
+    return mapper.readValue(json, MAP_TYPE);
+  }
+}
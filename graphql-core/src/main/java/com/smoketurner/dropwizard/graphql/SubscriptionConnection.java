@@ -0,0 +1,490 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Strings;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.kickstart.execution.context.GraphQLKickstartContext;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.HandshakeRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.dataloader.DataLoaderRegistry;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A single graphql-transport-ws connection and the operations running on it. */
+final class SubscriptionConnection implements MessageHandler.Whole<String> {
+
+  /** Key of the {@code connection_init} payload in the GraphQL context of each operation. */
+  static final String CONNECTION_PARAMS = "connectionParams";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionConnection.class);
+  private static final TypeReference<Map<String, Object>> MAP_TYPE =
+      new TypeReference<Map<String, Object>>() {};
+  private static final String CONNECTION_ACK = "{\"type\":\"connection_ack\"}";
+  private static final String PONG = "{\"type\":\"pong\"}";
+
+  @FunctionalInterface
+  private interface PayloadWriter {
+    void write(JsonGenerator generator) throws IOException;
+  }
+
+  /** A message waiting to be written to the socket. */
+  private static final class Outbound {
+    private final String text;
+    @Nullable private final Operation owner;
+
+    private Outbound(String text, @Nullable Operation owner) {
+      this.text = text;
+      this.owner = owner;
+    }
+  }
+
+  private final SubscriptionEndpoint endpoint;
+  private final Session session;
+  @Nullable private final HandshakeRequest handshake;
+  private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+  private final Deque<Outbound> outbound = new ArrayDeque<>();
+  private final ScheduledFuture<?> initTimeout;
+
+  // messages are received one at a time, so this is only used by the receiving thread
+  private boolean initialised = false;
+  private volatile boolean acknowledged = false;
+  private volatile Map<String, Object> connectionParams = Collections.emptyMap();
+
+  // guarded by outbound
+  private boolean sending = false;
+  private boolean closed = false;
+
+  SubscriptionConnection(
+      SubscriptionEndpoint endpoint, Session session, @Nullable HandshakeRequest handshake) {
+    this.endpoint = endpoint;
+    this.session = session;
+    this.handshake = handshake;
+    this.initTimeout =
+        endpoint.scheduler.schedule(
+            () -> {
+              if (!acknowledged) {
+                close(4408, "Connection initialisation timeout");
+              }
+            },
+            endpoint.connectionInitTimeoutMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onMessage(String text) {
+    final JsonNode message;
+    try {
+      message = endpoint.mapper.readTree(text);
+    } catch (IOException e) {
+      close(4400, "Invalid message received");
+      return;
+    }
+
+    switch (message.path("type").asText()) {
+      case "connection_init":
+        onInit(message.get("payload"));
+        break;
+      case "ping":
+        send(PONG, null);
+        break;
+      case "pong":
+        break;
+      case "subscribe":
+        onSubscribe(message);
+        break;
+      case "complete":
+        onComplete(message.path("id").asText());
+        break;
+      default:
+        close(4400, "Invalid message received");
+        break;
+    }
+  }
+
+  private void onInit(@Nullable JsonNode payload) {
+    if (initialised) {
+      close(4429, "Too many initialisation requests");
+      return;
+    }
+    initialised = true;
+    initTimeout.cancel(false);
+    if (payload != null && payload.isObject()) {
+      connectionParams = endpoint.mapper.convertValue(payload, MAP_TYPE);
+    }
+    acknowledged = true;
+    send(CONNECTION_ACK, null);
+  }
+
+  private void onSubscribe(JsonNode message) {
+    if (!acknowledged) {
+      close(4401, "Unauthorized");
+      return;
+    }
+
+    final String id = message.path("id").textValue();
+    final OperationRequest request;
+    try {
+      if (Strings.isNullOrEmpty(id)) {
+        throw new IllegalArgumentException("Missing id");
+      }
+      request = toOperation(message.get("payload"));
+    } catch (IllegalArgumentException e) {
+      close(4400, "Invalid message received");
+      return;
+    }
+
+    if (operations.containsKey(id)) {
+      close(4409, "Subscriber for " + id + " already exists");
+      return;
+    }
+    if (operations.size() >= endpoint.maxSubscriptions) {
+      send(
+          message(id, "error", errors(Collections.singletonList(error("Too many subscriptions")))),
+          null);
+      return;
+    }
+
+    final Operation operation = new Operation(id);
+    operations.put(id, operation);
+    endpoint.subscriptions.incrementAndGet();
+    operation.execute(request);
+  }
+
+  private void onComplete(String id) {
+    final Operation operation = operations.get(id);
+    if (operation != null && operation.finish()) {
+      operation.cancel("Operation was completed by the client");
+    }
+  }
+
+  /** Release everything held by the connection once the socket has closed. */
+  void onClose() {
+    synchronized (outbound) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      endpoint.queued.addAndGet(-outbound.size());
+      outbound.clear();
+    }
+    initTimeout.cancel(false);
+    for (Operation operation : operations.values()) {
+      if (operation.finish()) {
+        operation.cancel("Client disconnected");
+      }
+    }
+  }
+
+  private void close(int code, String reason) {
+    try {
+      session.close(new CloseReason(CloseReason.CloseCodes.getCloseCode(code), reason));
+    } catch (IOException e) {
+      LOGGER.debug("Unable to close WebSocket session", e);
+    }
+  }
+
+  /**
+   * Queue a message to be written to the socket. Messages are written one at a time, in the order
+   * they were queued.
+   *
+   * @param text Message
+   * @param owner Subscription which produced the message, which requests its next event once the
+   *     message has been written
+   */
+  private void send(String text, @Nullable Operation owner) {
+    synchronized (outbound) {
+      if (closed) {
+        return;
+      }
+      outbound.add(new Outbound(text, owner));
+      endpoint.queued.incrementAndGet();
+      if (sending) {
+        return;
+      }
+      sending = true;
+    }
+    sendNext();
+  }
+
+  private void sendNext() {
+    final Outbound next;
+    synchronized (outbound) {
+      next = outbound.poll();
+      if (next == null) {
+        sending = false;
+        return;
+      }
+      endpoint.queued.decrementAndGet();
+    }
+
+    try {
+      session
+          .getAsyncRemote()
+          .sendText(
+              next.text,
+              result -> {
+                if (!result.isOK()) {
+                  LOGGER.debug("Unable to send WebSocket message", result.getException());
+                  onClose();
+                  return;
+                }
+                if (next.owner != null) {
+                  next.owner.onSent();
+                }
+                sendNext();
+              });
+    } catch (IllegalStateException e) {
+      // the session closed while the message was queued
+      onClose();
+    }
+  }
+
+  private OperationRequest toOperation(@Nullable JsonNode payload) {
+    if (payload == null || !payload.isObject()) {
+      throw new IllegalArgumentException("Payload must be a JSON object");
+    }
+    return new OperationRequest(
+        textValue(payload.get("query")),
+        textValue(payload.get("operationName")),
+        mapValue(payload.get("variables")),
+        mapValue(payload.get("extensions")));
+  }
+
+  @Nullable
+  private static String textValue(@Nullable JsonNode node) {
+    if (node == null || node.isNull()) {
+      return null;
+    }
+    if (!node.isTextual()) {
+      throw new IllegalArgumentException("Expected a string");
+    }
+    return node.textValue();
+  }
+
+  @Nullable
+  private Map<String, Object> mapValue(@Nullable JsonNode node) {
+    if (node == null || node.isNull()) {
+      return null;
+    }
+    if (!node.isObject()) {
+      throw new IllegalArgumentException("Expected an object");
+    }
+    return endpoint.mapper.convertValue(node, MAP_TYPE);
+  }
+
+  private String message(String id, String type, @Nullable PayloadWriter payload) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator generator = endpoint.writer.createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeStringField("id", id);
+      generator.writeStringField("type", type);
+      if (payload != null) {
+        generator.writeFieldName("payload");
+        payload.write(generator);
+      }
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  private PayloadWriter errors(List<GraphQLError> errors) {
+    return generator -> {
+      generator.writeStartArray();
+      for (GraphQLError error : errors) {
+        endpoint.writer.writeValue(generator, JsonResultWriter.toSpecification(error));
+      }
+      generator.writeEndArray();
+    };
+  }
+
+  private static GraphQLError error(String message) {
+    return GraphqlErrorBuilder.newError().message(message).build();
+  }
+
+  /**
+   * An operation running on the connection. Subscriptions request {@code bufferSize} events up
+   * front, then one more each time an event has been written to the socket.
+   */
+  private final class Operation implements Subscriber<ExecutionResult> {
+    private final String id;
+    private final ExecutionCancellation cancellation = new ExecutionCancellation();
+    @Nullable private DataLoaderRegistry registry;
+
+    // guarded by this
+    @Nullable private Subscription subscription;
+    private boolean done = false;
+
+    private Operation(String id) {
+      this.id = id;
+    }
+
+    private void execute(OperationRequest request) {
+      final GraphQLKickstartContext context = endpoint.contextBuilder.build(session, handshake);
+      registry = context.getDataLoaderRegistry();
+
+      final ExecutionInput input =
+          StreamingGraphQLServlet.newExecutionInput(request, context, cancellation);
+      input.getGraphQLContext().put(CONNECTION_PARAMS, connectionParams);
+      endpoint.graphQL.get().executeAsync(input).whenComplete(this::onResult);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onResult(@Nullable ExecutionResult result, @Nullable Throwable error) {
+      if (error != null || result == null) {
+        LOGGER.error("Error executing operation", error);
+        if (finish()) {
+          send(
+              message(
+                  id,
+                  "error",
+                  errors(Collections.singletonList(error(JsonResultWriter.INTERNAL_ERROR)))),
+              null);
+        }
+        return;
+      }
+
+      final Object data = result.getData();
+      if (data instanceof Publisher) {
+        ((Publisher<ExecutionResult>) data).subscribe(this);
+        return;
+      }
+      if (!finish()) {
+        // the client completed the operation before it finished executing
+        return;
+      }
+      if (!result.isDataPresent() && !result.getErrors().isEmpty()) {
+        send(message(id, "error", errors(result.getErrors())), null);
+        return;
+      }
+      send(message(id, "next", generator -> endpoint.writer.writeResult(generator, result)), null);
+      send(message(id, "complete", null), null);
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+      synchronized (this) {
+        if (done) {
+          s.cancel();
+          return;
+        }
+        subscription = s;
+      }
+      s.request(endpoint.bufferSize);
+    }
+
+    @Override
+    public void onNext(ExecutionResult result) {
+      send(message(id, "next", generator -> endpoint.writer.writeResult(generator, result)), this);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      LOGGER.warn("Subscription {} failed", id, throwable);
+      if (finish()) {
+        send(
+            message(
+                id,
+                "error",
+                errors(Collections.singletonList(error(JsonResultWriter.INTERNAL_ERROR)))),
+            null);
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      if (finish()) {
+        send(message(id, "complete", null), null);
+      }
+    }
+
+    /** Request the next event once the previous one has been written. */
+    private void onSent() {
+      final Subscription current;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        current = subscription;
+      }
+      if (current != null) {
+        current.request(1);
+      }
+    }
+
+    /**
+     * Remove the operation from the connection.
+     *
+     * @return true if the operation was removed by this call
+     */
+    private boolean finish() {
+      if (!operations.remove(id, this)) {
+        return false;
+      }
+      synchronized (this) {
+        done = true;
+      }
+      endpoint.subscriptions.decrementAndGet();
+      if (registry != null && endpoint.contextBuilder instanceof DataLoaderContextBuilder) {
+        ((DataLoaderContextBuilder) endpoint.contextBuilder).report(registry);
+      }
+      return true;
+    }
+
+    /**
+     * Stop the operation, cancelling its subscription or any data fetchers still running.
+     *
+     * @param reason Reason for the cancellation
+     */
+    private void cancel(String reason) {
+      final Subscription current;
+      synchronized (this) {
+        current = subscription;
+        subscription = null;
+      }
+      cancellation.cancel(reason);
+      if (current != null) {
+        current.cancel();
+      }
+    }
+  }
+}
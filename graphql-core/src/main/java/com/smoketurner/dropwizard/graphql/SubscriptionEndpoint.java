@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.GraphQL;
+import graphql.kickstart.servlet.context.GraphQLServletContextBuilder;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.HandshakeResponse;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.HandshakeRequest;
+import jakarta.websocket.server.ServerEndpointConfig;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WebSocket endpoint implementing the <a
+ * href="https://github.com/enisdenjo/graphql-ws/blob/master/PROTOCOL.md">graphql-transport-ws</a>
+ * protocol. Any operation may be sent over the socket, and subscriptions stream their events as
+ * they are published.
+ *
+ * <p>Events are only requested from a subscription's publisher as they are written to the socket,
+ * so at most {@code bufferSize} events per subscription are waiting to be sent to a slow client.
+ */
+public class SubscriptionEndpoint extends Endpoint {
+
+  public static final String PROTOCOL = "graphql-transport-ws";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionEndpoint.class);
+  private static final String HANDSHAKE = HandshakeRequest.class.getName();
+  private static final String CONNECTION = SubscriptionConnection.class.getName();
+
+  final Supplier<GraphQL> graphQL;
+  final JsonResultWriter writer;
+  final ObjectMapper mapper;
+  final GraphQLServletContextBuilder contextBuilder;
+  final ScheduledExecutorService scheduler;
+  final int bufferSize;
+  final int maxSubscriptions;
+  final long connectionInitTimeoutMillis;
+
+  private final AtomicInteger connections = new AtomicInteger();
+  final AtomicInteger subscriptions = new AtomicInteger();
+  final AtomicLong queued = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param graphQL Supplies the GraphQL instance each operation is executed with
+   * @param mapper Object mapper
+   * @param contextBuilder Builder of the context of each operation
+   * @param scheduler Scheduler used to time out connections which are never initialised
+   * @param bufferSize Number of events requested from a subscription ahead of the client
+   * @param maxSubscriptions Maximum number of concurrent operations on a connection
+   * @param connectionInitTimeoutMillis Time a client has to initialise the connection
+   */
+  public SubscriptionEndpoint(
+      Supplier<GraphQL> graphQL,
+      ObjectMapper mapper,
+      GraphQLServletContextBuilder contextBuilder,
+      ScheduledExecutorService scheduler,
+      int bufferSize,
+      int maxSubscriptions,
+      long connectionInitTimeoutMillis) {
+    this.graphQL = Objects.requireNonNull(graphQL);
+    this.mapper = Objects.requireNonNull(mapper);
+    this.writer = new JsonResultWriter(mapper);
+    this.contextBuilder = Objects.requireNonNull(contextBuilder);
+    this.scheduler = Objects.requireNonNull(scheduler);
+    this.bufferSize = bufferSize;
+    this.maxSubscriptions = maxSubscriptions;
+    this.connectionInitTimeoutMillis = connectionInitTimeoutMillis;
+  }
+
+  /**
+   * Create the configuration which deploys this endpoint.
+   *
+   * @param path Path of the endpoint
+   * @return the endpoint configuration
+   */
+  public ServerEndpointConfig getConfig(String path) {
+    return ServerEndpointConfig.Builder.create(SubscriptionEndpoint.class, path)
+        .subprotocols(Collections.singletonList(PROTOCOL))
+        .configurator(new Configurator())
+        .build();
+  }
+
+  @Override
+  public void onOpen(Session session, EndpointConfig config) {
+    if (!PROTOCOL.equals(session.getNegotiatedSubprotocol())) {
+      try {
+        session.close(
+            new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR, "Unsupported subprotocol"));
+      } catch (IOException e) {
+        LOGGER.debug("Unable to close WebSocket session", e);
+      }
+      return;
+    }
+
+    final HandshakeRequest handshake = (HandshakeRequest) config.getUserProperties().get(HANDSHAKE);
+    final SubscriptionConnection connection = new SubscriptionConnection(this, session, handshake);
+    session.getUserProperties().put(CONNECTION, connection);
+    session.addMessageHandler(String.class, connection);
+    connections.incrementAndGet();
+  }
+
+  @Override
+  public void onClose(Session session, CloseReason closeReason) {
+    final Object connection = session.getUserProperties().remove(CONNECTION);
+    if (connection instanceof SubscriptionConnection) {
+      connections.decrementAndGet();
+      ((SubscriptionConnection) connection).onClose();
+    }
+  }
+
+  @Override
+  public void onError(Session session, Throwable throwable) {
+    LOGGER.debug("WebSocket error", throwable);
+  }
+
+  /**
+   * Number of open connections.
+   *
+   * @return the number of connections
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  /**
+   * Number of operations in progress across all connections.
+   *
+   * @return the number of subscriptions
+   */
+  public int getSubscriptions() {
+    return subscriptions.get();
+  }
+
+  /**
+   * Number of messages waiting to be written across all connections.
+   *
+   * @return the number of queued messages
+   */
+  public long getQueued() {
+    return queued.get();
+  }
+
+  /** Shares this endpoint between connections, and passes the handshake on to each connection. */
+  private final class Configurator extends ServerEndpointConfig.Configurator {
+    @Override
+    public <T> T getEndpointInstance(Class<T> endpointClass) {
+      return endpointClass.cast(SubscriptionEndpoint.this);
+    }
+
+    @Override
+    public void modifyHandshake(
+        ServerEndpointConfig config, HandshakeRequest request, HandshakeResponse response) {
+      config.getUserProperties().put(HANDSHAKE, request);
+    }
+  }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.google.common.base.MoreObjects;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Shared fan-out of subscription events. All of the clients subscribed to the same topic share a
+ * single subscription to its source publisher, which is made when the first client subscribes and
+ * cancelled when the last one goes away.
+ *
+ * <p>The source is consumed as fast as it publishes. Each client has its own bounded buffer, so a
+ * slow client drops or conflates its own events instead of holding back the other clients or the
+ * source.
+ *
+ * <pre>
+ * DataFetcher&lt;Publisher&lt;Price&gt;&gt; prices =
+ *     env -&gt; topics.publisher("prices:" + env.getArgument("symbol"), () -&gt; feed(symbol));
+ * </pre>
+ */
+public class SubscriptionTopics {
+
+  public enum OverflowPolicy {
+    /** Discard the oldest buffered event to make room for the new one. */
+    DROP_OLDEST,
+
+    /** Discard the new event, keeping the buffered ones. */
+    DROP_NEWEST,
+
+    /**
+     * Only keep the latest event while the client is busy, which suits subscriptions where each
+     * event replaces the previous one, such as prices or statuses.
+     */
+    CONFLATE
+  }
+
+  private final ConcurrentMap<String, Topic<?>> topics = new ConcurrentHashMap<>();
+  private final int bufferSize;
+  private final OverflowPolicy policy;
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * Constructor
+   *
+   * @param bufferSize Maximum number of events buffered for each client
+   * @param policy What to do with new events once a client's buffer is full
+   */
+  public SubscriptionTopics(int bufferSize, OverflowPolicy policy) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize must be at least 1");
+    }
+    this.bufferSize = bufferSize;
+    this.policy = Objects.requireNonNull(policy);
+  }
+
+  /**
+   * Return a publisher of the events of a topic. The source is only subscribed to while at least
+   * one client is subscribed to the topic.
+   *
+   * @param topic Name of the topic
+   * @param source Supplier of the publisher of the topic's events
+   * @param <T> Type of the events
+   * @return the publisher
+   */
+  public <T> Publisher<T> publisher(String topic, Supplier<? extends Publisher<T>> source) {
+    Objects.requireNonNull(topic);
+    Objects.requireNonNull(source);
+    return subscriber -> attach(topic, source, subscriber);
+  }
+
+  /**
+   * Number of topics with at least one subscriber.
+   *
+   * @return the number of topics
+   */
+  public int getTopics() {
+    return topics.size();
+  }
+
+  /**
+   * Number of clients subscribed across all topics.
+   *
+   * @return the number of subscribers
+   */
+  public int getSubscribers() {
+    int count = 0;
+    for (Topic<?> topic : topics.values()) {
+      count += topic.subscribers.size();
+    }
+    return count;
+  }
+
+  /**
+   * Number of events waiting to be delivered across all topics.
+   *
+   * @return the number of buffered events
+   */
+  public long getBuffered() {
+    long count = 0;
+    for (Topic<?> topic : topics.values()) {
+      for (TopicSubscription<?> subscription : topic.subscribers) {
+        count += subscription.size();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Number of events discarded because a client's buffer was full.
+   *
+   * @return the number of dropped events
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> void attach(
+      String key, Supplier<? extends Publisher<T>> source, Subscriber<? super T> subscriber) {
+    final TopicSubscription<T> subscription = new TopicSubscription<>(key, subscriber);
+    final boolean[] created = {false};
+
+    // adding and removing subscribers is atomic per topic, so a topic is never
+    // disconnected from its source while a new subscriber is joining it
+    final Topic<T> topic =
+        (Topic<T>)
+            topics.compute(
+                key,
+                (k, existing) -> {
+                  final Topic<T> current;
+                  if (existing == null) {
+                    current = new Topic<>(k, source);
+                    created[0] = true;
+                  } else {
+                    current = (Topic<T>) existing;
+                  }
+                  current.subscribers.add(subscription);
+                  return current;
+                });
+
+    subscriber.onSubscribe(subscription);
+    if (created[0]) {
+      topic.connect();
+    }
+  }
+
+  private void detach(String key, TopicSubscription<?> subscription) {
+    final Topic<?>[] emptied = {null};
+    topics.computeIfPresent(
+        key,
+        (k, topic) -> {
+          if (!topic.subscribers.remove(subscription) || !topic.subscribers.isEmpty()) {
+            return topic;
+          }
+          emptied[0] = topic;
+          return null;
+        });
+    if (emptied[0] != null) {
+      emptied[0].disconnect();
+    }
+  }
+
+  /** Single subscription to the source of a topic, shared by all of its subscribers. */
+  private final class Topic<T> implements Subscriber<T> {
+    private final String key;
+    private final Supplier<? extends Publisher<T>> source;
+    private final List<TopicSubscription<T>> subscribers = new CopyOnWriteArrayList<>();
+    @Nullable private Subscription upstream;
+    private boolean disconnected = false;
+
+    private Topic(String key, Supplier<? extends Publisher<T>> source) {
+      this.key = key;
+      this.source = source;
+    }
+
+    private void connect() {
+      source.get().subscribe(this);
+    }
+
+    private void disconnect() {
+      final Subscription current;
+      synchronized (this) {
+        disconnected = true;
+        current = upstream;
+        upstream = null;
+      }
+      if (current != null) {
+        current.cancel();
+      }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      synchronized (this) {
+        if (!disconnected && upstream == null) {
+          upstream = subscription;
+          subscription.request(Long.MAX_VALUE);
+          return;
+        }
+      }
+      subscription.cancel();
+    }
+
+    @Override
+    public void onNext(T item) {
+      for (TopicSubscription<T> subscriber : subscribers) {
+        subscriber.offer(item);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      topics.remove(key, this);
+      for (TopicSubscription<T> subscriber : subscribers) {
+        subscriber.terminate(throwable);
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      topics.remove(key, this);
+      for (TopicSubscription<T> subscriber : subscribers) {
+        subscriber.terminate(null);
+      }
+    }
+  }
+
+  /** A client's subscription to a topic, with its own bounded buffer. */
+  private final class TopicSubscription<T> implements Subscription {
+    private final String key;
+    private final Subscriber<? super T> subscriber;
+    private final ArrayDeque<T> buffer = new ArrayDeque<>();
+    private long demand = 0;
+    private boolean draining = false;
+    private boolean cancelled = false;
+    private boolean terminated = false;
+    @Nullable private Throwable error;
+
+    private TopicSubscription(String key, Subscriber<? super T> subscriber) {
+      this.key = key;
+      this.subscriber = subscriber;
+    }
+
+    private synchronized int size() {
+      return buffer.size();
+    }
+
+    private void offer(T item) {
+      synchronized (this) {
+        if (cancelled || terminated) {
+          return;
+        }
+        if (policy == OverflowPolicy.CONFLATE && demand == 0 && !buffer.isEmpty()) {
+          dropped.add(buffer.size());
+          buffer.clear();
+        } else if (buffer.size() >= bufferSize) {
+          dropped.increment();
+          if (policy == OverflowPolicy.DROP_NEWEST) {
+            return;
+          }
+          buffer.poll();
+        }
+        buffer.add(item);
+      }
+      drain();
+    }
+
+    private void terminate(@Nullable Throwable throwable) {
+      synchronized (this) {
+        if (terminated) {
+          return;
+        }
+        terminated = true;
+        if (throwable != null) {
+          // errors are delivered immediately rather than after the buffered events
+          error = throwable;
+          buffer.clear();
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        terminate(new IllegalArgumentException("Requested a non-positive number of events"));
+        cancel();
+        return;
+      }
+      synchronized (this) {
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        buffer.clear();
+      }
+      detach(key, this);
+    }
+
+    /**
+     * Deliver buffered events while there is demand. Only one thread delivers at a time, and a
+     * subscriber requesting more from within {@code onNext} is picked up by the running loop.
+     */
+    private void drain() {
+      synchronized (this) {
+        if (draining) {
+          return;
+        }
+        draining = true;
+      }
+      while (true) {
+        final T item;
+        synchronized (this) {
+          if (cancelled) {
+            draining = false;
+            return;
+          }
+          if (buffer.isEmpty() || demand == 0) {
+            if (!terminated || !buffer.isEmpty()) {
+              draining = false;
+              return;
+            }
+            // the topic has ended and every buffered event has been delivered
+            cancelled = true;
+            draining = false;
+            break;
+          }
+          item = buffer.poll();
+          if (demand != Long.MAX_VALUE) {
+            demand--;
+          }
+        }
+        subscriber.onNext(item);
+      }
+
+      if (error != null) {
+        subscriber.onError(error);
+      } else {
+        subscriber.onComplete();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this).add("topic", key).add("buffered", size()).toString();
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import graphql.GraphQL;
+import graphql.kickstart.servlet.context.GraphQLServletContextBuilder;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MinDuration;
+import io.dropwizard.validation.OneOf;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.jetty.websocket.jakarta.server.config.JakartaWebSocketServletContainerInitializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration for GraphQL subscriptions over WebSocket. */
+public class SubscriptionsFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionsFactory.class);
+
+  private boolean enabled = false;
+
+  @NotEmpty private String path = "/graphql";
+
+  @Min(1)
+  private int bufferSize = 16;
+
+  @Min(1)
+  private int maxSubscriptionsPerConnection = 100;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration connectionInitTimeout = Duration.seconds(10);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration idleTimeout = Duration.minutes(5);
+
+  @Min(1)
+  private int topicBufferSize = 64;
+
+  @NotEmpty
+  @OneOf({"drop_oldest", "drop_newest", "conflate"})
+  private String overflowPolicy = "drop_oldest";
+
+  @Nullable private SubscriptionTopics topics;
+
+  @JsonProperty
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @JsonProperty
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Path of the WebSocket endpoint. This may be the same path as the GraphQL servlet, as only
+   * WebSocket upgrade requests are handled by the endpoint.
+   *
+   * @return the path
+   */
+  @JsonProperty
+  public String getPath() {
+    return path;
+  }
+
+  @JsonProperty
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  /**
+   * Number of events requested from each subscription ahead of the client. Once this many events
+   * are waiting to be written, no more are requested until the client catches up.
+   *
+   * @return the buffer size
+   */
+  @JsonProperty
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  @JsonProperty
+  public void setBufferSize(int size) {
+    bufferSize = size;
+  }
+
+  @JsonProperty
+  public int getMaxSubscriptionsPerConnection() {
+    return maxSubscriptionsPerConnection;
+  }
+
+  @JsonProperty
+  public void setMaxSubscriptionsPerConnection(int max) {
+    maxSubscriptionsPerConnection = max;
+  }
+
+  @JsonProperty
+  public Duration getConnectionInitTimeout() {
+    return connectionInitTimeout;
+  }
+
+  @JsonProperty
+  public void setConnectionInitTimeout(Duration timeout) {
+    connectionInitTimeout = timeout;
+  }
+
+  @JsonProperty
+  public Duration getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  @JsonProperty
+  public void setIdleTimeout(Duration timeout) {
+    idleTimeout = timeout;
+  }
+
+  /**
+   * Number of events buffered for each client of a shared topic, see {@link #getTopics()}.
+   *
+   * @return the buffer size
+   */
+  @JsonProperty
+  public int getTopicBufferSize() {
+    return topicBufferSize;
+  }
+
+  @JsonProperty
+  public void setTopicBufferSize(int size) {
+    topicBufferSize = size;
+  }
+
+  /**
+   * What to do with new events once a client of a shared topic has a full buffer, either {@code
+   * drop_oldest}, {@code drop_newest} or {@code conflate}.
+   *
+   * @return the overflow policy
+   */
+  @JsonProperty
+  public String getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  @JsonProperty
+  public void setOverflowPolicy(String policy) {
+    overflowPolicy = policy;
+  }
+
+  /**
+   * Return the shared topics which subscription data fetchers can publish through, so many clients
+   * subscribed to the same events share a single upstream subscription.
+   *
+   * @return the topics
+   */
+  @JsonIgnore
+  public synchronized SubscriptionTopics getTopics() {
+    if (topics == null) {
+      topics =
+          new SubscriptionTopics(
+              topicBufferSize,
+              SubscriptionTopics.OverflowPolicy.valueOf(overflowPolicy.toUpperCase(Locale.ROOT)));
+    }
+    return topics;
+  }
+
+  /**
+   * Build the WebSocket endpoint, deploy it on the application context, and register its gauges.
+   *
+   * @param environment Dropwizard environment
+   * @param graphQL Supplies the GraphQL instance each operation is executed with
+   * @param contextBuilder Builder of the context of each operation
+   * @return the endpoint
+   */
+  public SubscriptionEndpoint build(
+      Environment environment,
+      Supplier<GraphQL> graphQL,
+      GraphQLServletContextBuilder contextBuilder) {
+    final ScheduledExecutorService scheduler =
+        environment.lifecycle().scheduledExecutorService("graphql-subscriptions-%d", true).build();
+
+    final SubscriptionEndpoint endpoint =
+        new SubscriptionEndpoint(
+            graphQL,
+            environment.getObjectMapper(),
+            contextBuilder,
+            scheduler,
+            bufferSize,
+            maxSubscriptionsPerConnection,
+            connectionInitTimeout.toMilliseconds());
+
+    JakartaWebSocketServletContainerInitializer.configure(
+        environment.getApplicationContext(),
+        (context, container) -> {
+          container.setDefaultMaxSessionIdleTimeout(idleTimeout.toMilliseconds());
+          container.addEndpoint(endpoint.getConfig(path));
+        });
+    LOGGER.info("GraphQL subscriptions: {}", path);
+
+    final MetricRegistry registry = environment.metrics();
+    register(registry, SubscriptionEndpoint.class, "connections", endpoint::getConnections);
+    register(registry, SubscriptionEndpoint.class, "subscriptions", endpoint::getSubscriptions);
+    register(registry, SubscriptionEndpoint.class, "queued-messages", endpoint::getQueued);
+
+    final SubscriptionTopics shared = getTopics();
+    register(registry, SubscriptionTopics.class, "topics", shared::getTopics);
+    register(registry, SubscriptionTopics.class, "subscribers", shared::getSubscribers);
+    register(registry, SubscriptionTopics.class, "buffered-events", shared::getBuffered);
+    register(registry, SubscriptionTopics.class, "dropped-events", shared::getDropped);
+    return endpoint;
+  }
+
+  private static void register(
+      MetricRegistry registry, Class<?> klass, String name, Gauge<?> gauge) {
+    final String metricName = MetricRegistry.name(klass, name);
+    registry.remove(metricName);
+    registry.register(metricName, gauge);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+/** Configuration for sampling Apollo tracing data when {@code enableTracing} is set. */
+public class TracingFactory {
+
+  @NotNull
+  private SampledTracingInstrumentation.Sampling sampling =
+      SampledTracingInstrumentation.Sampling.ALWAYS;
+
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double sampleRate = 0.01;
+
+  @NotEmpty private String header = "X-GraphQL-Trace";
+
+  @NotNull private Duration slowThreshold = Duration.seconds(1);
+
+  private boolean includeTrivialDataFetchers = false;
+
+  @JsonProperty
+  public SampledTracingInstrumentation.Sampling getSampling() {
+    return sampling;
+  }
+
+  @JsonProperty
+  public void setSampling(SampledTracingInstrumentation.Sampling sampling) {
+    this.sampling = sampling;
+  }
+
+  @JsonProperty
+  public double getSampleRate() {
+    return sampleRate;
+  }
+
+  @JsonProperty
+  public void setSampleRate(double rate) {
+    sampleRate = rate;
+  }
+
+  @JsonProperty
+  public String getHeader() {
+    return header;
+  }
+
+  @JsonProperty
+  public void setHeader(String header) {
+    this.header = header;
+  }
+
+  @JsonProperty
+  public Duration getSlowThreshold() {
+    return slowThreshold;
+  }
+
+  @JsonProperty
+  public void setSlowThreshold(Duration threshold) {
+    slowThreshold = threshold;
+  }
+
+  @JsonProperty
+  public boolean isIncludeTrivialDataFetchers() {
+    return includeTrivialDataFetchers;
+  }
+
+  @JsonProperty
+  public void setIncludeTrivialDataFetchers(boolean include) {
+    includeTrivialDataFetchers = include;
+  }
+
+  public SampledTracingInstrumentation build(Environment environment) {
+    return new SampledTracingInstrumentation(
+        sampling,
+        sampleRate,
+        header,
+        slowThreshold.toNanoseconds(),
+        includeTrivialDataFetchers,
+        environment.getObjectMapper(),
+        environment.metrics());
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import graphql.ExecutionInput;
+import graphql.GraphQLError;
+import graphql.ParseAndValidate;
+import graphql.ParseAndValidateResult;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.schema.GraphQLSchema;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PreparsedDocumentProvider} which only executes trusted documents that were registered at
+ * startup. Every document is parsed and validated once when the provider is created, and requests
+ * reference a document by its identifier, so query text is never parsed at runtime. Requests for
+ * any other document are rejected, unless a fallback provider is configured.
+ *
+ * <p>The {@link StreamingGraphQLServlet} does not split requests which reference a trusted document
+ * into deferred parts, so a trusted document is always executed in full, once per request.
+ */
+public class TrustedDocumentProvider implements PreparsedDocumentProvider {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrustedDocumentProvider.class);
+  private static final String UNTRUSTED_DOCUMENT = "Only trusted documents may be executed";
+
+  private final Map<String, CachedDocument> documents;
+  @Nullable private final QueryComplexityAnalyzer analyzer;
+  @Nullable private final PreparsedDocumentProvider fallback;
+  private final Meter rejected;
+
+  /**
+   * Constructor
+   *
+   * @param schema GraphQL schema used to validate the documents
+   * @param documents Query text of each trusted document, keyed by its identifier
+   * @param analyzer Analyzer used to reject queries which are too deep or complex, or null to
+   *     disable query limits
+   * @param fallback Provider used for documents which are not trusted, or null to reject them
+   * @param registry Metric registry
+   * @throws IllegalStateException if any of the documents are invalid
+   */
+  public TrustedDocumentProvider(
+      GraphQLSchema schema,
+      Map<String, String> documents,
+      @Nullable QueryComplexityAnalyzer analyzer,
+      @Nullable PreparsedDocumentProvider fallback,
+      MetricRegistry registry) {
+    this.analyzer = analyzer;
+    this.fallback = fallback;
+    this.documents = compile(schema, documents, analyzer);
+
+    LOGGER.info(
+        "Trusted documents: {} (untrusted documents {})",
+        this.documents.size(),
+        fallback == null ? "rejected" : "allowed");
+
+    rejected =
+        registry.meter(MetricRegistry.name(TrustedDocumentProvider.class, "rejected-documents"));
+    final String size = MetricRegistry.name(TrustedDocumentProvider.class, "documents");
+    registry.remove(size);
+    registry.register(size, (Gauge<Integer>) this.documents::size);
+  }
+
+  /**
+   * Parse and validate each unique document once, in parallel.
+   *
+   * @param schema GraphQL schema
+   * @param documents Query text keyed by identifier
+   * @param analyzer Query complexity analyzer
+   * @return the compiled documents keyed by identifier
+   */
+  private static Map<String, CachedDocument> compile(
+      GraphQLSchema schema,
+      Map<String, String> documents,
+      @Nullable QueryComplexityAnalyzer analyzer) {
+    final Map<String, ParseAndValidateResult> results =
+        documents.values().stream()
+            .distinct()
+            .parallel()
+            .collect(
+                Collectors.toConcurrentMap(
+                    Function.identity(),
+                    query ->
+                        ParseAndValidate.parseAndValidate(
+                            schema, ExecutionInput.newExecutionInput(query).build())));
+
+    final Map<String, CachedDocument> compiled = new HashMap<>(results.size());
+    final ImmutableMap.Builder<String, CachedDocument> builder = ImmutableMap.builder();
+    final StringBuilder failures = new StringBuilder();
+
+    documents.forEach(
+        (id, query) -> {
+          final ParseAndValidateResult result = results.get(query);
+          if (result.isFailure()) {
+            final List<String> errors =
+                result.getErrors().stream()
+                    .map(GraphQLError::getMessage)
+                    .collect(Collectors.toList());
+            failures.append(String.format("%n  %s: %s", id, errors));
+            return;
+          }
+          builder.put(
+              id,
+              compiled.computeIfAbsent(
+                  query,
+                  q -> {
+                    final PreparsedDocumentEntry entry =
+                        new PreparsedDocumentEntry(result.getDocument());
+                    return new CachedDocument(
+                        entry, analyzer == null ? null : analyzer.analyze(entry.getDocument()), q);
+                  }));
+        });
+
+    if (failures.length() > 0) {
+      throw new IllegalStateException("Invalid trusted documents:" + failures);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public PreparsedDocumentEntry getDocument(
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> computeFunction) {
+    return getDocumentAsync(executionInput, computeFunction).join();
+  }
+
+  @Override
+  public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(
+      ExecutionInput executionInput,
+      Function<ExecutionInput, PreparsedDocumentEntry> computeFunction) {
+
+    final Optional<String> id = PersistedQueries.getDocumentId(executionInput);
+    final String query = executionInput.getQuery();
+
+    // clients which send the full text of a trusted document are matched on its hash
+    final CachedDocument document;
+    if (id.isPresent()) {
+      document = documents.get(id.get());
+    } else if (PersistedQueries.isMissingQuery(query)) {
+      document = null;
+    } else {
+      document = documents.get(PersistedQueries.sha256(query));
+    }
+
+    if (document != null) {
+      return CompletableFuture.completedFuture(
+          CachingPreparsedDocumentProvider.checkLimits(analyzer, document, executionInput));
+    }
+
+    if (fallback != null) {
+      return fallback.getDocumentAsync(executionInput, computeFunction);
+    }
+
+    rejected.mark();
+    if (id.isPresent()) {
+      LOGGER.debug("Trusted document not found: {}", id.get());
+      return CompletableFuture.completedFuture(PersistedQueries.notFound(id.get()));
+    }
+    return CompletableFuture.completedFuture(
+        new PreparsedDocumentEntry(new GraphQLValidationError(UNTRUSTED_DOCUMENT)));
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.schema.GraphQLSchema;
+import io.dropwizard.core.setup.Environment;
+import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration for trusted documents, where only operations registered at startup may be executed.
+ */
+public class TrustedDocumentsFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrustedDocumentsFactory.class);
+
+  @NotNull private List<String> locations = new ArrayList<>();
+
+  private boolean allowUntrusted = false;
+
+  /**
+   * Locations the trusted documents are loaded from, as file paths or classpath resources. A
+   * location is either a directory, which is searched for {@code .graphql} and {@code .json} files,
+   * a single {@code .graphql} document, or a JSON manifest. A manifest is either an object with an
+   * {@code operations} array whose entries have an {@code id} and {@code body}, as produced by
+   * Apollo persisted query manifest tooling, an object mapping identifiers to query text, as
+   * produced by the Relay compiler, or an array of query strings.
+   *
+   * <p>Every document may be referenced by the SHA-256 hash of its text, and also by its manifest
+   * identifier or, for {@code .graphql} files, by its file name without the extension.
+   *
+   * @return the locations
+   */
+  @JsonProperty
+  public List<String> getLocations() {
+    return locations;
+  }
+
+  @JsonProperty
+  public void setLocations(List<String> locations) {
+    this.locations = locations;
+  }
+
+  /**
+   * Whether documents which are not trusted are parsed and executed as usual, which is useful while
+   * migrating clients to trusted documents.
+   *
+   * @return true if untrusted documents are allowed
+   */
+  @JsonProperty
+  public boolean isAllowUntrusted() {
+    return allowUntrusted;
+  }
+
+  @JsonProperty
+  public void setAllowUntrusted(boolean allowUntrusted) {
+    this.allowUntrusted = allowUntrusted;
+  }
+
+  @JsonIgnore
+  public boolean isEnabled() {
+    return !locations.isEmpty();
+  }
+
+  /**
+   * Load and compile the trusted documents.
+   *
+   * @param environment Dropwizard environment
+   * @param schema GraphQL schema used to validate the documents
+   * @param analyzer Analyzer used to reject queries which are too deep or complex, or null to
+   *     disable query limits
+   * @param fallback Provider used for untrusted documents when they are allowed
+   * @return the document provider
+   * @throws IOException if unable to read a location
+   */
+  public TrustedDocumentProvider build(
+      Environment environment,
+      GraphQLSchema schema,
+      @Nullable QueryComplexityAnalyzer analyzer,
+      PreparsedDocumentProvider fallback)
+      throws IOException {
+    final Map<String, String> documents = new LinkedHashMap<>();
+    for (String location : locations) {
+      read(location, environment.getObjectMapper(), documents);
+    }
+    return new TrustedDocumentProvider(
+        schema, documents, analyzer, allowUntrusted ? fallback : null, environment.metrics());
+  }
+
+  /**
+   * Read the trusted documents in a file, directory or classpath resource.
+   *
+   * @param location File path or classpath resource name
+   * @param mapper Object mapper used to read manifests
+   * @param documents Documents keyed by identifier, which are added to
+   * @throws IOException if unable to read the location
+   */
+  static void read(String location, ObjectMapper mapper, Map<String, String> documents)
+      throws IOException {
+    final Path path = Paths.get(location);
+    if (Files.exists(path)) {
+      read(path, mapper, documents);
+      return;
+    }
+
+    final ClassLoader loader =
+        MoreObjects.firstNonNull(
+            Thread.currentThread().getContextClassLoader(),
+            TrustedDocumentsFactory.class.getClassLoader());
+    final URL url = loader.getResource(location);
+    if (url == null) {
+      throw new IOException(String.format("Trusted documents not found: %s", location));
+    }
+
+    final URI uri;
+    try {
+      uri = url.toURI();
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+
+    if (!"jar".equals(uri.getScheme())) {
+      read(Paths.get(uri), mapper, documents);
+      return;
+    }
+
+    // resources packaged in a JAR, which may be a directory of documents
+    try (FileSystem fileSystem = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+      read(fileSystem.provider().getPath(uri), mapper, documents);
+    } catch (FileSystemAlreadyExistsException e) {
+      read(Paths.get(uri), mapper, documents);
+    }
+  }
+
+  private static void read(Path path, ObjectMapper mapper, Map<String, String> documents)
+      throws IOException {
+    if (!Files.isDirectory(path)) {
+      readFile(path, mapper, documents);
+      return;
+    }
+
+    final List<Path> files;
+    try (Stream<Path> stream = Files.walk(path)) {
+      files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+    for (Path file : files) {
+      final String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+      if (name.endsWith(".graphql") || name.endsWith(".gql") || name.endsWith(".json")) {
+        readFile(file, mapper, documents);
+      }
+    }
+  }
+
+  private static void readFile(Path file, ObjectMapper mapper, Map<String, String> documents)
+      throws IOException {
+    LOGGER.info("Loading trusted GraphQL documents: {}", file.toUri());
+    final String fileName = file.getFileName().toString();
+
+    if (!fileName.toLowerCase(Locale.ROOT).endsWith(".json")) {
+      final String query = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      final int extension = fileName.lastIndexOf('.');
+      add(documents, extension > 0 ? fileName.substring(0, extension) : fileName, query);
+      return;
+    }
+
+    final JsonNode root;
+    try (InputStream in = Files.newInputStream(file)) {
+      root = mapper.readTree(in);
+    }
+
+    if (root.isArray()) {
+      for (JsonNode operation : root) {
+        if (operation.isTextual()) {
+          add(documents, null, operation.textValue());
+        }
+      }
+    } else if (root.has("operations")) {
+      for (JsonNode operation : root.path("operations")) {
+        if (operation.path("body").isTextual()) {
+          add(documents, operation.path("id").textValue(), operation.path("body").textValue());
+        }
+      }
+    } else {
+      final Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+      while (fields.hasNext()) {
+        final Map.Entry<String, JsonNode> field = fields.next();
+        if (field.getValue().isTextual()) {
+          add(documents, field.getKey(), field.getValue().textValue());
+        }
+      }
+    }
+  }
+
+  private static void add(Map<String, String> documents, @Nullable String id, String query) {
+    put(documents, PersistedQueries.sha256(query), query);
+    if (id != null && !id.isEmpty()) {
+      put(documents, id, query);
+    }
+  }
+
+  private static void put(Map<String, String> documents, String id, String query) {
+    final String existing = documents.putIfAbsent(id, query);
+    if (existing != null && !existing.equals(query)) {
+      throw new IllegalStateException(
+          String.format("Trusted document identifier is not unique: %s", id));
+    }
+  }
+}
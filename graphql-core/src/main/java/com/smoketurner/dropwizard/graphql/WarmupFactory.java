@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.dropwizard.graphql;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import graphql.schema.GraphQLSchema;
+import io.dropwizard.core.setup.Environment;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Configuration for pre-parsing and pre-validating known operations at startup, so the document
+ * cache is populated before the server accepts traffic.
+ */
+public class WarmupFactory {
+
+  @NotNull private List<String> manifests = new ArrayList<>();
+
+  @Nullable private String snapshotFile;
+
+  @Min(1)
+  private int snapshotLimit = 1000;
+
+  @Min(1)
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Operation manifests to load at startup, as file paths or classpath resources. A manifest is
+   * either a JSON array of query strings, or an object with an {@code operations} array whose
+   * entries have a {@code body}, as produced by Apollo persisted query manifest tooling.
+   *
+   * @return the manifests
+   */
+  @JsonProperty
+  public List<String> getManifests() {
+    return manifests;
+  }
+
+  @JsonProperty
+  public void setManifests(List<String> manifests) {
+    this.manifests = manifests;
+  }
+
+  /**
+   * File the most frequently used cached operations are written to on shutdown, and loaded from on
+   * the next startup.
+   *
+   * @return the snapshot file
+   */
+  @JsonProperty
+  public Optional<String> getSnapshotFile() {
+    return Optional.ofNullable(snapshotFile);
+  }
+
+  @JsonProperty
+  public void setSnapshotFile(@Nullable String file) {
+    snapshotFile = file;
+  }
+
+  @JsonProperty
+  public int getSnapshotLimit() {
+    return snapshotLimit;
+  }
+
+  @JsonProperty
+  public void setSnapshotLimit(int limit) {
+    snapshotLimit = limit;
+  }
+
+  @JsonProperty
+  public int getThreads() {
+    return threads;
+  }
+
+  @JsonProperty
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  @JsonIgnore
+  public boolean isEnabled() {
+    return !manifests.isEmpty() || snapshotFile != null;
+  }
+
+  /**
+   * Warm the document cache from the configured manifests and snapshot, and register the snapshot
+   * to be written on shutdown.
+   *
+   * @param environment Dropwizard environment
+   * @param schema GraphQL schema used to validate operations
+   * @param provider Document provider to warm
+   * @param cache Document cache written to the snapshot
+   * @param persistedQueries Whether operations should also be served by their hash
+   * @return the warmer
+   * @throws IOException if unable to read a manifest
+   */
+  public DocumentWarmer build(
+      Environment environment,
+      GraphQLSchema schema,
+      CachingPreparsedDocumentProvider provider,
+      DocumentCache cache,
+      boolean persistedQueries)
+      throws IOException {
+    final DocumentWarmer warmer =
+        new DocumentWarmer(
+            schema,
+            provider,
+            persistedQueries,
+            environment.getObjectMapper(),
+            environment.metrics());
+
+    final List<String> queries = new ArrayList<>();
+    for (String manifest : manifests) {
+      queries.addAll(warmer.readManifest(manifest));
+    }
+
+    final Path snapshot = snapshotFile == null ? null : Paths.get(snapshotFile);
+    if (snapshot != null) {
+      queries.addAll(warmer.readFile(snapshot));
+      environment.lifecycle().manage(warmer.snapshotOnStop(cache, snapshot, snapshotLimit));
+    }
+
+    warmer.warm(queries, threads);
+    return warmer;
+  }
+}